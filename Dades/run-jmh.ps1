@@ -0,0 +1,10 @@
+# run-jmh.ps1
+
+# Change to the directory where the script is located
+Set-Location $PSScriptRoot
+
+# Executa els benchmarks JMH i desa els resultats a target/jmh-result.json
+$jmhArgs = "-rf json -rff target/jmh-result.json " + ($args -join " ")
+Write-Host "JMH args: $jmhArgs"
+
+mvn clean compile exec:exec -Pjmh "-Djmh.args=$jmhArgs"
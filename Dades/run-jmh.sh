@@ -0,0 +1,13 @@
+#!/bin/bash
+
+# run-jmh.sh
+
+# Executa els benchmarks JMH i desa els resultats a target/jmh-result.json
+# Exemples:
+#   ./run-jmh.sh                          (tots els benchmarks, totes les mides)
+#   ./run-jmh.sh ManagerBenchmark -p prestecs=1000
+
+jmhArgs="-rf json -rff target/jmh-result.json $*"
+echo "JMH args: $jmhArgs"
+
+mvn clean compile exec:exec -Pjmh "-Djmh.args=$jmhArgs"
@@ -0,0 +1,139 @@
+package com.project.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.Manager;
+
+/*
+ * Temps d'arrencada del Manager (createSessionFactory) sobre una còpia de
+ * bench-<prestecs>-migrat.db (bench-<prestecs>.db amb les migracions ja
+ * aplicades, que es fa la primera vegada), amb l'esquema com es feia abans
+ * i com ara:
+ * - create: hbm2ddl.auto=create, sense migracions (l'antic
+ *   hibernate.properties), que a més esborra les dades
+ * - update: hbm2ddl.auto=update, sense migracions (el que feien els
+ *   benchmarks)
+ * - migrar: dades.esquema=migrar, amb la validació de les entitats
+ *
+ * Cada iteració copia la base de dades i arrenca el Manager de nou. La
+ * primera de cada fork és en fred (si les bases de dades ja estaven
+ * fetes); les següents ja tenen les classes carregades i compilades.
+ * A la primera i l'última iteració s'escriu el temps de cada fase.
+ *
+ * Després de cada arrencada es comprova que amb update i migrar hi
+ * continuen els préstecs actius i que amb migrar s'ha validat l'esquema.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 5)
+@Fork(2)
+public class ArrencadaBenchmark {
+
+    @Param({"100000"})
+    public int prestecs;
+
+    @Param({"create", "update", "migrar"})
+    public String esquema;
+
+    private File origen;
+    private File copia;
+    private int iteracio;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String basePath = System.getProperty("user.dir") + "/data/";
+        origen = new File(basePath + "bench-" + prestecs + "-migrat.db");
+        copia = new File(basePath + "bench-arrencada.db");
+        File marca = new File(origen.getPath() + ".ok");
+        System.getProperties().putIfAbsent("dades.informes.max_files", "0");
+        System.getProperties().putIfAbsent("dades.metriques.log_segons", "0");
+        System.setProperty("dades.particions.biblioteques", "false");
+        if (!marca.exists()) {
+            migrar(new File(basePath + "bench-" + prestecs + ".db"), marca);
+        }
+        System.setProperty("hibernate.connection.url", "jdbc:sqlite:" + copia.getPath());
+        if (esquema.equals("migrar")) {
+            System.setProperty("dades.esquema", "migrar");
+            System.setProperty("hibernate.hbm2ddl.auto", "none");
+        } else {
+            System.setProperty("dades.esquema", "cap");
+            System.setProperty("hibernate.hbm2ddl.auto", esquema);
+        }
+    }
+
+    // Genera la base de dades si no hi és i n'aplica les migracions a una còpia
+    private void migrar(File db, File marca) {
+        DadesBenchmark.preparar(prestecs);
+        Manager.close();
+        try {
+            Files.copy(db.toPath(), origen.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(new File(origen.getPath() + "-wal").toPath());
+            System.setProperty("hibernate.connection.url", "jdbc:sqlite:" + origen.getPath());
+            System.setProperty("dades.esquema", "migrar");
+            Manager.createSessionFactory();
+            System.out.printf("%nMigracions de %s: %s", origen.getName(), Manager.getArrencada());
+            Manager.close();
+            marca.createNewFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void copiar() {
+        try {
+            for (String sufix : new String[] {"", "-wal"}) {
+                File fitxer = new File(origen.getPath() + sufix);
+                File desti = new File(copia.getPath() + sufix);
+                if (fitxer.exists()) {
+                    Files.copy(fitxer.toPath(), desti.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    Files.deleteIfExists(desti.toPath());
+                }
+            }
+            Files.deleteIfExists(new File(copia.getPath() + "-shm").toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        iteracio++;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tancar() {
+        int actius = Manager.listLlibresEnPrestec().size();
+        long validacio = Manager.getArrencada().getNanos("validació de l'esquema");
+        if (iteracio == 1 || iteracio == 5) {
+            System.out.printf("%n%s", Manager.getArrencada());
+        }
+        Manager.close();
+        if (esquema.equals("create") != (actius == 0)) {
+            throw new IllegalStateException(actius + " préstecs actius després d'arrencar amb " + esquema);
+        }
+        if (esquema.equals("migrar") && validacio == 0) {
+            throw new IllegalStateException("No s'ha validat l'esquema");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (String sufix : new String[] {"", "-wal", "-shm"}) {
+            new File(copia.getPath() + sufix).delete();
+        }
+    }
+
+    @Benchmark
+    public long arrencar() {
+        Manager.createSessionFactory();
+        return Manager.getArrencada().getTotalNanos();
+    }
+}
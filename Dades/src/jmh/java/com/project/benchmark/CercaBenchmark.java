@@ -0,0 +1,278 @@
+package com.project.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.LlibreTrobat;
+import com.project.dao.Manager;
+import com.project.domain.Autor;
+import com.project.domain.Llibre;
+import com.project.sqliteutils.UtilsSQLite;
+
+/*
+ * Cerca de llibres pel títol, l'editorial o l'autor: l'índex FTS5
+ * (Manager.cercarLlibres / comptarLlibresTrobats) contra un LIKE '%x%'
+ * sobre el text de cada llibre, en un catàleg d'un milió de títols fets
+ * amb paraules d'un vocabulari inventat (amb freqüències molt desiguals,
+ * com en els títols reals).
+ *
+ * Les consultes: una paraula freqüent, una de rara, i un cognom més el
+ * començament d'una paraula del títol. El LIKE de la primera pàgina pot
+ * parar quan en té 20 (però sense ordenar per rellevància); per saber el
+ * total o ordenar-los ha de recórrer tot el catàleg.
+ *
+ * Abans de mesurar es comprova que la cerca FTS troba exactament els
+ * mateixos llibres que un filtre fet en Java sobre els resultats del LIKE,
+ * i que l'índex segueix els canvis de títols i autors.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CercaBenchmark {
+
+    private static final long LLAVOR = 42L;
+    private static final int MIDA_PAGINA = 20;
+    private static final int MIDA_LOT = 20000;
+    private static final String[] SILLABES = {
+        "ba", "be", "ca", "ce", "da", "do", "fa", "ga", "gu", "la", "le", "li", "lu", "ma", "me", "mi",
+        "na", "ni", "no", "pa", "pe", "po", "ra", "re", "ri", "ro", "sa", "se", "so", "ta", "te", "ti",
+        "to", "va", "ve", "vi", "xa", "mar", "sol", "ter", "cel", "nit", "bos", "riu", "vent", "llum"
+    };
+    private static final String[] NOMS = {
+        "Anna", "Joan", "Maria", "Pere", "Laia", "Jordi", "Núria", "Marc", "Marta", "Pau",
+        "Júlia", "Arnau", "Clara", "Oriol", "Mercè", "Quim", "Rosa", "Xavier", "Aina", "Biel"
+    };
+    private static final String[] COGNOMS = {
+        "Garcia", "Puig", "Soler", "Vidal", "Ferrer", "Roca", "Serra", "Font", "Pujol", "Riera",
+        "Casals", "Martí", "Sala", "Vila", "Costa", "Mas", "Bosch", "Camps", "Pons", "Rovira",
+        "Llorens", "Batlle", "Ribas", "Coll", "Prat", "Bonet", "Torrent", "Sabaté", "Planas", "Borràs"
+    };
+
+    private static final String LIKE_TEXT = "SELECT l.llibre_id AS id, l.titol || ' ' || l.editorial || ' ' || "
+        + "ifnull((SELECT group_concat(a.nom, ' ') FROM autor_llibre al JOIN autors a ON a.autor_id = al.autor_id "
+        + "WHERE al.llibre_id = l.llibre_id), '') AS text FROM llibres l";
+
+    @Param({"1000000"})
+    public int llibres;
+
+    @Param({"frequent", "rara", "autor"})
+    public String tipus;
+
+    private String consulta;
+    private String[] paraules;
+    private Connection conn;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        String bbdd = preparar(llibres);
+        String[] vocabulari = vocabulari();
+        consulta = switch (tipus) {
+            case "frequent" -> vocabulari[0];
+            case "rara" -> vocabulari[vocabulari.length - 1];
+            default -> COGNOMS[3] + " " + vocabulari[5].substring(0, 3);
+        };
+        paraules = consulta.toLowerCase().split(" ");
+        conn = UtilsSQLite.connectReadOnly(bbdd);
+
+        comprovarResultats();
+        comprovarSincronitzacio();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        UtilsSQLite.disconnect(conn);
+        Manager.close();
+    }
+
+    /**
+     * Genera data/bench-cataleg-<llibres>.db si no existeix, amb un autor
+     * per llibre, i hi apunta el Manager. Torna el camí del fitxer.
+     */
+    private static String preparar(int llibres) {
+        String basePath = System.getProperty("user.dir") + "/data/";
+        new File(basePath).mkdirs();
+        File db = new File(basePath + "bench-cataleg-" + llibres + ".db");
+        File marca = new File(basePath + "bench-cataleg-" + llibres + ".db.ok");
+        boolean generar = !marca.exists();
+        if (generar) {
+            db.delete();
+        }
+
+        System.setProperty("hibernate.connection.url", "jdbc:sqlite:" + db.getPath());
+        System.setProperty("hibernate.show_sql", "false");
+        Manager.createSessionFactory();
+
+        if (generar) {
+            System.out.println("Generant " + db.getName() + " ...");
+            long inici = System.nanoTime();
+            String[] vocabulari = vocabulari();
+            Random random = new Random(LLAVOR);
+            List<Llibre> lot = new ArrayList<>(MIDA_LOT);
+            for (int i = 0; i < llibres; i++) {
+                Llibre llibre = new Llibre("CAT-" + i, titol(random, vocabulari),
+                    "Edicions " + capitalitzar(vocabulari[random.nextInt(200)]), 1900 + random.nextInt(125));
+                llibre.getAutors().add(new Autor(NOMS[random.nextInt(NOMS.length)] + " "
+                    + COGNOMS[random.nextInt(COGNOMS.length)] + " " + COGNOMS[random.nextInt(COGNOMS.length)]));
+                lot.add(llibre);
+                if (lot.size() == MIDA_LOT) {
+                    Manager.addLlibres(lot);
+                    lot.clear();
+                }
+            }
+            Manager.addLlibres(lot);
+            System.out.printf("Catàleg generat en %.1f s%n", (System.nanoTime() - inici) / 1e9);
+            try {
+                marca.createNewFile();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return db.getPath();
+    }
+
+    // Sempre el mateix vocabulari: la paraula 0 és la més freqüent
+    private static String[] vocabulari() {
+        Random random = new Random(LLAVOR);
+        Set<String> paraules = new LinkedHashSet<>();
+        while (paraules.size() < 5000) {
+            StringBuilder paraula = new StringBuilder();
+            int sillabes = 2 + random.nextInt(3);
+            for (int i = 0; i < sillabes; i++) {
+                paraula.append(SILLABES[random.nextInt(SILLABES.length)]);
+            }
+            paraules.add(paraula.toString());
+        }
+        return paraules.toArray(new String[0]);
+    }
+
+    // Distribució molt desigual: unes poques paraules surten a molts títols
+    private static String titol(Random random, String[] vocabulari) {
+        int n = 2 + random.nextInt(4);
+        StringBuilder titol = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            String paraula = vocabulari[(int) (Math.pow(random.nextDouble(), 4) * vocabulari.length)];
+            titol.append(i == 0 ? capitalitzar(paraula) : " " + paraula);
+        }
+        return titol.toString();
+    }
+
+    private static String capitalitzar(String paraula) {
+        return Character.toUpperCase(paraula.charAt(0)) + paraula.substring(1);
+    }
+
+    /**
+     * Els llibres del LIKE (subcadena) que tenen alguna paraula que comença
+     * per cada paraula de la consulta han de ser exactament els de la cerca
+     */
+    private void comprovarResultats() throws SQLException {
+        Set<Long> esperats = new HashSet<>();
+        try (ResultSet rs = UtilsSQLite.query(conn, likeSql(false), likeParams())) {
+            while (rs.next()) {
+                if (totesComencen(rs.getString(2).toLowerCase().split("[^\\p{L}\\p{N}]+"))) {
+                    esperats.add(rs.getLong(1));
+                }
+            }
+        }
+        long total = Manager.comptarLlibresTrobats(consulta);
+        Set<Long> trobats = new HashSet<>();
+        for (LlibreTrobat llibre : Manager.cercarLlibres(consulta, 0, (int) Math.max(1, total))) {
+            trobats.add(llibre.llibreId());
+        }
+        if (total != esperats.size() || !trobats.equals(esperats)) {
+            throw new IllegalStateException("'" + consulta + "': la cerca en troba " + total + " (" + trobats.size()
+                + " a la llista) i n'hi havia d'haver " + esperats.size());
+        }
+        System.out.println("'" + consulta + "': " + total + " llibres");
+    }
+
+    private boolean totesComencen(String[] mots) {
+        for (String paraula : paraules) {
+            boolean trobada = false;
+            for (String mot : mots) {
+                trobada |= mot.startsWith(paraula);
+            }
+            if (!trobada) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void comprovarSincronitzacio() {
+        String marca = "q" + Long.toString(System.nanoTime(), 36);
+        Llibre llibre = new Llibre("C" + System.nanoTime(), "Prova " + marca, "Edicions Prova", 2025);
+        Autor autor = new Autor("Autora " + marca + "a");
+        llibre.getAutors().add(autor);
+        Manager.addLlibres(List.of(llibre));
+        comprovar(marca, 1);
+        comprovar(marca + "a", 1);
+
+        Manager.updateLlibre(llibre.getLlibreId(), "Prova " + marca + "b", "Edicions Prova", 2025);
+        comprovar(marca + "b", 1);
+        Manager.updateAutor(autor.getAutorId(), "Autora " + marca + "c", new HashSet<>());
+        comprovar(marca + "a", 0);
+        comprovar(marca + "c", 1);
+    }
+
+    private static void comprovar(String text, long esperats) {
+        long trobats = Manager.comptarLlibresTrobats(text);
+        if (trobats != esperats) {
+            throw new IllegalStateException("'" + text + "': " + trobats + " llibres i n'hi havia d'haver " + esperats);
+        }
+    }
+
+    private String likeSql(boolean pagina) {
+        StringBuilder sql = new StringBuilder("SELECT id, text FROM (" + LIKE_TEXT + ") WHERE ");
+        for (int i = 0; i < paraules.length; i++) {
+            sql.append(i == 0 ? "text LIKE ?" : " AND text LIKE ?");
+        }
+        return pagina ? sql + " LIMIT " + MIDA_PAGINA : sql.toString();
+    }
+
+    private Object[] likeParams() {
+        Object[] params = new Object[paraules.length];
+        for (int i = 0; i < paraules.length; i++) {
+            params[i] = "%" + paraules[i] + "%";
+        }
+        return params;
+    }
+
+    @Benchmark
+    public List<LlibreTrobat> ftsPrimeraPagina() {
+        return Manager.cercarLlibres(consulta, 0, MIDA_PAGINA);
+    }
+
+    @Benchmark
+    public long ftsTotal() {
+        return Manager.comptarLlibresTrobats(consulta);
+    }
+
+    @Benchmark
+    public List<Long> likePrimeraPagina() {
+        return UtilsSQLite.query(conn, likeSql(true), rs -> rs.getLong(1), likeParams());
+    }
+
+    @Benchmark
+    public long likeTotal() throws SQLException {
+        try (ResultSet rs = UtilsSQLite.query(conn, "SELECT count(*) FROM (" + likeSql(false) + ")", likeParams())) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
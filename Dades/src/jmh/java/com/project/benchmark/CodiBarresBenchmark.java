@@ -0,0 +1,199 @@
+package com.project.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.IndexCodiBarres;
+import com.project.dao.Manager;
+import com.project.dao.ResultatPrestec;
+import com.project.dao.ResultatRetorns;
+
+/*
+ * Resolució d'un codi de barres a un exemplar, com a un mostrador de
+ * préstec, amb 'exemplars' exemplars:
+ * - index: IndexCodiBarres.buscar (fora del heap, sense crear objectes)
+ * - sqlite: Manager.findExemplarIdPerCodiBarres d'un codi que l'índex no
+ *   pot guardar (amb un caràcter fora d'ISO-8859-1), que fa la consulta
+ *   per codiBarres a SQLite com abans de l'índex
+ *
+ * Els codis es busquen en ordre aleatori; un de cada vuit no existeix.
+ * Amb -prof gc es veu que l'índex no fa memòria per cerca.
+ *
+ * La base de dades bench-codis-<exemplars>.db es genera la primera vegada
+ * amb JDBC (el Manager només hi crea l'esquema): els codis són
+ * CB<id> i un exemplar de cada tres és en préstec. A més hi ha 1000
+ * exemplars amb codis €<id>, per a la consulta a SQLite.
+ *
+ * Abans de mesurar s'escriu el temps de l'índex a l'arrencada, refent-lo
+ * des de la base de dades i obrint el fitxer que ha quedat, i es comprova
+ * que tots els codis de la mostra donen el seu exemplar i la seva
+ * disponibilitat, i que un préstec i un retorn pel codi canvien la
+ * disponibilitat a l'índex.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CodiBarresBenchmark {
+
+    private static final int MOSTRA = 1 << 16;
+    private static final int NO_INDEXABLES = 1000;
+
+    @Param({"20000", "4000000"})
+    public int exemplars;
+
+    private IndexCodiBarres index;
+    private String[] codis;
+    private long[] esperats;
+    private String[] noIndexables;
+    private int seguent;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String basePath = System.getProperty("user.dir") + "/data/";
+        File db = new File(basePath + "bench-codis-" + exemplars + ".db");
+        File marca = new File(db.getPath() + ".ok");
+        System.getProperties().putIfAbsent("dades.informes.max_files", "0");
+        System.getProperties().putIfAbsent("dades.metriques.log_segons", "0");
+        System.setProperty("dades.particions.biblioteques", "false");
+        System.setProperty("hibernate.connection.url", "jdbc:sqlite:" + db.getPath());
+        if (!marca.exists()) {
+            generar(db, marca);
+        }
+        System.setProperty("dades.esquema", "migrar");
+
+        // Arrencada refent l'índex i arrencada amb el fitxer que ha quedat
+        String prefixIndex = "bench-codis-" + exemplars + "-codis.idx.";
+        for (File fitxer : new File(basePath).listFiles((dir, nom) -> nom.startsWith(prefixIndex))) {
+            fitxer.delete();
+        }
+        Manager.createSessionFactory();
+        System.out.printf("%nSense fitxer: %s", Manager.getArrencada());
+        Manager.close();
+        Manager.createSessionFactory();
+        System.out.printf("%nAmb el fitxer: %s", Manager.getArrencada());
+        index = Manager.getIndexCodiBarres();
+        if (index.mida() != exemplars) {
+            throw new IllegalStateException(index.mida() + " codis a l'índex per a " + exemplars + " exemplars");
+        }
+
+        Random random = new Random(42);
+        codis = new String[MOSTRA];
+        esperats = new long[MOSTRA];
+        for (int i = 0; i < MOSTRA; i++) {
+            long id = 1 + random.nextInt(exemplars);
+            boolean existeix = i % 8 != 0;
+            codis[i] = existeix ? codi(id) : "NO" + id;
+            esperats[i] = existeix ? id : -1;
+        }
+        noIndexables = new String[NO_INDEXABLES];
+        for (int i = 0; i < NO_INDEXABLES; i++) {
+            noIndexables[i] = "€" + (i + 1);
+        }
+        comprovar();
+    }
+
+    private static String codi(long id) {
+        return "CB" + id;
+    }
+
+    private void comprovar() {
+        for (int i = 0; i < MOSTRA; i++) {
+            long resultat = index.buscar(codis[i]);
+            long id = IndexCodiBarres.exemplarId(resultat);
+            if (id != esperats[i] || (id >= 0
+                    && IndexCodiBarres.disponible(resultat) != Manager.getIndexDisponibilitat().isDisponible(id))) {
+                throw new IllegalStateException("Codi " + codis[i] + ": " + id + " en lloc de " + esperats[i]);
+            }
+        }
+        if (Manager.findExemplarIdPerCodiBarres(noIndexables[0]) != exemplars + 1) {
+            throw new IllegalStateException("El codi " + noIndexables[0] + " no s'ha trobat a SQLite");
+        }
+
+        long exemplarId = 1;
+        while (!Manager.getIndexDisponibilitat().isDisponible(exemplarId)) {
+            exemplarId++;
+        }
+        String codi = codi(exemplarId);
+        LocalDate avui = LocalDate.now();
+        ResultatPrestec prestec = Manager.prestarPerCodiBarres(codi, 1, avui, avui.plusDays(21));
+        boolean prestat = IndexCodiBarres.disponible(index.buscar(codi));
+        ResultatRetorns retorn = Manager.retornarPerCodiBarres(List.of(codi), avui);
+        boolean retornat = IndexCodiBarres.disponible(index.buscar(codi));
+        if (!prestec.isPrestat() || prestat || retorn.getRetornats() != 1 || !retornat) {
+            throw new IllegalStateException("Préstec i retorn de " + codi + ": " + prestec + " (disponible "
+                + prestat + "), " + retorn + " (disponible " + retornat + ")");
+        }
+        System.out.printf("%nComprovats %d codis, i el préstec i el retorn de %s%n", MOSTRA, codi);
+    }
+
+    // L'esquema el fa el Manager; els exemplars, JDBC en una transacció
+    private void generar(File db, File marca) {
+        System.out.println("Generant " + db.getName() + " ...");
+        db.delete();
+        System.setProperty("dades.esquema", "recrear");
+        Manager.createSessionFactory();
+        Manager.close();
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db.getPath())) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO exemplars "
+                    + "(exemplar_id, codiBarres, llibre_id, biblioteca_id, disponible, versio) "
+                    + "VALUES (?, ?, ?, ?, ?, 0)")) {
+                for (long id = 1; id <= exemplars + NO_INDEXABLES; id++) {
+                    ps.setLong(1, id);
+                    ps.setString(2, id <= exemplars ? codi(id) : "€" + (id - exemplars));
+                    ps.setLong(3, 1 + id % 50000);
+                    ps.setLong(4, 1 + id % 10);
+                    ps.setBoolean(5, id % 3 != 0);
+                    ps.addBatch();
+                    if (id % 10000 == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO persones "
+                    + "(persona_id, dni, nom, email, prestecs_actius) VALUES (1, '00000000T', 'Mostrador', "
+                    + "'mostrador@example.com', 0)")) {
+                ps.executeUpdate();
+            }
+            conn.commit();
+            marca.createNewFile();
+        } catch (SQLException e) {
+            throw new IllegalStateException("No s'ha pogut generar " + db.getName(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Manager.close();
+    }
+
+    @Benchmark
+    public long index() {
+        int i = seguent++ & (MOSTRA - 1);
+        return index.buscar(codis[i]);
+    }
+
+    @Benchmark
+    public long sqlite() {
+        int i = seguent++ % NO_INDEXABLES;
+        return Manager.findExemplarIdPerCodiBarres(noIndexables[i]);
+    }
+}
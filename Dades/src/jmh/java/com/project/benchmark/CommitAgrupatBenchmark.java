@@ -0,0 +1,138 @@
+package com.project.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.CommitAgrupat;
+import com.project.dao.Manager;
+import com.project.dao.ManagerAsincron;
+import com.project.dao.ResultatPrestec;
+import com.project.domain.Prestec;
+
+/*
+ * Préstecs per segon amb ManagerAsincron segons com s'agrupen en
+ * transaccions: màxim de comandes per grup, finestra d'espera (µs) i
+ * durabilitat (WAL o FSYNC). maxComandes=1 és una transacció per préstec.
+ *
+ * Cada invocació és una onada de 256 clients que demanen un préstec alhora
+ * (exemplars diferents) i, quan el tenen, el retornen: el resultat és en
+ * préstecs (amb el seu retorn) per segon.
+ *
+ * Es treballa sobre una còpia de bench-100000.db, per no fer créixer la
+ * taula de préstecs de la que fan servir els altres benchmarks. Abans de
+ * mesurar es comprova que un préstec que falla (sense data) dins un grup
+ * no fa fallar els altres del mateix grup. Al final es comprova que tots
+ * els préstecs s'han fet i retornat i que els comptadors de les persones
+ * quadren.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class CommitAgrupatBenchmark {
+
+    private static final int CLIENTS = 256;
+
+    @Param({"1", "16", "64", "256"})
+    public int maxComandes;
+
+    @Param({"0", "2000"})
+    public int finestraMicros;
+
+    @Param({"WAL", "FSYNC"})
+    public CommitAgrupat.Durabilitat durabilitat;
+
+    private ManagerAsincron async;
+    private long[] exemplars;
+    private long fallits;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        DadesBenchmark.preparar(100000);
+        Manager.close();
+        Path original = Paths.get(System.getProperty("user.dir"), "data", "bench-100000.db");
+        Path copia = Paths.get("target", "bench-commit-agrupat.db");
+        Files.deleteIfExists(Paths.get(copia + "-wal"));
+        Files.deleteIfExists(Paths.get(copia + "-shm"));
+        Files.copy(original, copia, StandardCopyOption.REPLACE_EXISTING);
+        System.setProperty("hibernate.connection.url", "jdbc:sqlite:" + copia);
+        Manager.createSessionFactory();
+
+        exemplars = new long[CLIENTS];
+        long id = 1;
+        for (int i = 0; i < CLIENTS; id++) {
+            if (Manager.getIndexDisponibilitat().isDisponible(id)) {
+                exemplars[i++] = id;
+            }
+        }
+        async = new ManagerAsincron(ManagerAsincron.MIDA_CUA_PER_DEFECTE, ManagerAsincron.FILS_LECTURA_PER_DEFECTE,
+            new CommitAgrupat(Duration.ofNanos(finestraMicros * 1000L), maxComandes, durabilitat));
+        comprovarFallades();
+    }
+
+    private void comprovarFallades() {
+        LocalDate avui = LocalDate.now();
+        CompletableFuture<ResultatPrestec> primer = async.prestarExemplar(exemplars[0], 1, avui, avui.plusDays(21));
+        CompletableFuture<ResultatPrestec> dolent = async.prestarExemplar(exemplars[1], 1, null, avui.plusDays(21));
+        CompletableFuture<ResultatPrestec> ultim = async.prestarExemplar(exemplars[2], 1, avui, avui.plusDays(21));
+        if (!primer.join().isPrestat() || dolent.join().getEstat() != ResultatPrestec.Estat.ERROR
+                || !ultim.join().isPrestat()) {
+            throw new IllegalStateException("Resultats del grup amb una fallada: " + primer.join() + ", "
+                + dolent.join() + ", " + ultim.join());
+        }
+        for (Prestec prestec : new Prestec[] {primer.join().getPrestec(), ultim.join().getPrestec()}) {
+            async.registrarRetornPrestec(prestec.getPrestecId(), avui).join();
+        }
+        System.out.printf("%nGrup amb una fallada: %s, %s, %s%n", primer.join(), dolent.join(), ultim.join());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf("%nTransaccions: %d, comandes per transacció: %.1f%n",
+            async.getGrups(), async.getMidaMitjanaGrup());
+        async.close();
+        int desquadrades = Manager.comprovarPrestecsActius(false);
+        long enPrestec = 0;
+        for (long exemplarId : exemplars) {
+            enPrestec += Manager.getIndexDisponibilitat().isDisponible(exemplarId) ? 0 : 1;
+        }
+        Manager.close();
+        if (fallits > 0 || desquadrades != 0 || enPrestec > 0) {
+            throw new IllegalStateException(fallits + " préstecs o retorns fallits, " + desquadrades
+                + " persones desquadrades, " + enPrestec + " exemplars sense retornar");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLIENTS)
+    public void prestarIRetornar() {
+        LocalDate avui = LocalDate.now();
+        CompletableFuture<?>[] clients = new CompletableFuture<?>[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) {
+            clients[i] = async.prestarExemplar(exemplars[i], 1 + i % 50, avui, avui.plusDays(21))
+                .thenCompose(resultat -> {
+                    if (!resultat.isPrestat()) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    return async.registrarRetornPrestec(resultat.getPrestec().getPrestecId(), avui);
+                });
+        }
+        for (CompletableFuture<?> client : clients) {
+            if (!Boolean.TRUE.equals(client.join())) {
+                fallits++;
+            }
+        }
+    }
+}
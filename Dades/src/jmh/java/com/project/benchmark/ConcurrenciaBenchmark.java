@@ -0,0 +1,64 @@
+package com.project.benchmark;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.LlibreEnPrestec;
+import com.project.dao.Manager;
+
+/*
+ * Lectures i escriptures concurrents sobre la mateixa base de dades:
+ * 6 fils fan consultes d'informe mentre 2 fils registren retorns.
+ *
+ * config=inicial: connexions sense pool i journal DELETE (configuració original)
+ * config=ajustat: pool HikariCP i pragmes de hibernate.properties (WAL, NORMAL...)
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrenciaBenchmark {
+
+    @Param({"inicial", "ajustat"})
+    public String config;
+
+    @Param({"100000"})
+    public int prestecs;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if ("inicial".equals(config)) {
+            System.setProperty("hibernate.connection.provider_class",
+                "org.hibernate.engine.jdbc.connections.internal.DriverManagerConnectionProviderImpl");
+            System.setProperty("hibernate.connection.journal_mode", "DELETE");
+        }
+        DadesBenchmark.preparar(prestecs);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Manager.close();
+    }
+
+    @Benchmark
+    @Group("mixt")
+    @GroupThreads(6)
+    public List<LlibreEnPrestec> lectura() {
+        return Manager.listLlibresEnPrestec();
+    }
+
+    @Benchmark
+    @Group("mixt")
+    @GroupThreads(2)
+    public void escriptura() {
+        long prestecId = 1 + ThreadLocalRandom.current().nextInt(prestecs);
+        Manager.registrarRetornPrestec(prestecId, LocalDate.now());
+    }
+}
@@ -0,0 +1,141 @@
+package com.project.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.project.dao.Manager;
+import com.project.domain.*;
+
+/*
+ * Genera (una sola vegada) les bases de dades dels benchmarks
+ * a data/bench-<prestecs>.db i hi apunta el Manager.
+ *
+ * Mides per a N préstecs: N/10 llibres (amb un autor cadascun),
+ * N/5 exemplars,
+ * N/20 persones i 10 biblioteques. El 5% dels préstecs
+ * queda actiu i el seu exemplar no disponible.
+ *
+ * Amb particions, el catàleg és data/bench-<prestecs>-particions.db i
+ * cada biblioteca té el seu fitxer al costat.
+ */
+
+public class DadesBenchmark {
+
+    public static final int BIBLIOTEQUES = 10;
+    private static final long LLAVOR = 42L;
+
+    /**
+     * Configura Hibernate contra la base de dades de la mida indicada,
+     * generant-la si no existeix o si la generació anterior no va acabar.
+     * S'ha de cridar abans de qualsevol altre ús del Manager.
+     */
+    public static void preparar(int prestecs) {
+        preparar(prestecs, false);
+    }
+
+    /**
+     * Com preparar(prestecs), amb les dades repartides per biblioteca si
+     * 'particions' és cert
+     */
+    public static void preparar(int prestecs, boolean particions) {
+        String basePath = System.getProperty("user.dir") + "/data/";
+        new File(basePath).mkdirs();
+        String nom = "bench-" + prestecs + (particions ? "-particions" : "");
+        File db = new File(basePath + nom + ".db");
+        File marca = new File(basePath + nom + ".db.ok");
+
+        boolean generar = !marca.exists();
+        if (generar) {
+            db.delete();
+        }
+
+        System.setProperty("hibernate.connection.url", "jdbc:sqlite:" + db.getPath());
+        System.setProperty("hibernate.show_sql", "false");
+        System.setProperty("dades.particions.biblioteques", Boolean.toString(particions));
+        // Els benchmarks mesuren les consultes: sense cache d'informes, si no la demanen
+        System.getProperties().putIfAbsent("dades.informes.max_files", "0");
+        // El resum periòdic de mètriques es barrejaria amb la sortida de JMH
+        System.getProperties().putIfAbsent("dades.metriques.log_segons", "0");
+        Manager.createSessionFactory();
+
+        if (generar) {
+            System.out.println("Generant " + db.getName() + " ...");
+            generar(prestecs);
+            try {
+                marca.createNewFile();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else {
+            // Les bases de dades generades abans que existís el comptador
+            // de préstecs actius el tenen a 0
+            int reparades = Manager.comprovarPrestecsActius(true);
+            if (reparades > 0) {
+                System.out.println("Comptador de préstecs actius refet per a " + reparades + " persones");
+            }
+        }
+    }
+
+    private static void generar(int prestecs) {
+        Random random = new Random(LLAVOR);
+        int numLlibres = Math.max(100, prestecs / 10);
+        int numExemplars = Math.max(200, prestecs / 5);
+        int numPersones = Math.max(50, prestecs / 20);
+        int numActius = prestecs / 20;
+
+        List<Biblioteca> biblioteques = new ArrayList<>();
+        for (int i = 0; i < BIBLIOTEQUES; i++) {
+            biblioteques.add(Manager.addBiblioteca("Biblioteca " + i, "Barcelona",
+                "Carrer " + i, "93000000" + i, "bib" + i + "@biblio.cat"));
+        }
+
+        List<Llibre> llibres = new ArrayList<>(numLlibres);
+        for (int i = 0; i < numLlibres; i++) {
+            Llibre llibre = new Llibre("ISBN-" + i, "Titol " + i, "Editorial " + (i % 50), 1900 + i % 120);
+            // L'autor es desa en cascada amb el llibre (costat propietari de la relació)
+            llibre.getAutors().add(new Autor("Autor " + i));
+            llibres.add(llibre);
+        }
+        llibres = Manager.addLlibres(llibres);
+
+        List<Exemplar> exemplars = new ArrayList<>(numExemplars);
+        for (int i = 0; i < numExemplars; i++) {
+            Exemplar exemplar = new Exemplar("EX-" + i, llibres.get(i % numLlibres),
+                biblioteques.get(random.nextInt(BIBLIOTEQUES)));
+            // Els primers exemplars són els que tenen un préstec actiu
+            exemplar.setDisponible(i >= numActius);
+            exemplars.add(exemplar);
+        }
+        exemplars = Manager.addExemplars(exemplars);
+
+        List<Persona> persones = new ArrayList<>(numPersones);
+        for (int i = 0; i < numPersones; i++) {
+            persones.add(new Persona("DNI-" + i, "Persona " + i, "600000000", "persona" + i + "@email.com"));
+        }
+        persones = Manager.addPersones(persones);
+
+        LocalDate avui = LocalDate.now();
+        List<Prestec> lot = new ArrayList<>(Manager.getBatchSize() * 20);
+        for (int i = 0; i < prestecs; i++) {
+            boolean actiu = i < numActius;
+            Exemplar exemplar = actiu ? exemplars.get(i) : exemplars.get(random.nextInt(numExemplars));
+            LocalDate inici = avui.minusDays(actiu ? random.nextInt(30) : 30 + random.nextInt(3000));
+            Prestec prestec = new Prestec(exemplar, persones.get(random.nextInt(numPersones)), inici, inici.plusDays(21));
+            if (!actiu) {
+                prestec.setActiu(false);
+                prestec.setDataRetornReal(inici.plusDays(random.nextInt(30)));
+            }
+            lot.add(prestec);
+            // Es desa per trossos per no tenir el milió de préstecs a memòria
+            if (lot.size() == Manager.getBatchSize() * 20) {
+                Manager.addPrestecs(lot);
+                lot.clear();
+            }
+        }
+        Manager.addPrestecs(lot);
+    }
+}
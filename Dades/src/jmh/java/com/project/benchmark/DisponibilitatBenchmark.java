@@ -0,0 +1,74 @@
+package com.project.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.Manager;
+import com.project.domain.*;
+
+/*
+ * "Quines biblioteques tenen un exemplar lliure d'aquest llibre?"
+ * resolt amb la consulta a SQLite i amb l'índex en memòria.
+ *
+ * Abans de mesurar es comprova que les dues respostes
+ * coincideixen per a una mostra de llibres.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DisponibilitatBenchmark {
+
+    private static final int MOSTRA = 1000;
+
+    @Param({"1000", "100000"})
+    public int prestecs;
+
+    private long[] llibres;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DadesBenchmark.preparar(prestecs);
+        try (Stream<Llibre> stream = Manager.streamCollection(Llibre.class)) {
+            llibres = stream.mapToLong(Llibre::getLlibreId).toArray();
+        }
+        for (int i = 0; i < Math.min(MOSTRA, llibres.length); i++) {
+            long llibreId = llibres[i];
+            long[] index = Manager.getIndexDisponibilitat().bibliotequesAmbDisponible(llibreId);
+            List<Long> bd = Manager.findBibliotequesAmbExemplarDisponible(llibreId);
+            long[] esperat = bd.stream().mapToLong(Long::longValue).sorted().toArray();
+            Arrays.sort(index);
+            if (!Arrays.equals(index, esperat)) {
+                throw new IllegalStateException("Llibre " + llibreId + ": l'índex dóna "
+                    + Arrays.toString(index) + " i la base de dades " + esperat.length + " biblioteques");
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Manager.close();
+    }
+
+    private long llibreAtzar() {
+        return llibres[ThreadLocalRandom.current().nextInt(llibres.length)];
+    }
+
+    @Benchmark
+    public List<Long> consultaSqlite() {
+        return Manager.findBibliotequesAmbExemplarDisponible(llibreAtzar());
+    }
+
+    @Benchmark
+    public long[] indexMemoria() {
+        return Manager.getIndexDisponibilitat().bibliotequesAmbDisponible(llibreAtzar());
+    }
+}
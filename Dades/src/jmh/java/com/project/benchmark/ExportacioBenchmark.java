@@ -0,0 +1,141 @@
+package com.project.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.Manager;
+import com.project.sqliteutils.ExportadorSQLite;
+import com.project.sqliteutils.FormatExportacio;
+import com.project.sqliteutils.UtilsSQLite;
+
+/*
+ * Exportació de totes les taules amb ExportadorSQLite, per format i
+ * nombre de fils, comparada amb la manera de llegir de MainSQLite abans
+ * (cada valor buscat pel nom de la columna, tot com a text).
+ *
+ * Abans de mesurar s'exporta un cop i es comprova que cada fitxer té
+ * tantes files com la taula.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ExportacioBenchmark {
+
+    @Param({"100000"})
+    public int prestecs;
+
+    @Param({"CSV", "NDJSON", "BINARI"})
+    public FormatExportacio format;
+
+    @Param({"1", "4"})
+    public int fils;
+
+    private String bbdd;
+    private Path directori;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, SQLException {
+        DadesBenchmark.preparar(prestecs);
+        Manager.close();
+        bbdd = System.getProperty("user.dir") + "/data/bench-" + prestecs + ".db";
+        directori = Paths.get("target", "exportacio", format.name() + "-" + fils);
+
+        Map<String, Long> files = ExportadorSQLite.exportar(bbdd, directori, format, fils);
+        Connection conn = UtilsSQLite.connectReadOnly(bbdd);
+        try {
+            for (String taula : UtilsSQLite.listTables(conn)) {
+                long esperades;
+                try (ResultSet rs = conn.createStatement().executeQuery("SELECT COUNT(*) FROM " + taula)) {
+                    rs.next();
+                    esperades = rs.getLong(1);
+                }
+                long fitxer = comptarFiles(ExportadorSQLite.fitxer(directori, taula, format));
+                if (files.get(taula) != esperades || fitxer != esperades) {
+                    throw new IllegalStateException(taula + ": " + esperades + " files a la taula, "
+                        + files.get(taula) + " exportades i " + fitxer + " al fitxer");
+                }
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    private long comptarFiles(Path fitxer) throws IOException {
+        if (format == FormatExportacio.BINARI) {
+            return ExportadorSQLite.comptarFilesBinari(fitxer);
+        }
+        try (Stream<String> linies = Files.lines(fitxer)) {
+            long n = linies.count();
+            // La capçalera del CSV
+            return format == FormatExportacio.CSV ? n - 1 : n;
+        }
+    }
+
+    @Benchmark
+    public Map<String, Long> exportar() {
+        return ExportadorSQLite.exportar(bbdd, directori, format, fils);
+    }
+
+    /**
+     * Com llegia MainSQLite: els valors pel nom de la columna i cada fila
+     * convertida a String. Només té sentit amb CSV i un fil.
+     */
+    @Benchmark
+    public long perNomAbans() throws IOException, SQLException {
+        if (format != FormatExportacio.CSV || fils != 1) {
+            return 0;
+        }
+        long total = 0;
+        Connection conn = UtilsSQLite.connectReadOnly(bbdd);
+        try {
+            List<String> taules = UtilsSQLite.listTables(conn);
+            for (String taula : taules) {
+                Path fitxer = directori.resolve(taula + ".abans");
+                try (BufferedWriter out = Files.newBufferedWriter(fitxer);
+                     ResultSet rs = conn.createStatement().executeQuery("SELECT * FROM " + taula + ";")) {
+                    ResultSetMetaData rsmd = rs.getMetaData();
+                    while (rs.next()) {
+                        StringBuilder txt = new StringBuilder();
+                        for (int cntCol = 1; cntCol <= rsmd.getColumnCount(); cntCol++) {
+                            if (cntCol > 1) {
+                                txt.append(",");
+                            }
+                            String name = rsmd.getColumnName(cntCol);
+                            switch (rsmd.getColumnType(cntCol)) {
+                                case java.sql.Types.INTEGER -> txt.append(rs.getInt(name));
+                                case java.sql.Types.VARCHAR -> txt.append(rs.getString(name));
+                                case java.sql.Types.REAL -> txt.append(rs.getFloat(name));
+                                case java.sql.Types.BIGINT -> txt.append(rs.getLong(name));
+                                case java.sql.Types.BOOLEAN -> txt.append(rs.getBoolean(name));
+                                default -> txt.append("???");
+                            }
+                        }
+                        out.write(txt.toString());
+                        out.newLine();
+                        total++;
+                    }
+                }
+            }
+        } finally {
+            conn.close();
+        }
+        return total;
+    }
+}
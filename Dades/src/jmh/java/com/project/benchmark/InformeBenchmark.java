@@ -0,0 +1,92 @@
+package com.project.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.Manager;
+import com.project.domain.*;
+import com.project.informe.EscriptorInforme;
+import com.project.informe.FormatInforme;
+
+/*
+ * Informes escrits a una sortida (nul·la) en UTF-8:
+ * - construint primer tot el text (formatMultipleResult,
+ *   collectionToString) i escrivint-lo després
+ * - escrivint fila a fila amb EscriptorInforme
+ *
+ * Per veure la taxa d'assignació:
+ *   ./run-jmh.sh InformeBenchmark -prof gc
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InformeBenchmark {
+
+    @Param({"1000", "100000"})
+    public int prestecs;
+
+    @Param({"TEXT", "CSV", "NDJSON"})
+    public FormatInforme format;
+
+    private List<Persona> persones;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DadesBenchmark.preparar(prestecs);
+        persones = new ArrayList<>(Manager.listCollection(Persona.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Manager.close();
+    }
+
+    private static Writer sortida() {
+        return new BufferedWriter(new OutputStreamWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8),
+            64 * 1024);
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public void informeString() throws IOException {
+        try (Writer out = sortida()) {
+            out.write(Manager.formatMultipleResult(Manager.findLlibresAmbBiblioteques()));
+        }
+    }
+
+    @Benchmark
+    public long informeStreaming() {
+        try (EscriptorInforme escriptor = new EscriptorInforme(sortida(), format)) {
+            Manager.informeLlibresAmbBiblioteques(escriptor);
+            return escriptor.getFiles();
+        }
+    }
+
+    @Benchmark
+    public void entitatsString() throws IOException {
+        try (Writer out = sortida()) {
+            out.write(Manager.collectionToString(Persona.class, persones));
+        }
+    }
+
+    @Benchmark
+    public long entitatsStreaming() {
+        try (EscriptorInforme escriptor = new EscriptorInforme(sortida(), format)) {
+            Manager.writeCollection(Persona.class, persones, escriptor);
+            return escriptor.getFiles();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.project.benchmark;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.CacheInformes;
+import com.project.dao.CacheInformes.Informe;
+import com.project.dao.LlibreEnPrestec;
+import com.project.dao.Manager;
+import com.project.dao.ResultatPrestec;
+import com.project.domain.Prestec;
+
+/*
+ * Un tauler que consulta els tres informes (llibres amb autors, en préstec
+ * i amb biblioteques) cada pocs segons, sense cache d'informes (maxFiles=0)
+ * i amb. 'tauler' només llegeix; 'taulerAmbPrestec' fa un préstec i el
+ * retorn abans de llegir, i llavors només s'ha de tornar a consultar
+ * l'informe de llibres en préstec.
+ *
+ * Abans de mesurar (amb la cache activa) es comprova que un préstec i un
+ * retorn invaliden només aquest informe i que el resultat nou els inclou.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InformesCacheBenchmark {
+
+    @Param({"100000"})
+    public int prestecs;
+
+    @Param({"0", "200000"})
+    public int maxFiles;
+
+    private long exemplarId;
+    private long personaId = 1;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        System.setProperty("dades.informes.max_files", Integer.toString(maxFiles));
+        DadesBenchmark.preparar(prestecs);
+        exemplarId = 1;
+        while (!Manager.getIndexDisponibilitat().isDisponible(exemplarId)) {
+            exemplarId++;
+        }
+        if (maxFiles > 0) {
+            comprovarInvalidacio();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println();
+        System.out.print(Manager.getCacheInformes());
+        Manager.close();
+    }
+
+    private void comprovarInvalidacio() {
+        CacheInformes cache = Manager.getCacheInformes();
+        int enPrestec = tauler();
+        long biblioteques = cache.encerts(Informe.LLIBRES_AMB_BIBLIOTEQUES);
+        long autors = cache.encerts(Informe.LLIBRES_AMB_AUTORS);
+
+        Prestec prestec = prestar();
+        List<LlibreEnPrestec> despres = Manager.listLlibresEnPrestec();
+        comprovar(despres.size() == enPrestec + 1, "el préstec nou no surt a l'informe");
+        Manager.listLlibresAmbBiblioteques();
+        Manager.findLlibresAmbAutors();
+        comprovar(cache.encerts(Informe.LLIBRES_AMB_BIBLIOTEQUES) == biblioteques + 1
+            && cache.encerts(Informe.LLIBRES_AMB_AUTORS) == autors + 1,
+            "un préstec ha invalidat un informe que no en depèn");
+
+        Manager.registrarRetornPrestec(prestec.getPrestecId(), LocalDate.now());
+        comprovar(Manager.listLlibresEnPrestec().size() == enPrestec, "el retorn no ha tret el llibre de l'informe");
+        comprovar(Manager.listLlibresEnPrestec() == Manager.listLlibresEnPrestec(), "l'informe no s'ha desat");
+        int desades = Manager.listLlibresEnPrestec().size() + Manager.listLlibresAmbBiblioteques().size()
+            + Manager.findLlibresAmbAutors().size();
+        comprovar(cache.files() == desades, "el comptador de files no quadra amb els informes desats");
+    }
+
+    private static void comprovar(boolean condicio, String error) {
+        if (!condicio) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    private Prestec prestar() {
+        ResultatPrestec resultat = Manager.prestarExemplar(exemplarId, personaId,
+            LocalDate.now(), LocalDate.now().plusDays(21));
+        comprovar(resultat.isPrestat(), "no s'ha pogut prestar l'exemplar " + exemplarId);
+        return resultat.getPrestec();
+    }
+
+    /**
+     * Torna el nombre de llibres en préstec
+     */
+    @Benchmark
+    public int tauler() {
+        Manager.findLlibresAmbAutors();
+        Manager.listLlibresAmbBiblioteques();
+        return Manager.listLlibresEnPrestec().size();
+    }
+
+    @Benchmark
+    public int taulerAmbPrestec() {
+        Prestec prestec = prestar();
+        Manager.registrarRetornPrestec(prestec.getPrestecId(), LocalDate.now());
+        return tauler();
+    }
+}
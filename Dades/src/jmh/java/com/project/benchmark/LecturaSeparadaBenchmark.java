@@ -0,0 +1,113 @@
+package com.project.benchmark;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.LlibreBiblioteca;
+import com.project.dao.Manager;
+import com.project.dao.ResultatPrestec;
+
+/*
+ * Tempesta d'informes mentre es fan préstecs: 8 fils demanen l'informe de
+ * llibres i biblioteques (20.000 files, sense cache d'informes) i 4 fils
+ * presten un exemplar i el retornen.
+ *
+ * separada=false: informes i préstecs comparteixen la SessionFactory i el
+ *   pool de 8 connexions, i els informes poden ocupar-les totes
+ * separada=true: els informes van per la SessionFactory de només lectura,
+ *   amb el seu pool de 4 connexions (dades.lectura.separada)
+ *
+ * Abans de mesurar es comprova que un informe fet per la SessionFactory de
+ * lectura ja veu un préstec que s'acaba de confirmar. Al final, que tots
+ * els préstecs s'han retornat.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LecturaSeparadaBenchmark {
+
+    private static final int EXEMPLARS = 1000;
+
+    @Param({"100000"})
+    public int prestecs;
+
+    @Param({"false", "true"})
+    public boolean separada;
+
+    private long[] exemplars;
+    private int actiusInicials;
+    private final AtomicInteger seguent = new AtomicInteger();
+    private final AtomicLong fallits = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        System.setProperty("dades.lectura.separada", Boolean.toString(separada));
+        DadesBenchmark.preparar(prestecs);
+        if (Manager.isLecturaSeparada() != separada) {
+            throw new IllegalStateException("Lectura separada: " + Manager.isLecturaSeparada());
+        }
+        List<Long> disponibles = new ArrayList<>(EXEMPLARS);
+        for (long id = 1; disponibles.size() < EXEMPLARS; id++) {
+            if (Manager.getIndexDisponibilitat().isDisponible(id)) {
+                disponibles.add(id);
+            }
+        }
+        exemplars = disponibles.stream().mapToLong(Long::longValue).toArray();
+        actiusInicials = Manager.listLlibresEnPrestec().size();
+
+        LocalDate avui = LocalDate.now();
+        ResultatPrestec resultat = Manager.prestarExemplar(exemplars[0], 1, avui, avui.plusDays(21));
+        int actius = Manager.listLlibresEnPrestec().size();
+        if (!resultat.isPrestat() || actius != actiusInicials + 1) {
+            throw new IllegalStateException("L'informe no veu el préstec: " + resultat + ", " + actius
+                + " actius en lloc de " + (actiusInicials + 1));
+        }
+        Manager.registrarRetornPrestec(resultat.getPrestec().getPrestecId(), avui);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        int actius = Manager.listLlibresEnPrestec().size();
+        System.out.printf("%n%s%n", Manager.getMetriques().getHibernateLectura());
+        Manager.close();
+        System.clearProperty("dades.lectura.separada");
+        if (fallits.get() > 0 || actius != actiusInicials) {
+            throw new IllegalStateException(fallits + " préstecs fallits, " + actius + " préstecs actius en lloc de "
+                + actiusInicials);
+        }
+    }
+
+    @Benchmark
+    @Group("tempesta")
+    @GroupThreads(8)
+    public List<LlibreBiblioteca> informe() {
+        return Manager.listLlibresAmbBiblioteques();
+    }
+
+    @Benchmark
+    @Group("tempesta")
+    @GroupThreads(4)
+    public boolean prestec() {
+        LocalDate avui = LocalDate.now();
+        int i = Math.floorMod(seguent.getAndIncrement(), exemplars.length);
+        ResultatPrestec resultat = Manager.prestarExemplar(exemplars[i], 1 + i % 50, avui, avui.plusDays(21));
+        if (resultat.isPrestat()) {
+            Manager.registrarRetornPrestec(resultat.getPrestec().getPrestecId(), avui);
+            return true;
+        }
+        if (resultat.getEstat() != ResultatPrestec.Estat.JA_EN_PRESTEC) {
+            fallits.incrementAndGet();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,71 @@
+package com.project.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.project.dao.Manager;
+import com.project.domain.*;
+
+/*
+ * Aquest exemple compara la velocitat d'inserció
+ * fila a fila (una transacció per entitat) amb
+ * les insercions massives en lots JDBC.
+ *
+ *   mvn -Pjmh compile exec:exec -Djmh.main=com.project.benchmark.MainBulkInsert "-Djmh.args=[files] [midaLot]"
+ */
+
+public class MainBulkInsert {
+
+    public static void main(String[] args) {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int midaLot = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        String basePath = System.getProperty("user.dir") + "/data/";
+        new File(basePath).mkdirs();
+
+        // Base de dades pròpia per no trepitjar la del projecte
+        System.setProperty("hibernate.connection.url", "jdbc:sqlite:" + basePath + "bench-bulk.db");
+        // Cada execució comença amb les taules buides
+        System.setProperty("dades.esquema", "recrear");
+        System.setProperty("hibernate.show_sql", "false");
+
+        Manager.createSessionFactory();
+        Manager.setBatchSize(midaLot);
+
+        Biblioteca biblioteca = Manager.addBiblioteca("Biblioteca Bench", "Barcelona",
+            "Carrer Bench 1", "930000000", "bench@biblio.cat");
+
+        // 1. Una transacció per fila
+        long inici = System.nanoTime();
+        List<Llibre> llibresFila = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            llibresFila.add(Manager.addLlibre("F-" + i, "Llibre fila " + i, "Editorial", 2000));
+        }
+        for (int i = 0; i < files; i++) {
+            Manager.addExemplar("FE-" + i, llibresFila.get(i), biblioteca);
+        }
+        double segonsFila = (System.nanoTime() - inici) / 1e9;
+
+        // 2. Inserció massiva en lots
+        inici = System.nanoTime();
+        List<Llibre> llibresLot = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            llibresLot.add(new Llibre("L-" + i, "Llibre lot " + i, "Editorial", 2000));
+        }
+        llibresLot = Manager.addLlibres(llibresLot);
+        List<Exemplar> exemplarsLot = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            exemplarsLot.add(new Exemplar("LE-" + i, llibresLot.get(i), biblioteca));
+        }
+        Manager.addExemplars(exemplarsLot);
+        double segonsLot = (System.nanoTime() - inici) / 1e9;
+
+        int total = files * 2;
+        System.out.println("Files inserides per mètode: " + total + " (midaLot=" + midaLot + ")");
+        System.out.printf("Fila a fila: %.2f s, %.0f files/s%n", segonsFila, total / segonsFila);
+        System.out.printf("En lots:     %.2f s, %.0f files/s%n", segonsLot, total / segonsLot);
+
+        Manager.close();
+    }
+}
@@ -0,0 +1,257 @@
+package com.project.benchmark;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import com.project.dao.Manager;
+import com.project.dao.ManagerAsincron;
+import com.project.dao.ResultatPrestec;
+import com.project.domain.Exemplar;
+import com.project.domain.Llibre;
+import com.project.domain.Persona;
+import com.project.domain.Prestec;
+
+/*
+ * Prova de càrrega: molts clients alhora (10.000 per defecte), cadascun
+ * fent unes quantes peticions seguides. 9 de cada 10 són lectures (un
+ * llibre, els préstecs actius d'una persona, on hi ha exemplars lliures
+ * d'un llibre) i la resta, un préstec d'un exemplar d'un grup reduït i, si
+ * es fa, el seu retorn.
+ *
+ *   mvn -Pjmh compile exec:exec -Djmh.main=com.project.benchmark.MainCarregaAsincrona \
+ *       -Djmh.args="10000 10 200"
+ *
+ * Arguments: clients, peticions per client i fils de la versió blocant.
+ *
+ * Es fa primer amb el Manager directament, des d'un grup de fils
+ * (cada fil és un client mentre dura), i després amb ManagerAsincron,
+ * amb tots els clients en marxa alhora encadenant futurs. A la versió
+ * blocant la latència no compta l'espera d'un fil lliure; a l'asíncrona
+ * sí que hi és l'espera de les altres peticions en curs. Al final es
+ * comprova que no hi ha cap exemplar amb dos préstecs actius i que els
+ * comptadors de préstecs actius de les persones quadren.
+ */
+
+public class MainCarregaAsincrona {
+
+    private static final int EXEMPLARS_CALENTS = 1000;
+
+    private final int clients;
+    private final int peticions;
+    private long[] exemplars;
+    private long[] persones;
+    private int llibres;
+
+    private long[] latencies;
+    private final AtomicLong lectures = new AtomicLong();
+    private final AtomicLong escriptures = new AtomicLong();
+    private final AtomicLong prestats = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private MainCarregaAsincrona(int clients, int peticions) {
+        this.clients = clients;
+        this.peticions = peticions;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int peticions = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int filsBlocant = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        DadesBenchmark.preparar(100000);
+        MainCarregaAsincrona carrega = new MainCarregaAsincrona(clients, peticions);
+        carrega.triarDades();
+
+        carrega.blocant(filsBlocant);
+        carrega.asincron();
+
+        boolean correcte = carrega.comprovar();
+        Manager.close();
+        if (!correcte) {
+            System.exit(1);
+        }
+    }
+
+    private void triarDades() {
+        List<Long> disponibles = new ArrayList<>();
+        for (long id = 1; disponibles.size() < EXEMPLARS_CALENTS && id < 1000000; id++) {
+            if (Manager.getIndexDisponibilitat().isDisponible(id)) {
+                disponibles.add(id);
+            }
+        }
+        exemplars = disponibles.stream().mapToLong(Long::longValue).toArray();
+        persones = Manager.listCollection(Persona.class).stream()
+            .limit(1000).mapToLong(Persona::getPersonaId).toArray();
+        llibres = Manager.listCollection(Llibre.class).size();
+    }
+
+    private void blocant(int fils) throws Exception {
+        reiniciar();
+        ExecutorService executor = Executors.newFixedThreadPool(fils);
+        long inici = System.nanoTime();
+        List<Future<?>> futurs = new ArrayList<>(clients);
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            futurs.add(executor.submit(() -> {
+                for (int i = 0; i < peticions; i++) {
+                    long t0 = System.nanoTime();
+                    peticioBlocant();
+                    latencies[client * peticions + i] = System.nanoTime() - t0;
+                }
+            }));
+        }
+        for (Future<?> futur : futurs) {
+            futur.get();
+        }
+        long durada = System.nanoTime() - inici;
+        executor.shutdown();
+        resum("Manager, " + fils + " fils", durada, null);
+    }
+
+    private void peticioBlocant() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int tipus = random.nextInt(10);
+        if (tipus < 9) {
+            lectures.incrementAndGet();
+            switch (tipus % 3) {
+                case 0 -> Manager.findById(Llibre.class, 1 + random.nextInt(llibres));
+                case 1 -> Manager.getPrestecsActius(persones[random.nextInt(persones.length)]);
+                default -> Manager.findBibliotequesAmbExemplarDisponible(1 + random.nextInt(llibres));
+            }
+            return;
+        }
+        LocalDate avui = LocalDate.now();
+        ResultatPrestec resultat = Manager.prestarExemplar(exemplars[random.nextInt(exemplars.length)],
+            persones[random.nextInt(persones.length)], avui, avui.plusDays(21));
+        comptarPrestec(resultat);
+        if (resultat.isPrestat()) {
+            Manager.registrarRetornPrestec(resultat.getPrestec().getPrestecId(), avui);
+            escriptures.incrementAndGet();
+        }
+    }
+
+    private void asincron() {
+        reiniciar();
+        try (ManagerAsincron async = new ManagerAsincron()) {
+            long inici = System.nanoTime();
+            CompletableFuture<?>[] futurs = new CompletableFuture<?>[clients];
+            for (int c = 0; c < clients; c++) {
+                futurs[c] = client(async, c, 0);
+            }
+            CompletableFuture.allOf(futurs).join();
+            long durada = System.nanoTime() - inici;
+            resum("ManagerAsincron, lectures en " + (async.isFilsVirtuals() ? "fils virtuals" : "grup de fils"),
+                durada, async);
+        }
+    }
+
+    // Les peticions del client, una darrere l'altra
+    private CompletableFuture<Void> client(ManagerAsincron async, int client, int i) {
+        if (i == peticions) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long t0 = System.nanoTime();
+        return peticioAsincrona(async)
+            .exceptionally(e -> {
+                errors.incrementAndGet();
+                return null;
+            })
+            .thenCompose(r -> {
+                latencies[client * peticions + i] = System.nanoTime() - t0;
+                return client(async, client, i + 1);
+            });
+    }
+
+    private CompletableFuture<?> peticioAsincrona(ManagerAsincron async) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int tipus = random.nextInt(10);
+        if (tipus < 9) {
+            lectures.incrementAndGet();
+            return switch (tipus % 3) {
+                case 0 -> async.findById(Llibre.class, 1 + random.nextInt(llibres));
+                case 1 -> async.getPrestecsActius(persones[random.nextInt(persones.length)]);
+                default -> async.findBibliotequesAmbExemplarDisponible(1 + random.nextInt(llibres));
+            };
+        }
+        LocalDate avui = LocalDate.now();
+        return async.prestarExemplar(exemplars[random.nextInt(exemplars.length)],
+                persones[random.nextInt(persones.length)], avui, avui.plusDays(21))
+            .thenCompose(resultat -> {
+                comptarPrestec(resultat);
+                if (!resultat.isPrestat()) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                escriptures.incrementAndGet();
+                return async.registrarRetornPrestec(resultat.getPrestec().getPrestecId(), avui);
+            });
+    }
+
+    private void comptarPrestec(ResultatPrestec resultat) {
+        escriptures.incrementAndGet();
+        if (resultat.isPrestat()) {
+            prestats.incrementAndGet();
+        } else if (resultat.getEstat() == ResultatPrestec.Estat.ERROR) {
+            errors.incrementAndGet();
+        }
+    }
+
+    private void reiniciar() {
+        latencies = new long[clients * peticions];
+        lectures.set(0);
+        escriptures.set(0);
+        prestats.set(0);
+        errors.set(0);
+    }
+
+    private void resum(String nom, long durada, ManagerAsincron async) {
+        long[] ordenades = latencies.clone();
+        Arrays.sort(ordenades);
+        double segons = durada / 1e9;
+        System.out.printf("%n%s: %d clients x %d peticions en %.1f s (%.0f peticions/s)%n",
+            nom, clients, peticions, segons, ordenades.length / segons);
+        System.out.printf("    lectures %d, escriptures %d (préstecs fets %d), errors %d%n",
+            lectures.get(), escriptures.get(), prestats.get(), errors.get());
+        System.out.printf("    latència per petició: p50 %.1f ms, p99 %.1f ms, màxim %.1f ms%n",
+            percentil(ordenades, 0.50), percentil(ordenades, 0.99), ordenades[ordenades.length - 1] / 1e6);
+        if (async != null) {
+            System.out.printf("    esperes amb la cua d'escriptura plena: %d%n", async.getEsperesCuaPlena());
+        }
+    }
+
+    private static double percentil(long[] ordenades, double p) {
+        return ordenades[(int) Math.min(ordenades.length - 1, Math.round(p * ordenades.length))] / 1e6;
+    }
+
+    private boolean comprovar() {
+        Map<Long, Integer> actius = new HashMap<>();
+        try (Stream<Prestec> stream = Manager.streamCollection(Prestec.class)) {
+            stream.filter(Prestec::isActiu)
+                .forEach(p -> actius.merge(p.getExemplar().getExemplarId(), 1, Integer::sum));
+        }
+        long dobles = actius.values().stream().filter(n -> n > 1).count();
+        int desquadrats = 0;
+        for (long exemplarId : exemplars) {
+            if (Manager.getIndexDisponibilitat().isDisponible(exemplarId)
+                    != Manager.findById(Exemplar.class, exemplarId).isDisponible()) {
+                desquadrats++;
+            }
+        }
+        int persones = Manager.comprovarPrestecsActius(false);
+        System.out.println();
+        System.out.println("Exemplars amb dos préstecs actius: " + dobles);
+        System.out.println("Exemplars amb l'índex de disponibilitat desquadrat: " + desquadrats);
+        System.out.println("Persones amb el comptador de préstecs actius desquadrat: " + persones);
+        return dobles == 0 && desquadrats == 0 && persones == 0;
+    }
+}
@@ -0,0 +1,63 @@
+package com.project.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.project.dao.Manager;
+import com.project.domain.*;
+
+/*
+ * Comprova que Manager.collectionToString fa el mateix nombre de
+ * consultes SQL per a 10, 100 o 1000 elements (sense N+1). Els ids
+ * es carreguen per blocs de 500, així que es compara per bloc.
+ *
+ *   mvn -Pjmh compile exec:exec -Djmh.main=com.project.benchmark.MainFetchPlan -Djmh.args=100000
+ */
+
+public class MainFetchPlan {
+
+    private static final int[] MIDES = {10, 100, 1000};
+    private static final int MIDA_BLOC = 500;
+
+    public static void main(String[] args) {
+        int prestecs = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        DadesBenchmark.preparar(prestecs);
+
+        boolean correcte = true;
+        correcte &= comprovar(Autor.class);
+        correcte &= comprovar(Llibre.class);
+        correcte &= comprovar(Biblioteca.class);
+        correcte &= comprovar(Exemplar.class);
+        correcte &= comprovar(Persona.class);
+        correcte &= comprovar(Prestec.class);
+        Manager.close();
+
+        if (!correcte) {
+            System.out.println("ERROR: el nombre de consultes creix amb la mida de la col·lecció");
+            System.exit(1);
+        }
+    }
+
+    private static <T> boolean comprovar(Class<T> clazz) {
+        List<T> tots = new ArrayList<>(Manager.listCollection(clazz));
+        StringBuilder linia = new StringBuilder(clazz.getSimpleName()).append(":");
+        long primer = -1;
+        boolean correcte = true;
+        for (int mida : MIDES) {
+            List<T> mostra = tots.subList(0, Math.min(mida, tots.size()));
+            Manager.evictCache();
+            long abans = Manager.getStatisticsLectura().getPrepareStatementCount();
+            Manager.collectionToString(clazz, mostra);
+            long consultes = Manager.getStatisticsLectura().getPrepareStatementCount() - abans;
+            long blocs = (mostra.size() + MIDA_BLOC - 1) / MIDA_BLOC;
+            linia.append(" ").append(mostra.size()).append(" elements -> ").append(consultes).append(" consultes;");
+            if (primer < 0) {
+                primer = consultes;
+            } else if (consultes > primer * blocs) {
+                correcte = false;
+            }
+        }
+        System.out.println(linia);
+        return correcte;
+    }
+}
@@ -0,0 +1,70 @@
+package com.project.benchmark;
+
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import com.project.dao.Manager;
+import com.project.domain.Prestec;
+import com.project.informe.EscriptorInforme;
+import com.project.informe.FormatInforme;
+
+/*
+ * Comprova que Manager.streamCollection recorre tots els préstecs
+ * amb la memòria plana. S'ha d'executar amb un heap petit:
+ *
+ *   mvn -Pjmh compile exec:exec -Djmh.main=com.project.benchmark.MainStreamMemoria \
+ *       -Djmh.jvmArgs=-Xmx64m -Djmh.args=1000000
+ *
+ * Amb un segon argument (TEXT, CSV o NDJSON) cada préstec també
+ * s'escriu en aquest format amb EscriptorInforme (a una sortida nul·la),
+ * per comprovar que l'informe tampoc fa créixer la memòria.
+ *
+ * La base de dades es genera la primera vegada (amb DadesBenchmark),
+ * i això sí que necessita més heap: cal generar-la abans sense -Xmx.
+ */
+
+public class MainStreamMemoria {
+
+    public static void main(String[] args) {
+        int prestecs = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        FormatInforme format = args.length > 1 ? FormatInforme.valueOf(args[1]) : null;
+        DadesBenchmark.preparar(prestecs);
+        EscriptorInforme escriptor = format == null ? null
+            : new EscriptorInforme(OutputStream.nullOutputStream(), format);
+
+        Runtime runtime = Runtime.getRuntime();
+        AtomicLong files = new AtomicLong();
+        AtomicLong maxUsada = new AtomicLong();
+        long inici = System.nanoTime();
+
+        try (Stream<Prestec> stream = Manager.streamCollection(Prestec.class)) {
+            stream.forEach(prestec -> {
+                if (escriptor != null) {
+                    prestec.escriure(escriptor);
+                }
+                long n = files.incrementAndGet();
+                if (n % 10000 == 0) {
+                    long usada = runtime.totalMemory() - runtime.freeMemory();
+                    maxUsada.accumulateAndGet(usada, Math::max);
+                    if (n % 100000 == 0) {
+                        System.out.println(n + " files, heap usat " + usada / (1024 * 1024) + " MiB");
+                    }
+                }
+            });
+        }
+
+        if (escriptor != null) {
+            escriptor.close();
+        }
+        double segons = (System.nanoTime() - inici) / 1e9;
+        System.out.printf("Files recorregudes: %d en %.1f s (heap màxim %d MiB, -Xmx %d MiB)%n",
+            files.get(), segons, maxUsada.get() / (1024 * 1024), runtime.maxMemory() / (1024 * 1024));
+        Manager.close();
+
+        if (files.get() < prestecs) {
+            System.out.println("ERROR: s'esperaven com a mínim " + prestecs + " files");
+            System.exit(1);
+        }
+    }
+}
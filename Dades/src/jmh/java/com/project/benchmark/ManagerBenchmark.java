@@ -0,0 +1,87 @@
+package com.project.benchmark;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.LlibreBiblioteca;
+import com.project.dao.LlibreEnPrestec;
+import com.project.dao.Manager;
+import com.project.domain.*;
+
+/*
+ * Benchmarks dels camins calents del Manager sobre bases
+ * de dades de 1k, 100k i 1M préstecs (vegeu DadesBenchmark).
+ * Es mesura el throughput i la distribució de latències
+ * (percentils p50..p99.99 del mode SampleTime).
+ *
+ * Els benchmarks d'escriptura modifiquen la base de dades:
+ * cada execució hi afegeix préstecs.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ManagerBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int prestecs;
+
+    private List<Exemplar> exemplars;
+    private List<Persona> persones;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DadesBenchmark.preparar(prestecs);
+        exemplars = new ArrayList<>(Manager.listCollection(Exemplar.class));
+        persones = new ArrayList<>(Manager.listCollection(Persona.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Manager.close();
+    }
+
+    @Benchmark
+    public Prestec addPrestec() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Exemplar exemplar = exemplars.get(random.nextInt(exemplars.size()));
+        Persona persona = persones.get(random.nextInt(persones.size()));
+        LocalDate avui = LocalDate.now();
+        return Manager.addPrestec(exemplar, persona, avui, avui.plusDays(21));
+    }
+
+    @Benchmark
+    public void registrarRetornPrestec() {
+        long prestecId = 1 + ThreadLocalRandom.current().nextInt(prestecs);
+        Manager.registrarRetornPrestec(prestecId, LocalDate.now());
+    }
+
+    @Benchmark
+    public List<LlibreEnPrestec> listLlibresEnPrestec() {
+        return Manager.listLlibresEnPrestec();
+    }
+
+    @Benchmark
+    public List<LlibreBiblioteca> listLlibresAmbBiblioteques() {
+        return Manager.listLlibresAmbBiblioteques();
+    }
+
+    @Benchmark
+    public List<Llibre> findLlibresAmbAutors() {
+        return Manager.findLlibresAmbAutors();
+    }
+
+    @Benchmark
+    public Collection<Prestec> listCollection() {
+        return Manager.listCollection(Prestec.class);
+    }
+}
@@ -0,0 +1,100 @@
+package com.project.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.Histograma;
+import com.project.dao.Manager;
+import com.project.domain.Llibre;
+
+/*
+ * Cost de les mètriques del Manager, per veure si es poden deixar sempre
+ * actives:
+ * - registrar un valor al histograma, des d'un fil i des de quatre alhora
+ * - llegir-ne una instantània (el que fa cada atribut JMX i el log)
+ * - findById d'un llibre que és a la cache de segon nivell, l'operació
+ *   mesurada més ràpida, amb les mètriques incloses
+ *
+ * Abans de mesurar es comprova que els percentils del histograma tenen
+ * com a molt un 3% d'error i que el MBean de findById (per JMX) l'ha
+ * comptat.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetriquesBenchmark {
+
+    private final Histograma histograma = new Histograma();
+
+    @Setup(Level.Trial)
+    public void setup() throws JMException {
+        comprovarPercentils();
+        DadesBenchmark.preparar(1000);
+        MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+        ObjectName findById = new ObjectName("com.project.dao:type=Operacio,name=findById");
+        long abans = (Long) servidor.getAttribute(findById, "Crides");
+        Manager.findById(Llibre.class, 1);
+        if ((Long) servidor.getAttribute(findById, "Crides") != abans + 1) {
+            throw new IllegalStateException("findById no s'ha comptat");
+        }
+        System.out.println("\nHibernate per JMX, consultes: "
+            + servidor.getAttribute(new ObjectName("com.project.dao:type=Hibernate"), "Consultes"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println();
+        System.out.println(Manager.getMetriques());
+        Manager.close();
+    }
+
+    // Valors d'1 µs a 1 s repartits uniformement: el percentil p és p segons
+    private static void comprovarPercentils() {
+        Histograma h = new Histograma();
+        int n = 1000000;
+        for (int i = 1; i <= n; i++) {
+            h.registrar(i * 1000L);
+        }
+        Histograma.Instantania instantania = h.instantania();
+        for (double p : new double[] {0.5, 0.9, 0.99, 0.999}) {
+            double esperat = p * n * 1000;
+            double error = Math.abs(instantania.percentil(p) - esperat) / esperat;
+            if (error > 1.0 / 32) {
+                throw new IllegalStateException("Percentil " + p + ": " + instantania.percentil(p)
+                    + " en lloc de " + (long) esperat);
+            }
+        }
+    }
+
+    @Benchmark
+    public void registrar() {
+        histograma.registrar(ThreadLocalRandom.current().nextLong(1000, 10000000));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void registrar4Fils() {
+        histograma.registrar(ThreadLocalRandom.current().nextLong(1000, 10000000));
+    }
+
+    @Benchmark
+    public long instantania() {
+        return histograma.instantania().percentil(0.99);
+    }
+
+    @Benchmark
+    public Llibre findByIdCacheL2() {
+        return Manager.findById(Llibre.class, 1 + ThreadLocalRandom.current().nextInt(100));
+    }
+}
@@ -0,0 +1,142 @@
+package com.project.benchmark;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.LlibreEnPrestec;
+import com.project.dao.Manager;
+import com.project.dao.ResultatPrestec;
+import com.project.domain.Exemplar;
+import com.project.domain.Prestec;
+
+/*
+ * Préstecs concurrents amb totes les dades en un fitxer o repartides per
+ * biblioteca (dades.particions.biblioteques). Amb un sol fitxer tots els
+ * préstecs es fan cua pel bloqueig d'escriptura de SQLite; amb particions
+ * només s'esperen els de la mateixa biblioteca.
+ * - prestarIRetornar: 8 fils que presten i retornen exemplars de totes les
+ *   biblioteques
+ * - llibresEnPrestec: l'informe de llibres en préstec, que amb particions
+ *   es consulta a totes alhora i s'ajunta
+ * - prestecsRetardats: el recompte de retardats, sumat entre particions
+ *
+ * Abans de mesurar es comprova que un préstec va a la partició de la
+ * biblioteca del seu exemplar (bits alts de l'id) i es troba per id. Al
+ * final, que tots els préstecs fets s'han retornat: l'informe té els
+ * mateixos préstecs actius que a l'inici i els exemplars fets servir
+ * tornen a estar disponibles a l'índex i a la base de dades.
+ *
+ * L'escalfament és llarg perquè amb particions hi ha una SessionFactory
+ * per biblioteca, i cadascuna ha de preparar les seves consultes.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 6, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ParticionsBenchmark {
+
+    private static final int EXEMPLARS = 2000;
+
+    @Param({"100000"})
+    public int prestecs;
+
+    @Param({"false", "true"})
+    public boolean particions;
+
+    private long[] exemplars;
+    private int actiusInicials;
+    private final AtomicInteger seguent = new AtomicInteger();
+    private final AtomicLong fallits = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DadesBenchmark.preparar(prestecs, particions);
+        if (Manager.isParticionat() != particions) {
+            throw new IllegalStateException("Particions: " + Manager.isParticionat());
+        }
+        List<Long> disponibles = new ArrayList<>(EXEMPLARS);
+        for (long id = 1; disponibles.size() < EXEMPLARS; id++) {
+            if (Manager.getIndexDisponibilitat().isDisponible(id)) {
+                disponibles.add(id);
+            }
+        }
+        exemplars = disponibles.stream().mapToLong(Long::longValue).toArray();
+        actiusInicials = Manager.listLlibresEnPrestec().size();
+        comprovarEncaminament();
+    }
+
+    private void comprovarEncaminament() {
+        LocalDate avui = LocalDate.now();
+        Exemplar exemplar = Manager.findById(Exemplar.class, exemplars[0]);
+        ResultatPrestec resultat = Manager.prestarExemplar(exemplar.getExemplarId(), 1, avui, avui.plusDays(21));
+        if (!resultat.isPrestat()) {
+            throw new IllegalStateException("No s'ha pogut prestar l'exemplar " + exemplar.getExemplarId()
+                + ": " + resultat);
+        }
+        long prestecId = resultat.getPrestec().getPrestecId();
+        long bibliotecaId = exemplar.getBiblioteca().getBibliotecaId();
+        if (particions && prestecId >>> 40 != bibliotecaId) {
+            throw new IllegalStateException("El préstec " + prestecId + " no és de la biblioteca " + bibliotecaId);
+        }
+        if (Manager.getPrestecsActius(1) < 1 || Manager.findById(Prestec.class, prestecId) == null) {
+            throw new IllegalStateException("No es troba el préstec " + prestecId);
+        }
+        Manager.registrarRetornPrestec(prestecId, avui);
+        if (!Manager.findById(Exemplar.class, exemplar.getExemplarId()).isDisponible()) {
+            throw new IllegalStateException("L'exemplar " + exemplar.getExemplarId() + " no s'ha retornat");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        int actius = Manager.listLlibresEnPrestec().size();
+        int noDisponibles = 0;
+        for (long exemplarId : exemplars) {
+            if (!Manager.getIndexDisponibilitat().isDisponible(exemplarId)
+                    || !Manager.findById(Exemplar.class, exemplarId).isDisponible()) {
+                noDisponibles++;
+            }
+        }
+        Manager.close();
+        if (fallits.get() > 0 || actius != actiusInicials || noDisponibles > 0) {
+            throw new IllegalStateException(fallits + " préstecs fallits, " + actius + " préstecs actius en lloc de "
+                + actiusInicials + ", " + noDisponibles + " exemplars sense retornar");
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean prestarIRetornar() {
+        LocalDate avui = LocalDate.now();
+        int i = Math.floorMod(seguent.getAndIncrement(), exemplars.length);
+        ResultatPrestec resultat = Manager.prestarExemplar(exemplars[i], 1 + i % 50, avui, avui.plusDays(21));
+        if (resultat.isPrestat()) {
+            Manager.registrarRetornPrestec(resultat.getPrestec().getPrestecId(), avui);
+            return true;
+        }
+        // Un altre fil té l'exemplar (la volta sencera a la llista és rara)
+        if (resultat.getEstat() != ResultatPrestec.Estat.JA_EN_PRESTEC) {
+            fallits.incrementAndGet();
+        }
+        return false;
+    }
+
+    @Benchmark
+    public List<LlibreEnPrestec> llibresEnPrestec() {
+        return Manager.listLlibresEnPrestec();
+    }
+
+    @Benchmark
+    public long prestecsRetardats() {
+        return Manager.comptarPrestecsRetardats(LocalDate.now());
+    }
+}
@@ -0,0 +1,125 @@
+package com.project.benchmark;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.Manager;
+import com.project.dao.ResultatPrestec;
+import com.project.domain.*;
+
+/*
+ * Molts fils intentant prestar el mateix grapat d'exemplars.
+ * Cada préstec que reïx es retorna just després, perquè els
+ * exemplars tornin a estar disponibles.
+ *
+ * Es comprova que cap exemplar té mai dos préstecs actius:
+ * - durant l'execució, amb un mapa exemplar -> préstec en curs
+ * - al final, contant els préstecs actius de la base de dades
+ * També es comprova que l'índex de disponibilitat en memòria
+ * acaba igual que la base de dades per als exemplars calents,
+ * i que el comptador de préstecs actius de cada persona quadra.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class PrestecConcurrentBenchmark {
+
+    @Param({"1000"})
+    public int prestecs;
+
+    @Param({"4"})
+    public int exemplarsCalents;
+
+    private long[] exemplars;
+    private long[] persones;
+    private final Map<Long, Long> enPrestec = new ConcurrentHashMap<>();
+    private final AtomicLong prestats = new AtomicLong();
+    private final AtomicLong rebutjats = new AtomicLong();
+    private final AtomicLong dobles = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DadesBenchmark.preparar(prestecs);
+        List<Long> disponibles = new ArrayList<>();
+        for (Exemplar exemplar : Manager.listCollection(Exemplar.class)) {
+            if (exemplar.isDisponible() && disponibles.size() < exemplarsCalents) {
+                disponibles.add(exemplar.getExemplarId());
+            }
+        }
+        exemplars = disponibles.stream().mapToLong(Long::longValue).toArray();
+        persones = Manager.listCollection(Persona.class).stream()
+            .limit(100).mapToLong(Persona::getPersonaId).toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Map<Long, Integer> actius = new HashMap<>();
+        try (Stream<Prestec> stream = Manager.streamCollection(Prestec.class)) {
+            stream.filter(Prestec::isActiu)
+                .forEach(p -> actius.merge(p.getExemplar().getExemplarId(), 1, Integer::sum));
+        }
+        long doblesBd = actius.values().stream().filter(n -> n > 1).count();
+        int desquadrats = 0;
+        for (long exemplarId : exemplars) {
+            boolean disponibleBd = Manager.findById(Exemplar.class, exemplarId).isDisponible();
+            if (Manager.getIndexDisponibilitat().isDisponible(exemplarId) != disponibleBd) {
+                desquadrats++;
+            }
+        }
+        System.out.println();
+        System.out.println("Préstecs fets: " + prestats.get() + ", rebutjats (ja en préstec): " + rebutjats.get());
+        System.out.println("Préstecs dobles detectats: " + dobles.get() + " en execució, " + doblesBd + " a la base de dades");
+        int persones = Manager.comprovarPrestecsActius(false);
+        System.out.println("Exemplars amb l'índex de disponibilitat desquadrat: " + desquadrats);
+        System.out.println("Persones amb el comptador de préstecs actius desquadrat: " + persones);
+        Manager.close();
+        if (dobles.get() > 0 || doblesBd > 0) {
+            throw new IllegalStateException("S'ha prestat dues vegades el mateix exemplar");
+        }
+        if (desquadrats > 0) {
+            throw new IllegalStateException("L'índex de disponibilitat no coincideix amb la base de dades");
+        }
+        if (persones != 0) {
+            throw new IllegalStateException("El comptador de préstecs actius no coincideix amb la taula prestecs");
+        }
+    }
+
+    @Benchmark
+    public ResultatPrestec.Estat prestarIRetornar() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long exemplarId = exemplars[random.nextInt(exemplars.length)];
+        long personaId = persones[random.nextInt(persones.length)];
+        LocalDate avui = LocalDate.now();
+
+        ResultatPrestec resultat = Manager.prestarExemplar(exemplarId, personaId, avui, avui.plusDays(21));
+        if (resultat.isPrestat()) {
+            prestats.incrementAndGet();
+            long prestecId = resultat.getPrestec().getPrestecId();
+            if (enPrestec.putIfAbsent(exemplarId, prestecId) != null) {
+                dobles.incrementAndGet();
+            }
+            // Es treu del mapa abans de retornar-lo: un cop confirmat el retorn
+            // un altre fil ja el pot tornar a prestar
+            enPrestec.remove(exemplarId, prestecId);
+            Manager.registrarRetornPrestec(prestecId, avui);
+        } else if (resultat.getEstat() == ResultatPrestec.Estat.JA_EN_PRESTEC) {
+            rebutjats.incrementAndGet();
+        }
+        return resultat.getEstat();
+    }
+}
@@ -0,0 +1,65 @@
+package com.project.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.LlibreBiblioteca;
+import com.project.dao.Manager;
+import com.project.informe.EscriptorInforme;
+import com.project.informe.FormatInforme;
+
+/*
+ * "Llibres i les seves biblioteques" de tres maneres, fins a
+ * tenir el text de l'informe:
+ * - Object[] per fila i formatMultipleResult (l'API antiga)
+ * - llista de records amb una expressió constructora
+ * - records passats a un consumidor, sense construir la llista
+ *
+ * Per veure la taxa d'assignació, amb el perfilador de GC:
+ *   ./run-jmh.sh ProjeccionsBenchmark -prof gc
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjeccionsBenchmark {
+
+    @Param({"1000", "100000"})
+    public int prestecs;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DadesBenchmark.preparar(prestecs);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Manager.close();
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public String objectArray() {
+        List<Object[]> files = Manager.findLlibresAmbBiblioteques();
+        return Manager.formatMultipleResult(files);
+    }
+
+    @Benchmark
+    public String llistaRecords() {
+        List<LlibreBiblioteca> files = Manager.listLlibresAmbBiblioteques();
+        return Manager.formatResults(files);
+    }
+
+    @Benchmark
+    public String streamingRecords() {
+        StringBuilder sb = new StringBuilder();
+        EscriptorInforme escriptor = EscriptorInforme.sobre(sb, FormatInforme.TEXT);
+        Manager.streamLlibresAmbBiblioteques(fila -> fila.escriure(escriptor));
+        return sb.toString();
+    }
+}
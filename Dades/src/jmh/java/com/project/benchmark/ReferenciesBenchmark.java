@@ -0,0 +1,114 @@
+package com.project.benchmark;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.Manager;
+import com.project.dao.ResultatPrestec;
+import com.project.domain.Exemplar;
+import com.project.domain.Prestec;
+
+/*
+ * Què carreguen les referències @ManyToOne (Prestec.exemplar i persona,
+ * Exemplar.llibre i biblioteca) a cada cas d'ús del Manager:
+ * - listPrestecs: listCollection(Prestec.class), el llistat de préstecs
+ * - listExemplars: listCollection(Exemplar.class), el catàleg d'exemplars
+ * - prestarIRetornar: prestarExemplar i registrarRetornPrestec
+ *
+ * Abans de mesurar s'escriuen les sentències SQL de cada cas amb la cache
+ * de segon nivell buida i plena (les de totes les SessionFactory), i es
+ * comprova que el toString() de tots els préstecs i exemplars llistats
+ * funciona amb la sessió ja tancada: el llistat ha carregat tot el que
+ * mostra.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ReferenciesBenchmark {
+
+    @Param({"100000"})
+    public int prestecs;
+
+    private long[] exemplars;
+    private final AtomicInteger seguent = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DadesBenchmark.preparar(prestecs);
+        exemplars = new long[100];
+        int n = 0;
+        for (long id = 1; n < exemplars.length; id++) {
+            if (Manager.getIndexDisponibilitat().isDisponible(id)) {
+                exemplars[n++] = id;
+            }
+        }
+
+        System.out.println();
+        for (boolean buida : new boolean[] {true, false}) {
+            Collection<Prestec> llistat = sentencies("listCollection(Prestec)", buida,
+                () -> Manager.listCollection(Prestec.class));
+            Collection<Exemplar> cataleg = sentencies("listCollection(Exemplar)", buida,
+                () -> Manager.listCollection(Exemplar.class));
+            sentencies("prestarExemplar + registrarRetornPrestec", buida, this::prestarIRetornar);
+            llistat.forEach(Prestec::toString);
+            cataleg.forEach(Exemplar::toString);
+        }
+    }
+
+    private static <R> R sentencies(String cas, boolean buida, Supplier<R> feina) {
+        if (buida) {
+            Manager.evictCache();
+        }
+        long abans = sentencies();
+        long inici = System.nanoTime();
+        R resultat = feina.get();
+        long temps = System.nanoTime() - inici;
+        System.out.printf("%-45s cache L2 %-5s %7d sentències  %8.1f ms%n", cas, buida ? "buida" : "plena",
+            sentencies() - abans, temps / 1e6);
+        return resultat;
+    }
+
+    private static long sentencies() {
+        long total = Manager.getStatistics().getPrepareStatementCount();
+        if (Manager.isLecturaSeparada()) {
+            total += Manager.getStatisticsLectura().getPrepareStatementCount();
+        }
+        return total;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Manager.close();
+    }
+
+    @Benchmark
+    public Collection<Prestec> listPrestecs() {
+        return Manager.listCollection(Prestec.class);
+    }
+
+    @Benchmark
+    public Collection<Exemplar> listExemplars() {
+        return Manager.listCollection(Exemplar.class);
+    }
+
+    @Benchmark
+    public boolean prestarIRetornar() {
+        LocalDate avui = LocalDate.now();
+        int i = Math.floorMod(seguent.getAndIncrement(), exemplars.length);
+        ResultatPrestec resultat = Manager.prestarExemplar(exemplars[i], 1 + i % 50, avui, avui.plusDays(21));
+        if (!resultat.isPrestat()) {
+            throw new IllegalStateException("No s'ha pogut prestar l'exemplar " + exemplars[i] + ": " + resultat);
+        }
+        Manager.registrarRetornPrestec(resultat.getPrestec().getPrestecId(), avui);
+        return true;
+    }
+}
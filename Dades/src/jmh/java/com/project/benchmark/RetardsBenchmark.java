@@ -0,0 +1,70 @@
+package com.project.benchmark;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.Manager;
+import com.project.domain.*;
+
+/*
+ * Préstecs retardats de tres maneres:
+ * - carregant tots els préstecs i cridant estaRetardat() (com abans)
+ * - amb la consulta sobre l'índex (actiu, data_retorn_prevista)
+ * - els que passaran a estar retardats demà, amb la cua de venciments
+ *
+ * Abans de mesurar es comprova que les dues primeres donen el mateix.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RetardsBenchmark {
+
+    @Param({"1000", "100000"})
+    public int prestecs;
+
+    private LocalDate avui;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DadesBenchmark.preparar(prestecs);
+        avui = LocalDate.now();
+        long escaneig = escaneigEntitats();
+        long consulta = Manager.comptarPrestecsRetardats(avui);
+        if (escaneig != consulta) {
+            throw new IllegalStateException("Retardats: " + escaneig + " escanejant i " + consulta + " amb la consulta");
+        }
+        System.out.println();
+        System.out.println("Retardats: " + consulta + ", a la cua de venciments: "
+            + Manager.getPlanificadorVenciments().mida());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Manager.close();
+    }
+
+    @Benchmark
+    public long escaneigEntitats() {
+        try (Stream<Prestec> stream = Manager.streamCollection(Prestec.class)) {
+            return stream.filter(p -> p.estaRetardat(avui)).count();
+        }
+    }
+
+    @Benchmark
+    public long consultaIndexada() {
+        return Manager.comptarPrestecsRetardats(avui);
+    }
+
+    @Benchmark
+    public List<Long> cuaNousRetardats() {
+        return Manager.getPlanificadorVenciments().vencenAbans(avui.plusDays(1));
+    }
+}
@@ -0,0 +1,148 @@
+package com.project.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.Manager;
+import com.project.dao.ResultatPrestec;
+import com.project.dao.ResultatRetorns;
+import com.project.domain.Exemplar;
+
+/*
+ * Retorns en bloc (una bústia de retorn amb 'retorns' llibres):
+ * - unPerUn: registrarRetornPrestec de cada préstec, una transacció per retorn
+ * - enBloc: retornarPerCodiBarres amb tots els codis de barres alhora
+ *
+ * Abans de cada invocació es presten els mateixos exemplars (no es mesura).
+ * El resultat és el temps per retorn: 1e6 / µs per op són retorns per segon.
+ *
+ * Es treballa sobre una còpia de bench-100000.db. Abans de mesurar es
+ * comprova el resultat d'un codi que no existeix, d'un exemplar que no és
+ * en préstec i d'un codi repetit, i que el retorn en bloc puja la versió de
+ * l'exemplar. Després de cada invocació es comprova que tots els exemplars
+ * tornen a ser disponibles, i al final que els comptadors de les persones
+ * quadren.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class RetornsBenchmark {
+
+    @Param({"1000"})
+    public int retorns;
+
+    @Param({"unPerUn", "enBloc"})
+    public String metode;
+
+    private long[] exemplars;
+    private List<String> codis;
+    private long[] prestecs;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        DadesBenchmark.preparar(100000);
+        Manager.close();
+        Path original = Paths.get(System.getProperty("user.dir"), "data", "bench-100000.db");
+        Path copia = Paths.get("target", "bench-retorns.db");
+        Files.deleteIfExists(Paths.get(copia + "-wal"));
+        Files.deleteIfExists(Paths.get(copia + "-shm"));
+        Files.copy(original, copia, StandardCopyOption.REPLACE_EXISTING);
+        System.setProperty("hibernate.connection.url", "jdbc:sqlite:" + copia);
+        Manager.createSessionFactory();
+
+        exemplars = new long[retorns];
+        codis = new ArrayList<>(retorns);
+        prestecs = new long[retorns];
+        long id = 1;
+        for (int i = 0; i < retorns; id++) {
+            if (Manager.getIndexDisponibilitat().isDisponible(id)) {
+                exemplars[i++] = id;
+                codis.add(Manager.findById(Exemplar.class, id).getCodiBarres());
+            }
+        }
+        comprovarEstats();
+    }
+
+    private void comprovarEstats() {
+        LocalDate avui = LocalDate.now();
+        long versio = Manager.findById(Exemplar.class, exemplars[0]).getVersio();
+        prestar(exemplars[0], 0);
+        ResultatRetorns resultat = Manager.retornarPerCodiBarres(
+            List.of(codis.get(0), "NO-EXISTEIX", codis.get(1), codis.get(0)), avui);
+        Exemplar exemplar = Manager.findById(Exemplar.class, exemplars[0]);
+        if (resultat.getEstats().size() != 3
+                || resultat.getEstat(codis.get(0)) != ResultatRetorns.Estat.RETORNAT
+                || resultat.getEstat("NO-EXISTEIX") != ResultatRetorns.Estat.CODI_DESCONEGUT
+                || resultat.getEstat(codis.get(1)) != ResultatRetorns.Estat.NO_EN_PRESTEC
+                || !exemplar.isDisponible() || exemplar.getVersio() != versio + 2
+                || !Manager.getIndexDisponibilitat().isDisponible(exemplars[0])) {
+            throw new IllegalStateException("Retorn en bloc incorrecte: " + resultat.getEstats()
+                + ", versió " + versio + " -> " + exemplar.getVersio());
+        }
+        System.out.printf("%nRetorn en bloc de prova: %s%n", resultat.getEstats());
+    }
+
+    private void prestar(long exemplarId, int i) {
+        LocalDate avui = LocalDate.now();
+        ResultatPrestec resultat = Manager.prestarExemplar(exemplarId, 1 + i % 50, avui, avui.plusDays(21));
+        if (!resultat.isPrestat()) {
+            throw new IllegalStateException("No s'ha pogut prestar l'exemplar " + exemplarId + ": " + resultat);
+        }
+        prestecs[i] = resultat.getPrestec().getPrestecId();
+    }
+
+    @Setup(Level.Invocation)
+    public void prestarTots() {
+        for (int i = 0; i < retorns; i++) {
+            prestar(exemplars[i], i);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void comprovarRetornats() {
+        for (long exemplarId : exemplars) {
+            if (!Manager.getIndexDisponibilitat().isDisponible(exemplarId)) {
+                throw new IllegalStateException("L'exemplar " + exemplarId + " no s'ha retornat");
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        int desquadrades = Manager.comprovarPrestecsActius(false);
+        Manager.close();
+        if (desquadrades != 0) {
+            throw new IllegalStateException(desquadrades + " persones desquadrades");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1000)
+    public int retornar() {
+        LocalDate avui = LocalDate.now();
+        if (metode.equals("enBloc")) {
+            ResultatRetorns resultat = Manager.retornarPerCodiBarres(codis, avui);
+            if (resultat.getRetornats() != retorns) {
+                throw new IllegalStateException("Retorn en bloc: " + resultat);
+            }
+            return resultat.getRetornats();
+        }
+        for (long prestecId : prestecs) {
+            Manager.registrarRetornPrestec(prestecId, avui);
+        }
+        return prestecs.length;
+    }
+}
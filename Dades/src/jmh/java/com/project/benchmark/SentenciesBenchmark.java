@@ -0,0 +1,101 @@
+package com.project.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.project.dao.Manager;
+import com.project.sqliteutils.UtilsSQLite;
+
+/*
+ * Cost per crida de UtilsSQLite: SQL concatenat amb un Statement nou
+ * (com feien querySelect i queryUpdate), una sentència preparada nova
+ * a cada crida, i la sentència preparada de la cache (query i update).
+ *
+ * Els UPDATE no canvien res (editorial = editorial), però passen pel
+ * commit de cada crida, igual en les dues versions.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SentenciesBenchmark {
+
+    private static final String SELECT = "SELECT titol, editorial, any_publicacio FROM llibres WHERE llibre_id = ?";
+    private static final String UPDATE = "UPDATE llibres SET editorial = editorial WHERE llibre_id = ?";
+
+    @Param({"1000"})
+    public int prestecs;
+
+    private Connection conn;
+    private long llibres;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DadesBenchmark.preparar(prestecs);
+        Manager.close();
+        conn = UtilsSQLite.connect(System.getProperty("user.dir") + "/data/bench-" + prestecs + ".db");
+        try (ResultSet rs = UtilsSQLite.query(conn, "SELECT MAX(llibre_id) FROM llibres")) {
+            rs.next();
+            llibres = rs.getLong(1);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        UtilsSQLite.disconnect(conn);
+    }
+
+    private long llibreAtzar() {
+        return ThreadLocalRandom.current().nextLong(1, llibres + 1);
+    }
+
+    private static String llegir(ResultSet rs) throws SQLException {
+        return rs.next() ? rs.getString(1) + rs.getString(2) + rs.getInt(3) : null;
+    }
+
+    @Benchmark
+    public String selectConcatenat() throws SQLException {
+        String sql = "SELECT titol, editorial, any_publicacio FROM llibres WHERE llibre_id = " + llibreAtzar();
+        try (ResultSet rs = UtilsSQLite.querySelect(conn, sql)) {
+            return llegir(rs);
+        }
+    }
+
+    @Benchmark
+    public String selectPreparadaNova() throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(SELECT)) {
+            ps.setLong(1, llibreAtzar());
+            try (ResultSet rs = ps.executeQuery()) {
+                return llegir(rs);
+            }
+        }
+    }
+
+    @Benchmark
+    public String selectCache() throws SQLException {
+        try (ResultSet rs = UtilsSQLite.query(conn, SELECT, llibreAtzar())) {
+            return llegir(rs);
+        }
+    }
+
+    @Benchmark
+    public int updateConcatenat() {
+        return UtilsSQLite.queryUpdate(conn, "UPDATE llibres SET editorial = editorial WHERE llibre_id = " + llibreAtzar());
+    }
+
+    @Benchmark
+    public int updateCache() {
+        return UtilsSQLite.update(conn, UPDATE, llibreAtzar());
+    }
+}
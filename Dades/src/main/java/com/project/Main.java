@@ -9,6 +9,8 @@ import java.util.Collection;
 
 import com.project.dao.Manager;
 import com.project.domain.*;
+import com.project.informe.EscriptorInforme;
+import com.project.informe.FormatInforme;
 
 public class Main {
 
@@ -27,8 +29,21 @@ public class Main {
         }
         System.out.println("Directori de dades verificat: " + basePath);
 
-        // 2. Inicialitzem Hibernate
+        // 2. Inicialitzem Hibernate. Amb l'esquema per defecte (migrar), una
+        // base de dades creada per hbm2ddl o per una versió anterior s'adopta
+        // i es porta a l'última migració
         Manager.createSessionFactory();
+        System.out.print(Manager.getArrencada());
+        // La demo insereix sempre les mateixes dades (isbn, dni... únics): si
+        // ja hi són d'una altra execució, es torna a començar amb les taules
+        // buides, tret que s'hagi triat l'esquema amb -Ddades.esquema
+        if (System.getProperty("dades.esquema") == null && !Manager.listCollection(Llibre.class).isEmpty()) {
+            System.out.println("La base de dades ja té dades: es recreen les taules");
+            Manager.close();
+            System.setProperty("dades.esquema", "recrear");
+            Manager.createSessionFactory();
+            System.out.print(Manager.getArrencada());
+        }
         System.out.println("Hibernate inicialitzat correctament");
 
         // 3. Creem els autors
@@ -158,14 +173,23 @@ public class Main {
         System.out.println(Manager.collectionToString(Llibre.class, llibresAmbAutors));
 
         System.out.println("\nConsulta 2: Llibres en préstec i qui els té");
-        List<Object[]> prestecsActius = Manager.findLlibresEnPrestec();
-        System.out.println(Manager.formatMultipleResult(prestecsActius));
+        // Els informes s'escriuen a la sortida a mesura que es llegeixen
+        EscriptorInforme sortida = new EscriptorInforme(System.out, FormatInforme.TEXT);
+        Manager.informeLlibresEnPrestec(sortida);
+        System.out.println();
 
         System.out.println("\nConsulta 3: Llibres i les seves biblioteques");
-        List<Object[]> llibresBiblios = Manager.findLlibresAmbBiblioteques();
-        System.out.println(Manager.formatMultipleResult(llibresBiblios));
+        Manager.informeLlibresAmbBiblioteques(sortida);
+        System.out.println();
+
+        System.out.println("\nConsulta 4: Cerca de llibres per \"soledad\"");
+        System.out.println(Manager.cercarLlibres("soledad", 0, 10));
+
+        // 11. Mètriques de les operacions fetes
+        System.out.println("\n=== Mètriques ===");
+        System.out.println(Manager.getMetriques());
 
-        // 11. Tanquem la connexió
+        // 12. Tanquem la connexió
         System.out.println("\n=== Finalitzant el programa ===");
         Manager.close();
         System.out.println("Connexió tancada. Programa finalitzat.");
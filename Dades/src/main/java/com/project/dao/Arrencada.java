@@ -0,0 +1,115 @@
+package com.project.dao;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Temps de cada fase de l'última arrencada del Manager (createSessionFactory):
+ * les migracions de l'esquema, el registre de serveis, les metadades de les
+ * entitats i la construcció de la SessionFactory (de la principal i de la
+ * de lectura), la validació de l'esquema i la càrrega dels índexs en
+ * memòria. Les fases surten en l'ordre en què s'han fet.
+ */
+public final class Arrencada {
+
+    private static final class Fase {
+        private final String nom;
+        private long nanos;
+        private String detall;
+
+        private Fase(String nom) {
+            this.nom = nom;
+        }
+    }
+
+    private final List<Fase> fases = new ArrayList<>();
+
+    Arrencada() {}
+
+    /**
+     * Executa 'feina' i en suma el temps a la fase. Si la fase falla, el
+     * temps també hi compta.
+     */
+    synchronized <R> R mesurar(String nom, Supplier<R> feina) {
+        long inici = System.nanoTime();
+        try {
+            return feina.get();
+        } finally {
+            fase(nom).nanos += System.nanoTime() - inici;
+        }
+    }
+
+    void mesurarAccio(String nom, Runnable feina) {
+        mesurar(nom, () -> {
+            feina.run();
+            return null;
+        });
+    }
+
+    /**
+     * Afegeix una nota a la fase (per exemple, les migracions aplicades)
+     */
+    synchronized void detall(String nom, String detall) {
+        fase(nom).detall = detall;
+    }
+
+    private Fase fase(String nom) {
+        for (Fase fase : fases) {
+            if (fase.nom.equals(nom)) {
+                return fase;
+            }
+        }
+        Fase fase = new Fase(nom);
+        fases.add(fase);
+        return fase;
+    }
+
+    /**
+     * Nanosegons de la fase (0 si no s'ha fet)
+     */
+    public synchronized long getNanos(String nom) {
+        for (Fase fase : fases) {
+            if (fase.nom.equals(nom)) {
+                return fase.nanos;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Nanosegons de cada fase, en l'ordre en què s'han fet
+     */
+    public synchronized Map<String, Long> getFases() {
+        Map<String, Long> resultat = new LinkedHashMap<>();
+        for (Fase fase : fases) {
+            resultat.put(fase.nom, fase.nanos);
+        }
+        return resultat;
+    }
+
+    public synchronized long getTotalNanos() {
+        long total = 0;
+        for (Fase fase : fases) {
+            total += fase.nanos;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "Arrencada del Manager: %.1f ms%n",
+            getTotalNanos() / 1e6));
+        for (Fase fase : fases) {
+            sb.append(String.format(Locale.ROOT, "    %-36s %9.1f ms", fase.nom, fase.nanos / 1e6));
+            if (fase.detall != null) {
+                sb.append("  (").append(fase.detall).append(')');
+            }
+            sb.append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+}
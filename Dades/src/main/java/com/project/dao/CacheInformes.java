@@ -0,0 +1,259 @@
+package com.project.dao;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import com.project.domain.Autor;
+import com.project.domain.Biblioteca;
+import com.project.domain.Exemplar;
+import com.project.domain.Llibre;
+import com.project.domain.Persona;
+import com.project.domain.Prestec;
+
+/**
+ * Cache dels resultats dels informes del Manager (llibres amb autors, en
+ * préstec i amb biblioteques). Cada informe diu de quines entitats depèn:
+ * quan el Manager confirma un canvi d'una entitat, només s'invaliden els
+ * informes que la fan servir. Un préstec o un retorn només invalida el de
+ * llibres en préstec; un llibre nou o canviat, tots tres (hi surt el títol).
+ *
+ * Cada informe té un número de generació que s'incrementa a cada
+ * invalidació. Un resultat es desa amb la generació que hi havia abans de
+ * fer la consulta i només se serveix si encara és l'actual: si un canvi
+ * s'ha confirmat mentre es consultava, aquell resultat ja no es fa servir.
+ * Quan falta un informe, només un fil fa la consulta i els altres l'esperen.
+ *
+ * La mida total està limitada en files: un resultat que no hi cap no es
+ * desa (compta com a rebutjat). Les files es reserven al comptador comú
+ * abans de desar el resultat, de manera que dos informes que es carreguen
+ * alhora no poden passar junts del límit. Els canvis fets per fora del Manager no
+ * invaliden res; per a aquests hi ha Manager.evictCache().
+ */
+public class CacheInformes {
+
+    public enum Informe {
+        LLIBRES_AMB_AUTORS(Llibre.class, Autor.class),
+        LLIBRES_EN_PRESTEC(Llibre.class, Prestec.class, Persona.class),
+        LLIBRES_AMB_BIBLIOTEQUES(Llibre.class, Exemplar.class, Biblioteca.class);
+
+        private final Set<Class<?>> dependencies;
+
+        Informe(Class<?>... dependencies) {
+            this.dependencies = Set.of(dependencies);
+        }
+
+        public boolean depenDe(Class<?> entitat) {
+            return dependencies.contains(entitat);
+        }
+    }
+
+    private static final Informe[] INFORMES = Informe.values();
+
+    private record Resultat(long generacio, List<?> files) {}
+
+    private static final class Estat {
+        final AtomicLong generacio = new AtomicLong();
+        final AtomicReference<Resultat> resultat = new AtomicReference<>();
+        final ReentrantLock carrega = new ReentrantLock();
+        final AtomicLong encerts = new AtomicLong();
+        final AtomicLong errades = new AtomicLong();
+        final AtomicLong invalidacions = new AtomicLong();
+        final AtomicLong rebutjats = new AtomicLong();
+
+        // El resultat desat, si encara és de la generació actual
+        List<?> vigent() {
+            Resultat r = resultat.get();
+            return r != null && r.generacio() == generacio.get() ? r.files() : null;
+        }
+    }
+
+    private final int maxFiles;
+    // Files dels resultats desats, vigents o no, fins que es treuen
+    private final AtomicLong filesDesades = new AtomicLong();
+    private final Estat[] estats = new Estat[INFORMES.length];
+
+    /**
+     * Cache buida que com a molt guarda 'maxFiles' files entre tots els
+     * informes (0 la desactiva)
+     */
+    public CacheInformes(int maxFiles) {
+        this.maxFiles = Math.max(0, maxFiles);
+        for (int i = 0; i < estats.length; i++) {
+            estats[i] = new Estat();
+        }
+    }
+
+    /**
+     * El resultat de l'informe: el de la cache si és vigent, i si no el
+     * que torna 'consulta', que es desa si hi cap
+     */
+    @SuppressWarnings("unchecked")
+    <T> List<T> obtenir(Informe informe, Supplier<List<T>> consulta) {
+        Estat estat = estats[informe.ordinal()];
+        List<?> files = estat.vigent();
+        if (files != null) {
+            estat.encerts.incrementAndGet();
+            return (List<T>) files;
+        }
+        estat.carrega.lock();
+        try {
+            // Potser un altre fil l'ha carregat mentre esperàvem
+            files = estat.vigent();
+            if (files != null) {
+                estat.encerts.incrementAndGet();
+                return (List<T>) files;
+            }
+            estat.errades.incrementAndGet();
+            // El resultat antic ja no és vigent: les seves files queden lliures
+            alliberar(estat.resultat.getAndSet(null));
+            long generacio = estat.generacio.get();
+            List<T> nou = Collections.unmodifiableList(consulta.get());
+            if (maxFiles > 0 && reservar(nou.size())) {
+                Resultat resultat = new Resultat(generacio, nou);
+                alliberar(estat.resultat.getAndSet(resultat));
+                // Invalidat mentre es consultava: no es farà servir
+                if (estat.generacio.get() != generacio && estat.resultat.compareAndSet(resultat, null)) {
+                    alliberar(resultat);
+                }
+            } else {
+                estat.rebutjats.incrementAndGet();
+            }
+            return nou;
+        } finally {
+            estat.carrega.unlock();
+        }
+    }
+
+    /**
+     * El resultat de la cache si és vigent, sense consultar res; si no, null
+     */
+    @SuppressWarnings("unchecked")
+    <T> List<T> vigent(Informe informe) {
+        Estat estat = estats[informe.ordinal()];
+        List<?> files = estat.vigent();
+        if (files != null) {
+            estat.encerts.incrementAndGet();
+        }
+        return (List<T>) files;
+    }
+
+    /**
+     * S'ha confirmat un canvi d'entitats d'aquesta classe: invalida els
+     * informes que en depenen
+     */
+    void invalidar(Class<?> entitat) {
+        for (Informe informe : INFORMES) {
+            if (informe.depenDe(entitat)) {
+                Estat estat = estats[informe.ordinal()];
+                estat.generacio.incrementAndGet();
+                alliberar(estat.resultat.getAndSet(null));
+                estat.invalidacions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Invalida tots els informes
+     */
+    void buidar() {
+        for (Informe informe : INFORMES) {
+            Estat estat = estats[informe.ordinal()];
+            estat.generacio.incrementAndGet();
+            alliberar(estat.resultat.getAndSet(null));
+        }
+    }
+
+    // Reserva 'n' files si hi caben. Qui treu un resultat de la referència
+    // (getAndSet o compareAndSet) n'allibera les files, un sol cop.
+    private boolean reservar(int n) {
+        long desades;
+        do {
+            desades = filesDesades.get();
+            if (desades + n > maxFiles) {
+                return false;
+            }
+        } while (!filesDesades.compareAndSet(desades, desades + n));
+        return true;
+    }
+
+    private void alliberar(Resultat resultat) {
+        if (resultat != null) {
+            filesDesades.addAndGet(-resultat.files().size());
+        }
+    }
+
+    public int getMaxFiles() {
+        return maxFiles;
+    }
+
+    /**
+     * Files que hi ha ara a la cache, entre tots els informes
+     */
+    public int files() {
+        return (int) filesDesades.get();
+    }
+
+    public long encerts(Informe informe) {
+        return estats[informe.ordinal()].encerts.get();
+    }
+
+    /**
+     * Vegades que s'ha hagut de fer la consulta
+     */
+    public long errades(Informe informe) {
+        return estats[informe.ordinal()].errades.get();
+    }
+
+    public long invalidacions(Informe informe) {
+        return estats[informe.ordinal()].invalidacions.get();
+    }
+
+    /**
+     * Resultats que no s'han desat perquè no hi cabien
+     */
+    public long rebutjats(Informe informe) {
+        return estats[informe.ordinal()].rebutjats.get();
+    }
+
+    /**
+     * Fracció de les peticions de l'informe servides de la cache (0 si no
+     * n'hi ha hagut cap)
+     */
+    public double taxaEncerts(Informe informe) {
+        return taxa(encerts(informe), errades(informe));
+    }
+
+    public double taxaEncerts() {
+        long encerts = 0;
+        long errades = 0;
+        for (Informe informe : INFORMES) {
+            encerts += encerts(informe);
+            errades += errades(informe);
+        }
+        return taxa(encerts, errades);
+    }
+
+    private static double taxa(long encerts, long errades) {
+        return encerts + errades == 0 ? 0 : (double) encerts / (encerts + errades);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Cache d'informes: %d/%d files, encerts %.1f%%%n",
+            files(), maxFiles, taxaEncerts() * 100));
+        for (Informe informe : INFORMES) {
+            sb.append("    ").append(informe)
+              .append(": encerts=").append(encerts(informe))
+              .append(", errades=").append(errades(informe))
+              .append(", invalidacions=").append(invalidacions(informe))
+              .append(", rebutjats=").append(rebutjats(informe)).append("\n");
+        }
+        return sb.toString();
+    }
+}
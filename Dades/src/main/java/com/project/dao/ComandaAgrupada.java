@@ -0,0 +1,57 @@
+package com.project.dao;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+/**
+ * Una escriptura que es pot executar dins la transacció d'un grup
+ * (Manager.executarEnGrup): la feina que es fa amb la sessió, el que cal
+ * fer quan s'ha confirmat (índexs en memòria) i el resultat si falla.
+ * Amb particions, les comandes d'un grup es reparteixen per la partició on
+ * escriuen.
+ */
+final class ComandaAgrupada<T> {
+
+    private final SessionFactory particio;
+    private final Function<Session, T> feina;
+    private final Consumer<T> despres;
+    private final T siFalla;
+    private T resultat;
+    private boolean confirmada;
+
+    ComandaAgrupada(SessionFactory particio, Function<Session, T> feina, Consumer<T> despres, T siFalla) {
+        this.particio = particio;
+        this.feina = feina;
+        this.despres = despres;
+        this.siFalla = siFalla;
+    }
+
+    SessionFactory getParticio() {
+        return particio;
+    }
+
+    void executar(Session session) {
+        resultat = feina.apply(session);
+    }
+
+    void confirmar() {
+        confirmada = true;
+        despres.accept(resultat);
+    }
+
+    void fallar() {
+        confirmada = false;
+        resultat = siFalla;
+    }
+
+    boolean isConfirmada() {
+        return confirmada;
+    }
+
+    T getResultat() {
+        return resultat;
+    }
+}
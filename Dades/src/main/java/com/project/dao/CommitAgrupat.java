@@ -0,0 +1,42 @@
+package com.project.dao;
+
+import java.time.Duration;
+
+/**
+ * Com agrupa ManagerAsincron els préstecs i retorns en una sola
+ * transacció. El fil escriptor agafa la primera comanda de la cua i hi
+ * afegeix les que arribin durant 'finestra', fins a 'maxComandes'; amb
+ * finestra zero només s'hi afegeixen les que ja esperaven a la cua. Cada
+ * comanda té el seu resultat, i els futurs es completen després del commit.
+ *
+ * 'durabilitat' diu què vol dir que el commit s'ha fet:
+ * - WAL: com la resta d'escriptures (synchronous=NORMAL del pool). El canvi
+ *   sobreviu si cau el programa, però una caiguda del sistema pot perdre
+ *   els últims commits abans del següent checkpoint.
+ * - FSYNC: synchronous=FULL en el commit del grup, que no torna fins que el
+ *   WAL és al disc. Un fsync per grup en lloc d'un per préstec.
+ */
+public record CommitAgrupat(Duration finestra, int maxComandes, Durabilitat durabilitat) {
+
+    public enum Durabilitat {
+        WAL,
+        FSYNC
+    }
+
+    /**
+     * Cada préstec o retorn en la seva transacció
+     */
+    public static final CommitAgrupat DESACTIVAT = new CommitAgrupat(Duration.ZERO, 1, Durabilitat.WAL);
+
+    public CommitAgrupat {
+        if (finestra == null || finestra.isNegative()) {
+            throw new IllegalArgumentException("La finestra ha de ser zero o positiva: " + finestra);
+        }
+        if (maxComandes < 1) {
+            throw new IllegalArgumentException("El màxim de comandes ha de ser positiu: " + maxComandes);
+        }
+        if (durabilitat == null) {
+            throw new IllegalArgumentException("Falta la durabilitat");
+        }
+    }
+}
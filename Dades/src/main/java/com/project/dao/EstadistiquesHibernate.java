@@ -0,0 +1,151 @@
+package com.project.dao;
+
+import java.util.function.Supplier;
+
+import org.hibernate.stat.Statistics;
+
+/**
+ * Les Statistics de Hibernate com a MBean. Es llegeixen de la SessionFactory
+ * que hi hagi en cada moment (el Manager la pot tancar i tornar a crear);
+ * sense SessionFactory, o amb hibernate.generate_statistics=false, tot val 0.
+ */
+public class EstadistiquesHibernate implements EstadistiquesHibernateMBean {
+
+    private final String nom;
+    private final Supplier<Statistics> estadistiques;
+
+    EstadistiquesHibernate(String nom, Supplier<Statistics> estadistiques) {
+        this.nom = nom;
+        this.estadistiques = estadistiques;
+    }
+
+    private Statistics actuals() {
+        Statistics stats = estadistiques.get();
+        return stats != null && stats.isStatisticsEnabled() ? stats : null;
+    }
+
+    @Override
+    public boolean isActives() {
+        return actuals() != null;
+    }
+
+    @Override
+    public long getSessionsObertes() {
+        Statistics stats = actuals();
+        return stats == null ? 0 : stats.getSessionOpenCount();
+    }
+
+    @Override
+    public long getTransaccions() {
+        Statistics stats = actuals();
+        return stats == null ? 0 : stats.getTransactionCount();
+    }
+
+    @Override
+    public long getSentenciesPreparades() {
+        Statistics stats = actuals();
+        return stats == null ? 0 : stats.getPrepareStatementCount();
+    }
+
+    @Override
+    public long getConsultes() {
+        Statistics stats = actuals();
+        return stats == null ? 0 : stats.getQueryExecutionCount();
+    }
+
+    @Override
+    public long getConsultaMesLentaMs() {
+        Statistics stats = actuals();
+        return stats == null ? 0 : stats.getQueryExecutionMaxTime();
+    }
+
+    @Override
+    public String getConsultaMesLenta() {
+        Statistics stats = actuals();
+        return stats == null ? null : stats.getQueryExecutionMaxTimeQueryString();
+    }
+
+    @Override
+    public long getEntitatsCarregades() {
+        Statistics stats = actuals();
+        return stats == null ? 0 : stats.getEntityLoadCount();
+    }
+
+    @Override
+    public long getEntitatsInserides() {
+        Statistics stats = actuals();
+        return stats == null ? 0 : stats.getEntityInsertCount();
+    }
+
+    @Override
+    public long getEntitatsActualitzades() {
+        Statistics stats = actuals();
+        return stats == null ? 0 : stats.getEntityUpdateCount();
+    }
+
+    @Override
+    public long getEntitatsEsborrades() {
+        Statistics stats = actuals();
+        return stats == null ? 0 : stats.getEntityDeleteCount();
+    }
+
+    @Override
+    public long getColleccionsCarregades() {
+        Statistics stats = actuals();
+        return stats == null ? 0 : stats.getCollectionLoadCount();
+    }
+
+    @Override
+    public long getFlushes() {
+        Statistics stats = actuals();
+        return stats == null ? 0 : stats.getFlushCount();
+    }
+
+    @Override
+    public long getFalladesOptimistes() {
+        Statistics stats = actuals();
+        return stats == null ? 0 : stats.getOptimisticFailureCount();
+    }
+
+    @Override
+    public long getEncertsCacheL2() {
+        Statistics stats = actuals();
+        return stats == null ? 0 : stats.getSecondLevelCacheHitCount();
+    }
+
+    @Override
+    public long getErradesCacheL2() {
+        Statistics stats = actuals();
+        return stats == null ? 0 : stats.getSecondLevelCacheMissCount();
+    }
+
+    @Override
+    public long getEncertsCacheConsultes() {
+        Statistics stats = actuals();
+        return stats == null ? 0 : stats.getQueryCacheHitCount();
+    }
+
+    @Override
+    public long getErradesCacheConsultes() {
+        Statistics stats = actuals();
+        return stats == null ? 0 : stats.getQueryCacheMissCount();
+    }
+
+    @Override
+    public void reiniciar() {
+        Statistics stats = actuals();
+        if (stats != null) {
+            stats.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d sessions, %d transaccions, %d sentències, %d consultes "
+                + "(la més lenta %d ms), entitats %d carregades / %d inserides / %d actualitzades, "
+                + "%d col·leccions carregades, %d flushes, cache L2 %d encerts / %d errades",
+            nom, getSessionsObertes(), getTransaccions(), getSentenciesPreparades(), getConsultes(),
+            getConsultaMesLentaMs(), getEntitatsCarregades(), getEntitatsInserides(), getEntitatsActualitzades(),
+            getColleccionsCarregades(), getFlushes(), getEncertsCacheL2(), getErradesCacheL2());
+    }
+}
@@ -0,0 +1,46 @@
+package com.project.dao;
+
+/**
+ * Atributs JMX de les estadístiques de Hibernate (Statistics) de la
+ * SessionFactory del Manager
+ */
+public interface EstadistiquesHibernateMBean {
+
+    boolean isActives();
+
+    long getSessionsObertes();
+
+    long getTransaccions();
+
+    long getSentenciesPreparades();
+
+    long getConsultes();
+
+    long getConsultaMesLentaMs();
+
+    String getConsultaMesLenta();
+
+    long getEntitatsCarregades();
+
+    long getEntitatsInserides();
+
+    long getEntitatsActualitzades();
+
+    long getEntitatsEsborrades();
+
+    long getColleccionsCarregades();
+
+    long getFlushes();
+
+    long getFalladesOptimistes();
+
+    long getEncertsCacheL2();
+
+    long getErradesCacheL2();
+
+    long getEncertsCacheConsultes();
+
+    long getErradesCacheConsultes();
+
+    void reiniciar();
+}
@@ -0,0 +1,140 @@
+package com.project.dao;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latències (en nanosegons) amb cubs log-lineals, a la manera
+ * de HdrHistogram: cada potència de 2 es parteix en 32 cubs iguals, de
+ * manera que qualsevol valor es guarda amb un error relatiu de com a molt
+ * 1/32 (un 3%). Els valors per sota de 64 ns tenen cub propi i els de més
+ * de MAXIM_NANOS van a l'últim cub.
+ *
+ * Registrar un valor és un increment atòmic i una suma a un LongAdder, sense
+ * blocs ni reserves de memòria: es pot deixar actiu sempre. Les lectures
+ * (instantania) copien els cubs i poden no incloure els registres que
+ * s'estan fent en aquell moment.
+ */
+public class Histograma {
+
+    private static final int BITS = 5;
+    private static final int SUBCUBS = 1 << BITS;
+    private static final int MAX_DESPLACAMENT = 31;
+
+    /**
+     * Valor més gran que es distingeix (uns 137 segons)
+     */
+    public static final long MAXIM_NANOS = (2L * SUBCUBS << MAX_DESPLACAMENT) - 1;
+
+    private static final int CUBS = 2 * SUBCUBS + MAX_DESPLACAMENT * SUBCUBS;
+
+    private final AtomicLongArray cubs = new AtomicLongArray(CUBS);
+    private final LongAdder suma = new LongAdder();
+
+    public void registrar(long nanos) {
+        long valor = Math.min(Math.max(nanos, 0), MAXIM_NANOS);
+        cubs.incrementAndGet(cub(valor));
+        suma.add(valor);
+    }
+
+    static int cub(long valor) {
+        if (valor < 2 * SUBCUBS) {
+            return (int) valor;
+        }
+        int desplacament = 63 - Long.numberOfLeadingZeros(valor) - BITS;
+        return 2 * SUBCUBS + (desplacament - 1) * SUBCUBS + (int) ((valor >>> desplacament) - SUBCUBS);
+    }
+
+    // El valor més gran que va a parar al cub
+    static long maximCub(int cub) {
+        if (cub < 2 * SUBCUBS) {
+            return cub;
+        }
+        int desplacament = (cub - 2 * SUBCUBS) / SUBCUBS + 1;
+        long base = SUBCUBS + (cub - 2 * SUBCUBS) % SUBCUBS;
+        return ((base + 1) << desplacament) - 1;
+    }
+
+    public Instantania instantania() {
+        long[] copia = new long[CUBS];
+        for (int i = 0; i < CUBS; i++) {
+            copia[i] = cubs.get(i);
+        }
+        return new Instantania(copia, suma.sum());
+    }
+
+    /**
+     * Posa el histograma a zero. Els registres que es facin alhora poden
+     * quedar-hi o no.
+     */
+    public void reiniciar() {
+        for (int i = 0; i < CUBS; i++) {
+            cubs.set(i, 0);
+        }
+        suma.reset();
+    }
+
+    /**
+     * Còpia del histograma en un moment donat. Amb menys() se'n treu una
+     * d'anterior i queden només els valors registrats entre totes dues.
+     */
+    public static final class Instantania {
+        private final long[] cubs;
+        private final long suma;
+        private final long compte;
+
+        private Instantania(long[] cubs, long suma) {
+            this.cubs = cubs;
+            this.suma = suma;
+            long total = 0;
+            for (long n : cubs) {
+                total += n;
+            }
+            this.compte = total;
+        }
+
+        public long getCompte() {
+            return compte;
+        }
+
+        public double getMitjana() {
+            return compte == 0 ? 0 : (double) suma / compte;
+        }
+
+        /**
+         * Valor per sota del qual hi ha la fracció 'p' (entre 0 i 1) dels
+         * registres, arrodonit a l'alça al límit del seu cub. 0 si és buit.
+         */
+        public long percentil(double p) {
+            if (compte == 0) {
+                return 0;
+            }
+            long posicio = Math.max(1, (long) Math.ceil(p * compte));
+            long acumulat = 0;
+            for (int i = 0; i < cubs.length; i++) {
+                acumulat += cubs[i];
+                if (acumulat >= posicio) {
+                    return maximCub(i);
+                }
+            }
+            return getMaxim();
+        }
+
+        public long getMaxim() {
+            for (int i = cubs.length - 1; i >= 0; i--) {
+                if (cubs[i] > 0) {
+                    return maximCub(i);
+                }
+            }
+            return 0;
+        }
+
+        public Instantania menys(Instantania anterior) {
+            long[] diferencia = new long[cubs.length];
+            for (int i = 0; i < cubs.length; i++) {
+                diferencia[i] = Math.max(0, cubs[i] - anterior.cubs[i]);
+            }
+            return new Instantania(diferencia, Math.max(0, suma - anterior.suma));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.project.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Taula FTS5 per a la cerca de llibres pel títol, l'editorial i el nom
+ * dels autors. Té una fila per llibre (rowid = llibre_id), amb els noms de
+ * tots els seus autors en una sola columna.
+ *
+ * És "contentless": no guarda còpia del text, només l'índex. Els títols
+ * que es mostren surten de 'llibres'. Amb contentless_delete=1 (SQLite
+ * 3.43 o posterior) es poden esborrar i tornar a inserir files.
+ *
+ * Els accents i les majúscules no compten: "lopez" troba "López".
+ */
+final class IndexCerca {
+
+    static final String TAULA = "cerca_llibres";
+
+    private static final int MIDA_LOT = 500;
+
+    private static final String CREAR = "CREATE VIRTUAL TABLE IF NOT EXISTS " + TAULA
+        + " USING fts5(titol, editorial, autors, content='', contentless_delete=1,"
+        + " tokenize='unicode61 remove_diacritics 2')";
+
+    // Els autors del llibre, separats per espais
+    private static final String AUTORS = "(SELECT group_concat(a.nom, ' ') FROM autor_llibre al"
+        + " JOIN autors a ON a.autor_id = al.autor_id WHERE al.llibre_id = l.llibre_id)";
+
+    private static final String OMPLIR = "INSERT INTO " + TAULA + "(rowid, titol, editorial, autors)"
+        + " SELECT l.llibre_id, l.titol, l.editorial, " + AUTORS + " FROM llibres l";
+
+    private IndexCerca() {}
+
+    static boolean existeix(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM sqlite_schema WHERE name = ?")) {
+            ps.setString(1, TAULA);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * Torna a crear la taula i la omple amb tots els llibres.
+     * Torna el nombre de llibres indexats.
+     */
+    static int reconstruir(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DROP TABLE IF EXISTS " + TAULA);
+            stmt.executeUpdate(CREAR);
+            int llibres = stmt.executeUpdate(OMPLIR);
+            stmt.executeUpdate("INSERT INTO " + TAULA + "(" + TAULA + ") VALUES ('optimize')");
+            return llibres;
+        }
+    }
+
+    /**
+     * Torna a indexar aquests llibres amb el que hi ha ara a la base de
+     * dades. Els que ja no existeixen només se'n treuen.
+     */
+    static void reindexar(Connection conn, Collection<Long> llibreIds) throws SQLException {
+        for (List<Long> lot : lots(llibreIds)) {
+            String ids = marcadors(lot.size());
+            try (PreparedStatement esborrar = conn.prepareStatement(
+                    "DELETE FROM " + TAULA + " WHERE rowid IN (" + ids + ")");
+                 PreparedStatement inserir = conn.prepareStatement(
+                    OMPLIR + " WHERE l.llibre_id IN (" + ids + ")")) {
+                assignar(esborrar, lot);
+                esborrar.executeUpdate();
+                assignar(inserir, lot);
+                inserir.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Llibres dels autors, segons la taula autor_llibre
+     */
+    static Set<Long> llibresDAutors(Connection conn, Collection<Long> autorIds) throws SQLException {
+        Set<Long> llibres = new LinkedHashSet<>();
+        for (List<Long> lot : lots(autorIds)) {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT DISTINCT llibre_id FROM autor_llibre WHERE autor_id IN (" + marcadors(lot.size()) + ")")) {
+                assignar(ps, lot);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        llibres.add(rs.getLong(1));
+                    }
+                }
+            }
+        }
+        return llibres;
+    }
+
+    /**
+     * Converteix el text que escriu l'usuari en una consulta FTS5: cada
+     * paraula és un prefix i s'han de trobar totes ("don quix" troba
+     * "Don Quixot"). Els operadors i les cometes de FTS5 no es fan servir.
+     * Torna null si no hi ha cap paraula.
+     */
+    static String consulta(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder consulta = new StringBuilder();
+        int i = 0;
+        while (i < text.length()) {
+            int cp = text.codePointAt(i);
+            if (!Character.isLetterOrDigit(cp)) {
+                i += Character.charCount(cp);
+                continue;
+            }
+            int inici = i;
+            while (i < text.length() && Character.isLetterOrDigit(text.codePointAt(i))) {
+                i += Character.charCount(text.codePointAt(i));
+            }
+            if (consulta.length() > 0) {
+                consulta.append(' ');
+            }
+            consulta.append('"').append(text, inici, i).append("\"*");
+        }
+        return consulta.length() == 0 ? null : consulta.toString();
+    }
+
+    private static List<List<Long>> lots(Collection<Long> ids) {
+        List<List<Long>> lots = new ArrayList<>();
+        Iterator<Long> it = ids.iterator();
+        while (it.hasNext()) {
+            List<Long> lot = new ArrayList<>(Math.min(MIDA_LOT, ids.size()));
+            while (it.hasNext() && lot.size() < MIDA_LOT) {
+                lot.add(it.next());
+            }
+            lots.add(lot);
+        }
+        return lots;
+    }
+
+    private static String marcadors(int n) {
+        StringBuilder sb = new StringBuilder(n * 2);
+        for (int i = 0; i < n; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+
+    private static void assignar(PreparedStatement ps, List<Long> ids) throws SQLException {
+        for (int i = 0; i < ids.size(); i++) {
+            ps.setLong(i + 1, ids.get(i));
+        }
+    }
+}
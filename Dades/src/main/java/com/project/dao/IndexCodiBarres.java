@@ -0,0 +1,518 @@
+package com.project.dao;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Índex dels codis de barres dels exemplars fora del heap: del codi a l'id
+ * de l'exemplar i si és disponible, per als mostradors de préstec, que
+ * resolen cada lectura de codi sense passar per Hibernate ni SQLite.
+ *
+ * És una taula de hash d'adreçament obert (sondeig lineal) dins un fitxer
+ * mapat a memòria, al costat de la base de dades (database.db ->
+ * database-codis.idx.1), que es conserva d'una arrencada a l'altra. Cada
+ * entrada ocupa 32 bytes: l'estat (llargada del codi i disponibilitat),
+ * el codi en ISO-8859-1 (fins a 20 caràcters, com la columna) i l'id de
+ * l'exemplar. La taula es fa el doble de gran quan s'omple més d'un 70%.
+ * Amb 4 milions d'exemplars són 256 MiB de fitxer, i res al heap.
+ *
+ * Cada taula nova va a un fitxer nou, amb el número següent
+ * (database-codis.idx.2...), i no se'n substitueix cap: el de l'anterior
+ * encara és mapat (hi pot haver lectures en curs), i a Windows no es pot
+ * esborrar ni reemplaçar fins que no es desmapa. Els fitxers anteriors
+ * s'esborren quan es pot, i si no, a la propera arrencada. Només compta
+ * el del número més alt, i es marca com a obert abans d'omplir-lo: si el
+ * procés cau a mitja còpia, a la propera arrencada es refà.
+ *
+ * Les lectures no bloquegen ni creen cap objecte. Les escriptures es
+ * serialitzen: l'estat de cada entrada s'escriu l'últim (setRelease) i es
+ * llegeix el primer (getAcquire), de manera que una lectura mai veu un
+ * codi a mig escriure. Els exemplars no s'esborren mai de l'índex.
+ *
+ * El Manager hi afegeix els exemplars nous (addExemplar(s)) i hi canvia la
+ * disponibilitat després de cada préstec i retorn, la mateixa que té
+ * l'IndexDisponibilitat. A l'arrencada (vegeu obrir), si el fitxer no es va
+ * tancar bé o no quadra amb la base de dades es torna a fer sencer; si no,
+ * només s'hi afegeixen els exemplars nous.
+ */
+public final class IndexCodiBarres implements AutoCloseable {
+
+    /** Llargada màxima d'un codi de barres (la de la columna codiBarres) */
+    public static final int MAX_CODI = 20;
+
+    private static final long MAGIC = 0x434f444953494458L; // "CODISIDX"
+    private static final int FORMAT = 1;
+
+    // Capçalera: magic, format, capacitat, mida, obert, id màxim, ignorats
+    private static final int CAPCALERA = 64;
+    private static final int POS_FORMAT = 8;
+    private static final int POS_CAPACITAT = 12;
+    private static final int POS_MIDA = 16;
+    private static final int POS_OBERT = 20;
+    private static final int POS_ID_MAXIM = 24;
+    private static final int POS_IGNORATS = 32;
+
+    // Entrada: estat (int), codi (20 bytes), id de l'exemplar (long)
+    private static final int ENTRADA = 32;
+    private static final int POS_CODI = 4;
+    private static final int POS_ID = 24;
+    private static final int DISPONIBLE = 0x100;
+    private static final int LLARGADA = 0xff;
+
+    private static final long FNV_BASE = 0xcbf29ce484222325L;
+    private static final long FNV_PRIMER = 0x100000001b3L;
+
+    private static final int CAPACITAT_MINIMA = 1024;
+    private static final int CAPACITAT_MAXIMA = 1 << 25;
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class,
+        ByteOrder.nativeOrder());
+
+    // El nom base: les taules són fitxer.1, fitxer.2...
+    private final Path fitxer;
+    private volatile Taula taula;
+    private volatile int mida;
+    private long idMaxim;
+    // Exemplars amb un codi que no és indexable
+    private int ignorats;
+
+    private static final class Taula {
+        final MappedByteBuffer buffer;
+        final int capacitat;
+        final int mascara;
+        final int generacio;
+
+        Taula(MappedByteBuffer buffer, int capacitat, int generacio) {
+            this.buffer = buffer;
+            this.capacitat = capacitat;
+            this.mascara = capacitat - 1;
+            this.generacio = generacio;
+        }
+    }
+
+    private IndexCodiBarres(Path fitxer, Taula taula) {
+        this.fitxer = fitxer;
+        this.taula = taula;
+        this.mida = taula.buffer.getInt(POS_MIDA);
+        this.idMaxim = taula.buffer.getLong(POS_ID_MAXIM);
+        this.ignorats = taula.buffer.getInt(POS_IGNORATS);
+    }
+
+    /**
+     * Obre l'índex del fitxer si n'hi ha un de vàlid que es va tancar bé.
+     * Si no, torna null i el Manager en fa un de nou (vegeu crear).
+     */
+    static IndexCodiBarres obrir(Path fitxer) {
+        int generacio;
+        try {
+            generacio = darreraGeneracio(fitxer);
+        } catch (IOException e) {
+            return null;
+        }
+        Path actual = fitxerGeneracio(fitxer, generacio);
+        if (generacio == 0 || !Files.isRegularFile(actual)) {
+            return null;
+        }
+        try (FileChannel canal = FileChannel.open(actual, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long llargada = canal.size();
+            if (llargada < CAPCALERA) {
+                return null;
+            }
+            MappedByteBuffer capcalera = canal.map(FileChannel.MapMode.READ_ONLY, 0, CAPCALERA);
+            capcalera.order(ByteOrder.nativeOrder());
+            int capacitat = capcalera.getInt(POS_CAPACITAT);
+            if (capcalera.getLong(0) != MAGIC || capcalera.getInt(POS_FORMAT) != FORMAT
+                    || capcalera.getInt(POS_OBERT) != 0 || Integer.bitCount(capacitat) != 1
+                    || capacitat > CAPACITAT_MAXIMA || llargada != CAPCALERA + (long) capacitat * ENTRADA) {
+                return null;
+            }
+            IndexCodiBarres index = new IndexCodiBarres(fitxer,
+                new Taula(mapar(canal, capacitat), capacitat, generacio));
+            index.marcarObert(1);
+            esborrarAnteriors(fitxer, generacio);
+            return index;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Crea un índex buit per a 'exemplars' exemplars, en un fitxer amb el
+     * número següent al de l'últim que hi hagués
+     */
+    static IndexCodiBarres crear(Path fitxer, long exemplars) {
+        int generacio;
+        try {
+            generacio = darreraGeneracio(fitxer) + 1;
+        } catch (IOException e) {
+            throw new UncheckedIOException("No s'ha pogut crear l'índex de codis de barres " + fitxer, e);
+        }
+        IndexCodiBarres index = new IndexCodiBarres(fitxer, crearTaula(fitxer, generacio, capacitat(exemplars)));
+        esborrarAnteriors(fitxer, generacio);
+        return index;
+    }
+
+    private static int capacitat(long exemplars) {
+        long necessaria = exemplars * 10 / 7 + 1;
+        if (necessaria > CAPACITAT_MAXIMA) {
+            throw new IllegalArgumentException("Massa exemplars per a l'índex de codis de barres: " + exemplars);
+        }
+        return Math.max(CAPACITAT_MINIMA, Integer.highestOneBit((int) necessaria - 1) << 1);
+    }
+
+    // Ja marcada com a oberta al disc: fins que es tanqui bé, obrir no l'accepta
+    private static Taula crearTaula(Path fitxer, int generacio, int capacitat) {
+        Path nou = fitxerGeneracio(fitxer, generacio);
+        try (FileChannel canal = FileChannel.open(nou, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = mapar(canal, capacitat);
+            buffer.putLong(0, MAGIC);
+            buffer.putInt(POS_FORMAT, FORMAT);
+            buffer.putInt(POS_CAPACITAT, capacitat);
+            buffer.putInt(POS_OBERT, 1);
+            buffer.force(0, CAPCALERA);
+            return new Taula(buffer, capacitat, generacio);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No s'ha pogut crear l'índex de codis de barres " + nou, e);
+        }
+    }
+
+    // database-codis.idx -> database-codis.idx.3
+    private static Path fitxerGeneracio(Path fitxer, int generacio) {
+        return fitxer.resolveSibling(fitxer.getFileName() + "." + generacio);
+    }
+
+    // El número més alt dels fitxers de l'índex, o 0 si no n'hi ha cap
+    private static int darreraGeneracio(Path fitxer) throws IOException {
+        int darrera = 0;
+        for (int generacio : generacions(fitxer)) {
+            darrera = Math.max(darrera, generacio);
+        }
+        return darrera;
+    }
+
+    private static List<Integer> generacions(Path fitxer) throws IOException {
+        List<Integer> generacions = new ArrayList<>();
+        Path directori = fitxer.toAbsolutePath().getParent();
+        if (!Files.isDirectory(directori)) {
+            return generacions;
+        }
+        String prefix = fitxer.getFileName() + ".";
+        try (DirectoryStream<Path> fitxers = Files.newDirectoryStream(directori,
+                candidat -> candidat.getFileName().toString().startsWith(prefix))) {
+            for (Path candidat : fitxers) {
+                String sufix = candidat.getFileName().toString().substring(prefix.length());
+                if (!sufix.isEmpty() && sufix.length() < 10 && sufix.chars().allMatch(Character::isDigit)) {
+                    generacions.add(Integer.parseInt(sufix));
+                }
+            }
+        }
+        return generacions;
+    }
+
+    // Els que no es poden esborrar (a Windows, els que encara són mapats)
+    // es tornen a provar la propera vegada
+    private static void esborrarAnteriors(Path fitxer, int generacio) {
+        List<Integer> generacions;
+        try {
+            generacions = generacions(fitxer);
+        } catch (IOException e) {
+            return;
+        }
+        List<Path> anteriors = new ArrayList<>();
+        // El fitxer sense número és el de quan l'índex se substituïa
+        anteriors.add(fitxer);
+        for (int anterior : generacions) {
+            if (anterior < generacio) {
+                anteriors.add(fitxerGeneracio(fitxer, anterior));
+            }
+        }
+        for (Path anterior : anteriors) {
+            try {
+                Files.deleteIfExists(anterior);
+            } catch (IOException e) {
+                // Encara és mapat
+            }
+        }
+    }
+
+    // El mapatge continua vàlid un cop tancat el canal
+    private static MappedByteBuffer mapar(FileChannel canal, int capacitat) throws IOException {
+        MappedByteBuffer buffer = canal.map(FileChannel.MapMode.READ_WRITE, 0, CAPCALERA + (long) capacitat * ENTRADA);
+        buffer.order(ByteOrder.nativeOrder());
+        return buffer;
+    }
+
+    // 1 mentre és obert: si el procés cau, a la propera arrencada es refà
+    private void marcarObert(int obert) {
+        taula.buffer.putInt(POS_OBERT, obert);
+        taula.buffer.force(0, CAPCALERA);
+    }
+
+    /**
+     * Si el codi es pot guardar a l'índex: d'1 a 20 caràcters ISO-8859-1.
+     * Els altres codis no hi són mai, i s'han de buscar a la base de dades.
+     */
+    public static boolean isIndexable(CharSequence codiBarres) {
+        int llargada = codiBarres.length();
+        if (llargada == 0 || llargada > MAX_CODI) {
+            return false;
+        }
+        for (int i = 0; i < llargada; i++) {
+            if (codiBarres.charAt(i) > 0xff) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // FNV-1a amb la barreja final de MurmurHash3
+    private static int hash(CharSequence codiBarres) {
+        long h = FNV_BASE;
+        for (int i = 0; i < codiBarres.length(); i++) {
+            h = (h ^ codiBarres.charAt(i)) * FNV_PRIMER;
+        }
+        return barrejar(h);
+    }
+
+    // El mateix hash, del codi ja guardat en una entrada (un byte per caràcter)
+    private static int hash(Taula t, int posicio, int llargada) {
+        long h = FNV_BASE;
+        for (int i = 0; i < llargada; i++) {
+            h = (h ^ (t.buffer.get(posicio + i) & 0xff)) * FNV_PRIMER;
+        }
+        return barrejar(h);
+    }
+
+    private static int barrejar(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static int posicio(int entrada) {
+        return CAPCALERA + entrada * ENTRADA;
+    }
+
+    // L'entrada del codi o, si no hi és, la primera buida on aniria
+    private static int entrada(Taula t, CharSequence codiBarres, int llargada) {
+        int entrada = hash(codiBarres) & t.mascara;
+        while (true) {
+            int estat = (int) INT.getAcquire(t.buffer, posicio(entrada));
+            if (estat == 0 || ((estat & LLARGADA) == llargada && igual(t, entrada, codiBarres, llargada))) {
+                return entrada;
+            }
+            entrada = (entrada + 1) & t.mascara;
+        }
+    }
+
+    private static boolean igual(Taula t, int entrada, CharSequence codiBarres, int llargada) {
+        int posicio = posicio(entrada) + POS_CODI;
+        for (int i = 0; i < llargada; i++) {
+            if ((t.buffer.get(posicio + i) & 0xff) != codiBarres.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * L'exemplar del codi de barres, amb la disponibilitat al bit baix:
+     * (exemplarId << 1) | 1 si és disponible. Torna -1 si el codi no és a
+     * l'índex. No crea cap objecte; vegeu exemplarId(long) i disponible(long).
+     */
+    public long buscar(CharSequence codiBarres) {
+        if (!isIndexable(codiBarres)) {
+            return -1;
+        }
+        Taula t = taula;
+        int entrada = entrada(t, codiBarres, codiBarres.length());
+        int estat = (int) INT.getAcquire(t.buffer, posicio(entrada));
+        if (estat == 0) {
+            return -1;
+        }
+        return t.buffer.getLong(posicio(entrada) + POS_ID) << 1 | ((estat & DISPONIBLE) != 0 ? 1 : 0);
+    }
+
+    /**
+     * L'id de l'exemplar d'un resultat de buscar
+     */
+    public static long exemplarId(long resultat) {
+        return resultat < 0 ? -1 : resultat >>> 1;
+    }
+
+    /**
+     * Si l'exemplar d'un resultat de buscar és disponible
+     */
+    public static boolean disponible(long resultat) {
+        return resultat >= 0 && (resultat & 1) != 0;
+    }
+
+    /**
+     * Id de l'exemplar del codi de barres, o -1 si no és a l'índex
+     */
+    public long exemplarId(CharSequence codiBarres) {
+        return exemplarId(buscar(codiBarres));
+    }
+
+    /**
+     * Afegeix el codi d'un exemplar nou o, si ja hi era, n'actualitza l'id
+     * i la disponibilitat. Els codis que no són indexables només es compten.
+     */
+    synchronized void afegir(CharSequence codiBarres, long exemplarId, boolean disponible) {
+        if (exemplarId > idMaxim) {
+            idMaxim = exemplarId;
+            taula.buffer.putLong(POS_ID_MAXIM, idMaxim);
+        }
+        if (!isIndexable(codiBarres)) {
+            ignorats++;
+            taula.buffer.putInt(POS_IGNORATS, ignorats);
+            return;
+        }
+        if ((mida + 1) * 10L > taula.capacitat * 7L) {
+            creixer(taula.capacitat * 2);
+        }
+        Taula t = taula;
+        int llargada = codiBarres.length();
+        int entrada = entrada(t, codiBarres, llargada);
+        int posicio = posicio(entrada);
+        boolean nou = (int) INT.getAcquire(t.buffer, posicio) == 0;
+        for (int i = 0; i < llargada; i++) {
+            t.buffer.put(posicio + POS_CODI + i, (byte) codiBarres.charAt(i));
+        }
+        t.buffer.putLong(posicio + POS_ID, exemplarId);
+        INT.setRelease(t.buffer, posicio, llargada | (disponible ? DISPONIBLE : 0));
+        if (nou) {
+            mida++;
+            t.buffer.putInt(POS_MIDA, mida);
+        }
+    }
+
+    /**
+     * Canvia la disponibilitat del codi, si és a l'índex
+     */
+    synchronized void actualitzar(CharSequence codiBarres, boolean disponible) {
+        if (!isIndexable(codiBarres)) {
+            return;
+        }
+        Taula t = taula;
+        int posicio = posicio(entrada(t, codiBarres, codiBarres.length()));
+        int estat = (int) INT.getAcquire(t.buffer, posicio);
+        if (estat != 0) {
+            INT.setRelease(t.buffer, posicio, (estat & LLARGADA) | (disponible ? DISPONIBLE : 0));
+        }
+    }
+
+    /**
+     * Posa la disponibilitat del codi igual que la de l'exemplar a
+     * 'disponibilitat'. Es llegeix amb el bloqueig d'escriptura agafat:
+     * si dos canvis del mateix exemplar arriben desordenats, l'últim a
+     * escriure llegeix l'estat que ha quedat, no el del seu canvi. Els
+     * exemplars que no hi poden ser prenen 'disponible', el del canvi.
+     */
+    synchronized void sincronitzar(CharSequence codiBarres, long exemplarId, boolean disponible,
+            IndexDisponibilitat disponibilitat) {
+        actualitzar(codiBarres, IndexDisponibilitat.isIndexable(exemplarId)
+            ? disponibilitat.isDisponible(exemplarId) : disponible);
+    }
+
+    /**
+     * Recorre totes les entrades i en posa la disponibilitat igual que la
+     * de 'disponibilitat' (que a l'arrencada es llegeix de la base de dades).
+     * Els exemplars que no hi poden ser es queden com estaven.
+     */
+    synchronized void sincronitzar(IndexDisponibilitat disponibilitat) {
+        Taula t = taula;
+        for (int entrada = 0; entrada < t.capacitat; entrada++) {
+            int posicio = posicio(entrada);
+            int estat = (int) INT.getAcquire(t.buffer, posicio);
+            long exemplarId = t.buffer.getLong(posicio + POS_ID);
+            if (estat != 0 && IndexDisponibilitat.isIndexable(exemplarId)) {
+                boolean disponible = disponibilitat.isDisponible(exemplarId);
+                if (disponible != ((estat & DISPONIBLE) != 0)) {
+                    INT.setRelease(t.buffer, posicio, (estat & LLARGADA) | (disponible ? DISPONIBLE : 0));
+                }
+            }
+        }
+    }
+
+    // Copia totes les entrades a una taula nova de 'capacitat' entrades.
+    // Els codis ja són diferents: cadascun va a la primera entrada buida
+    private void creixer(int capacitat) {
+        if (capacitat > CAPACITAT_MAXIMA) {
+            throw new IllegalStateException("L'índex de codis de barres és ple: " + mida + " exemplars");
+        }
+        Taula anterior = taula;
+        Taula nova = crearTaula(fitxer, anterior.generacio + 1, capacitat);
+        for (int entrada = 0; entrada < anterior.capacitat; entrada++) {
+            int origen = posicio(entrada);
+            int estat = anterior.buffer.getInt(origen);
+            if (estat == 0) {
+                continue;
+            }
+            int llargada = estat & LLARGADA;
+            int desti = hash(anterior, origen + POS_CODI, llargada) & nova.mascara;
+            while (nova.buffer.getInt(posicio(desti)) != 0) {
+                desti = (desti + 1) & nova.mascara;
+            }
+            nova.buffer.put(posicio(desti), anterior.buffer, origen, ENTRADA);
+        }
+        nova.buffer.putInt(POS_MIDA, mida);
+        nova.buffer.putLong(POS_ID_MAXIM, idMaxim);
+        nova.buffer.putInt(POS_IGNORATS, ignorats);
+        nova.buffer.force();
+        taula = nova;
+        esborrarAnteriors(fitxer, nova.generacio);
+    }
+
+    /**
+     * Nombre de codis a l'índex
+     */
+    public int mida() {
+        return mida;
+    }
+
+    /**
+     * Exemplars que s'hi han afegit, amb els de codis no indexables: a
+     * l'arrencada, han de ser tants com a la base de dades
+     */
+    synchronized long getExemplars() {
+        return (long) mida + ignorats;
+    }
+
+    /**
+     * L'id més gran que s'hi ha afegit: a l'arrencada, els exemplars amb
+     * un id més gran s'hi han d'afegir
+     */
+    synchronized long getIdMaxim() {
+        return idMaxim;
+    }
+
+    /**
+     * El fitxer de la taula d'ara
+     */
+    public Path getFitxer() {
+        return fitxerGeneracio(fitxer, taula.generacio);
+    }
+
+    /**
+     * Escriu l'índex al disc i el marca com a tancat bé
+     */
+    @Override
+    public synchronized void close() {
+        taula.buffer.force();
+        marcarObert(0);
+    }
+}
@@ -0,0 +1,310 @@
+package com.project.dao;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Índex en memòria de la disponibilitat dels exemplars, agrupat per
+ * Llibre i Biblioteca. Respon "quines biblioteques tenen un exemplar lliure
+ * d'aquest llibre?" sense anar a SQLite.
+ *
+ * Els ids dels exemplars i dels llibres són consecutius (@IdIncremental;
+ * només hi queden forats dels blocs que no s'han acabat de fer servir),
+ * així que tot va en taules indexades per id: un bitset amb els exemplars
+ * disponibles, la biblioteca i la versió de cada exemplar, i per a cada
+ * llibre la llista dels seus exemplars. Per a 200.000 exemplars són uns
+ * pocs MiB.
+ *
+ * Els ids que no hi caben (isIndexable: a partir d'Integer.MAX_VALUE - 64,
+ * que només surten d'importacions o d'SQL directe) no s'hi guarden i només
+ * es compten. Com amb els codis no indexables d'IndexCodiBarres, aquests
+ * exemplars s'han de buscar a la base de dades, i també els dels llibres
+ * que en tenen algun (isComplet).
+ *
+ * Les lectures no bloquegen. Les escriptures es serialitzen amb un bloqueig
+ * per franja d'ids (un mateix word del bitset sempre cau a la mateixa
+ * franja); només quan cal fer créixer les taules s'aturen totes un moment.
+ *
+ * Per cada exemplar també es guarda la versió (@Version) amb què s'ha vist:
+ * si dos canvis del mateix exemplar arriben desordenats, el més antic
+ * s'ignora. Els canvis fets a la base de dades per fora del Manager no es
+ * veuen fins que es torna a carregar l'índex.
+ */
+public class IndexDisponibilitat {
+
+    private static final int FRANGES = 64;
+    private static final int CAPACITAT_INICIAL = 1024;
+    private static final int ID_MAXIM = Integer.MAX_VALUE - 64;
+    private static final long[] BUIT = new long[0];
+
+    private final Object[] franges = new Object[FRANGES];
+    // Les escriptures agafen el bloqueig de lectura (compartit entre elles)
+    // i el creixement de les taules, el d'escriptura
+    private final ReadWriteLock creixement = new ReentrantReadWriteLock();
+    private final AtomicInteger mida = new AtomicInteger();
+    private final AtomicInteger ignorats = new AtomicInteger();
+    // Llibres amb algun exemplar que no és a l'índex
+    private final Set<Long> incomplets = ConcurrentHashMap.newKeySet();
+    private volatile Taules taules = new Taules(CAPACITAT_INICIAL, CAPACITAT_INICIAL);
+
+    public IndexDisponibilitat() {
+        for (int i = 0; i < FRANGES; i++) {
+            franges[i] = new Object();
+        }
+    }
+
+    private static final class Taules {
+        // Un bit per exemplar: si és disponible
+        final AtomicLongArray disponibles;
+        // Per exemplar: versió + 1 (0 vol dir que no és a l'índex)
+        final long[] versions;
+        final long[] biblioteques;
+        // Per llibre: ids dels seus exemplars (es copia en afegir-n'hi un)
+        final AtomicReferenceArray<long[]> perLlibre;
+
+        Taules(int exemplars, int llibres) {
+            disponibles = new AtomicLongArray((exemplars + 63) >>> 6);
+            versions = new long[exemplars];
+            biblioteques = new long[exemplars];
+            perLlibre = new AtomicReferenceArray<>(llibres);
+        }
+
+        Taules(Taules anterior, int exemplars, int llibres) {
+            this(exemplars, llibres);
+            for (int i = 0; i < anterior.disponibles.length(); i++) {
+                disponibles.set(i, anterior.disponibles.get(i));
+            }
+            System.arraycopy(anterior.versions, 0, versions, 0, anterior.versions.length);
+            System.arraycopy(anterior.biblioteques, 0, biblioteques, 0, anterior.biblioteques.length);
+            for (int i = 0; i < anterior.perLlibre.length(); i++) {
+                perLlibre.set(i, anterior.perLlibre.get(i));
+            }
+        }
+
+        boolean disponible(long exemplarId) {
+            int id = (int) exemplarId;
+            return (disponibles.get(id >>> 6) & (1L << id)) != 0;
+        }
+
+        long[] exemplars(long llibreId) {
+            long[] exemplars = llibreId >= 0 && llibreId < perLlibre.length() ? perLlibre.get((int) llibreId) : null;
+            return exemplars == null ? BUIT : exemplars;
+        }
+    }
+
+    private Object franja(long id) {
+        return franges[(int) ((id >>> 6) & (FRANGES - 1))];
+    }
+
+    /**
+     * Si l'id (d'exemplar o de llibre) pot ser a l'índex
+     */
+    public static boolean isIndexable(long id) {
+        return id >= 0 && id < ID_MAXIM;
+    }
+
+    /**
+     * Afegeix un exemplar nou a l'índex. Si ja hi era, només se n'actualitza
+     * la disponibilitat. Torna false si els ids no hi caben (isIndexable):
+     * llavors l'exemplar només es compta.
+     */
+    boolean afegir(long exemplarId, long llibreId, long bibliotecaId, boolean disponible, long versio) {
+        if (!isIndexable(exemplarId) || !isIndexable(llibreId)) {
+            incomplets.add(llibreId);
+            ignorats.incrementAndGet();
+            return false;
+        }
+        assegurarCapacitat(exemplarId, llibreId);
+        creixement.readLock().lock();
+        try {
+            Taules t = taules;
+            synchronized (franja(exemplarId)) {
+                if (t.versions[(int) exemplarId] != 0) {
+                    canviar(t, exemplarId, disponible, versio);
+                    return true;
+                }
+                t.versions[(int) exemplarId] = versio + 1;
+                t.biblioteques[(int) exemplarId] = bibliotecaId;
+                marcar(t, exemplarId, disponible);
+            }
+            // La biblioteca ja és escrita quan l'exemplar apareix a la llista del llibre
+            synchronized (franja(llibreId)) {
+                long[] anteriors = t.exemplars(llibreId);
+                long[] exemplars = Arrays.copyOf(anteriors, anteriors.length + 1);
+                exemplars[anteriors.length] = exemplarId;
+                t.perLlibre.set((int) llibreId, exemplars);
+            }
+            mida.incrementAndGet();
+            return true;
+        } finally {
+            creixement.readLock().unlock();
+        }
+    }
+
+    /**
+     * Canvia la disponibilitat d'un exemplar si 'versio' és més nova que la
+     * que ja té l'índex. Torna false si l'exemplar no hi és o el canvi és antic.
+     */
+    boolean actualitzar(long exemplarId, boolean disponible, long versio) {
+        creixement.readLock().lock();
+        try {
+            Taules t = taules;
+            if (exemplarId < 0 || exemplarId >= t.versions.length) {
+                return false;
+            }
+            synchronized (franja(exemplarId)) {
+                return canviar(t, exemplarId, disponible, versio);
+            }
+        } finally {
+            creixement.readLock().unlock();
+        }
+    }
+
+    private static boolean canviar(Taules t, long exemplarId, boolean disponible, long versio) {
+        long vista = t.versions[(int) exemplarId];
+        if (vista == 0 || versio + 1 <= vista) {
+            return false;
+        }
+        t.versions[(int) exemplarId] = versio + 1;
+        marcar(t, exemplarId, disponible);
+        return true;
+    }
+
+    // Cal tenir la franja de l'exemplar: cap altre fil no escriu aquest word
+    private static void marcar(Taules t, long exemplarId, boolean disponible) {
+        int id = (int) exemplarId;
+        long word = t.disponibles.get(id >>> 6);
+        t.disponibles.set(id >>> 6, disponible ? word | (1L << id) : word & ~(1L << id));
+    }
+
+    private void assegurarCapacitat(long exemplarId, long llibreId) {
+        Taules t = taules;
+        if (exemplarId < t.versions.length && llibreId < t.perLlibre.length()) {
+            return;
+        }
+        creixement.writeLock().lock();
+        try {
+            t = taules;
+            int exemplars = capacitat(t.versions.length, exemplarId);
+            int llibres = capacitat(t.perLlibre.length(), llibreId);
+            if (exemplars != t.versions.length || llibres != t.perLlibre.length()) {
+                taules = new Taules(t, exemplars, llibres);
+            }
+        } finally {
+            creixement.writeLock().unlock();
+        }
+    }
+
+    private static int capacitat(int actual, long id) {
+        if (id < actual) {
+            return actual;
+        }
+        return (int) Math.min(ID_MAXIM, Math.max(id + 1, actual + (actual >> 1)));
+    }
+
+    /**
+     * Si l'exemplar és disponible. Els exemplars desconeguts no ho són,
+     * tampoc els que no hi caben (vegeu isIndexable).
+     */
+    public boolean isDisponible(long exemplarId) {
+        Taules t = taules;
+        return exemplarId >= 0 && exemplarId < t.versions.length && t.disponible(exemplarId);
+    }
+
+    /**
+     * Biblioteca de l'exemplar, o -1 si l'exemplar no és a l'índex
+     */
+    long biblioteca(long exemplarId) {
+        Taules t = taules;
+        long bibliotecaId = exemplarId >= 0 && exemplarId < t.biblioteques.length
+            ? t.biblioteques[(int) exemplarId] : 0;
+        return bibliotecaId == 0 ? -1 : bibliotecaId;
+    }
+
+    /**
+     * Si l'índex té tots els exemplars del llibre. Si no, les respostes per
+     * llibre (bibliotequesAmbDisponible...) poden ser incompletes i cal
+     * preguntar a la base de dades (Manager.findBibliotequesAmbExemplarDisponible).
+     */
+    public boolean isComplet(long llibreId) {
+        return isIndexable(llibreId) && !incomplets.contains(llibreId);
+    }
+
+    /**
+     * Ids de les biblioteques que tenen almenys un exemplar disponible del llibre
+     */
+    public long[] bibliotequesAmbDisponible(long llibreId) {
+        Taules t = taules;
+        long[] exemplars = t.exemplars(llibreId);
+        long[] resultat = new long[exemplars.length];
+        int n = 0;
+        for (long exemplarId : exemplars) {
+            if (t.disponible(exemplarId)) {
+                long bibliotecaId = t.biblioteques[(int) exemplarId];
+                if (!conte(resultat, n, bibliotecaId)) {
+                    resultat[n++] = bibliotecaId;
+                }
+            }
+        }
+        return n == resultat.length ? resultat : Arrays.copyOf(resultat, n);
+    }
+
+    private static boolean conte(long[] valors, int n, long valor) {
+        for (int i = 0; i < n; i++) {
+            if (valors[i] == valor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ids dels exemplars disponibles del llibre a la biblioteca
+     */
+    public long[] exemplarsDisponibles(long llibreId, long bibliotecaId) {
+        Taules t = taules;
+        long[] exemplars = t.exemplars(llibreId);
+        long[] resultat = new long[exemplars.length];
+        int n = 0;
+        for (long exemplarId : exemplars) {
+            if (t.biblioteques[(int) exemplarId] == bibliotecaId && t.disponible(exemplarId)) {
+                resultat[n++] = exemplarId;
+            }
+        }
+        return Arrays.copyOf(resultat, n);
+    }
+
+    /**
+     * Nombre d'exemplars disponibles del llibre a la biblioteca
+     */
+    public int comptarDisponibles(long llibreId, long bibliotecaId) {
+        Taules t = taules;
+        int n = 0;
+        for (long exemplarId : t.exemplars(llibreId)) {
+            if (t.biblioteques[(int) exemplarId] == bibliotecaId && t.disponible(exemplarId)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Nombre d'exemplars indexats
+     */
+    public int mida() {
+        return mida.get();
+    }
+
+    /**
+     * Nombre d'exemplars que no s'han pogut indexar (vegeu isIndexable)
+     */
+    public int ignorats() {
+        return ignorats.get();
+    }
+}
@@ -0,0 +1,21 @@
+package com.project.dao;
+
+import com.project.informe.EscriptorInforme;
+import com.project.informe.FilaInforme;
+
+/**
+ * Fila de Manager.listLlibresAmbBiblioteques: títol d'un llibre i nom
+ * d'una biblioteca que en té un exemplar
+ */
+public record LlibreBiblioteca(String titol, String biblioteca) implements FilaInforme {
+
+    @Override
+    public void escriure(EscriptorInforme escriptor) {
+        escriptor.fila().camp("titol", titol).camp("biblioteca", biblioteca).fi();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + titol + ", " + biblioteca + "]";
+    }
+}
@@ -0,0 +1,21 @@
+package com.project.dao;
+
+import com.project.informe.EscriptorInforme;
+import com.project.informe.FilaInforme;
+
+/**
+ * Fila de Manager.listLlibresEnPrestec: títol del llibre prestat i nom
+ * de la persona que el té
+ */
+public record LlibreEnPrestec(String titol, String persona) implements FilaInforme {
+
+    @Override
+    public void escriure(EscriptorInforme escriptor) {
+        escriptor.fila().camp("titol", titol).camp("persona", persona).fi();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + titol + ", " + persona + "]";
+    }
+}
@@ -0,0 +1,23 @@
+package com.project.dao;
+
+import com.project.informe.EscriptorInforme;
+import com.project.informe.FilaInforme;
+
+/**
+ * Resultat de Manager.cercarLlibres. 'autors' són els noms separats per
+ * comes (o null si no en té); com més alta la puntuació, més rellevant.
+ */
+public record LlibreTrobat(long llibreId, String titol, String editorial, String autors, double puntuacio)
+        implements FilaInforme {
+
+    @Override
+    public void escriure(EscriptorInforme escriptor) {
+        escriptor.fila().camp("llibreId", llibreId).camp("titol", titol).camp("editorial", editorial)
+            .camp("autors", autors).camp("puntuacio", puntuacio).fi();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + titol + ", " + (autors == null ? "-" : autors) + ", " + editorial + "]";
+    }
+}
@@ -3,47 +3,104 @@ package com.project.dao;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import org.hibernate.Hibernate;
+import jakarta.persistence.OptimisticLockException;
+import jakarta.persistence.PersistenceUnitUtil;
+import jakarta.persistence.PessimisticLockException;
+
+import org.hibernate.Cache;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.SessionFactory;
+import org.hibernate.StaleStateException;
 import org.hibernate.Transaction;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.BootstrapServiceRegistry;
+import org.hibernate.boot.registry.BootstrapServiceRegistryBuilder;
 import org.hibernate.boot.registry.StandardServiceRegistry;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
-import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.exception.LockAcquisitionException;
+import org.hibernate.graph.RootGraph;
 import org.hibernate.query.Query;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
 
 import com.project.domain.*;
+import com.project.informe.EscriptorInforme;
+import com.project.informe.FilaInforme;
+import com.project.informe.FormatInforme;
 
 public class Manager {
+    private static final Logger LOG = Logger.getLogger(Manager.class.getName());
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final int DEFAULT_FETCH_SIZE = 500;
+    private static final int RENDER_BATCH_SIZE = 500;
+    private static final int MAX_REINTENTS = 20;
+    private static final int DEFAULT_MAX_FILES_INFORMES = 200000;
+    private static final long DEFAULT_SEGONS_LOG_METRIQUES = 60;
+    private static final int DEFAULT_CONNEXIONS_LECTURA = 4;
+    private static final Class<?>[] ENTITATS = {
+        Biblioteca.class, Llibre.class, Exemplar.class, Prestec.class, Persona.class, Autor.class};
+    // Els serveis de càrrega de classes, comuns a totes les SessionFactory
+    private static final BootstrapServiceRegistry BOOTSTRAP = new BootstrapServiceRegistryBuilder()
+        .disableAutoClose()
+        .build();
+    private static final String[] NOMS_COLUMNES = {"c1", "c2", "c3", "c4", "c5", "c6", "c7", "c8"};
+
     private static SessionFactory factory;
+    private static SessionFactory lectura;
+    private static Particions particions;
+    private static volatile Arrencada arrencada = new Arrencada();
+    private static int batchSize = DEFAULT_BATCH_SIZE;
+    private static volatile IndexDisponibilitat indexDisponibilitat = new IndexDisponibilitat();
+    private static volatile IndexCodiBarres indexCodiBarres;
+    private static volatile PlanificadorVenciments venciments = new PlanificadorVenciments(LocalDate.now());
+    private static volatile CacheInformes informes = new CacheInformes(DEFAULT_MAX_FILES_INFORMES);
+    private static final Metriques metriques = new Metriques(() -> factory == null ? null : factory.getStatistics(),
+        () -> lectura == null || lectura == factory ? null : lectura.getStatistics());
 
     /**
      * Crea la SessionFactory per defecte
      */
     public static void createSessionFactory() {
         try {
-            Configuration configuration = new Configuration();
-            
-            // Registrem totes les classes que tenen anotacions JPA
-            configuration.addAnnotatedClass(Biblioteca.class);
-            configuration.addAnnotatedClass(Llibre.class);
-            configuration.addAnnotatedClass(Exemplar.class);
-            configuration.addAnnotatedClass(Prestec.class);
-            configuration.addAnnotatedClass(Persona.class);
-            configuration.addAnnotatedClass(Autor.class);
-
-            StandardServiceRegistry serviceRegistry = new StandardServiceRegistryBuilder()
-                .applySettings(configuration.getProperties())
-                .build();
-                
-            factory = configuration.buildSessionFactory(serviceRegistry);
+            arrencar(new Properties());
         } catch (Throwable ex) {
             System.err.println("No s'ha pogut crear la SessionFactory: " + ex);
             throw new ExceptionInInitializerError(ex);
@@ -55,15 +112,6 @@ public class Manager {
      */
     public static void createSessionFactory(String propertiesFileName) {
         try {
-            Configuration configuration = new Configuration();
-            
-            configuration.addAnnotatedClass(Biblioteca.class);
-            configuration.addAnnotatedClass(Llibre.class);
-            configuration.addAnnotatedClass(Exemplar.class);
-            configuration.addAnnotatedClass(Prestec.class);
-            configuration.addAnnotatedClass(Persona.class);
-            configuration.addAnnotatedClass(Autor.class);
-
             Properties properties = new Properties();
             try (InputStream input = Manager.class.getClassLoader().getResourceAsStream(propertiesFileName)) {
                 if (input == null) {
@@ -71,193 +119,2000 @@ public class Manager {
                 }
                 properties.load(input);
             }
-
-            configuration.addProperties(properties);
-
-            StandardServiceRegistry serviceRegistry = new StandardServiceRegistryBuilder()
-                .applySettings(configuration.getProperties())
-                .build();
-                
-            factory = configuration.buildSessionFactory(serviceRegistry);
+            arrencar(properties);
         } catch (Throwable ex) {
             System.err.println("Error creant la SessionFactory: " + ex);
             throw new ExceptionInInitializerError(ex);
         }
     }
-    
+
     /**
-     * Tanca la SessionFactory
+     * L'arrencada comuna: hibernate.properties, les propietats del sistema i
+     * les de 'fitxer', per aquest ordre. Primer es migra l'esquema, després
+     * es construeix la SessionFactory i se'n validen les entitats contra
+     * les taules, i al final es carreguen els índexs en memòria. El temps de
+     * cada fase queda a getArrencada().
      */
-    public static void close() {
-        if (factory != null) {
-            factory.close();
+    private static void arrencar(Properties fitxer) {
+        Arrencada mesures = new Arrencada();
+        // Environment llegeix les propietats del sistema una sola vegada: es
+        // tornen a aplicar perquè cada arrencada vegi les d'ara
+        Properties properties = Environment.getProperties();
+        properties.putAll(System.getProperties());
+        properties.putAll(fitxer);
+
+        Migracions.Mode mode = Migracions.Mode.de(properties);
+        Migracions.Resultat esquema = mesures.mesurar("migracions", () -> Migracions.aplicar(
+            Particions.url(properties), mode));
+        mesures.detall("migracions", mode == Migracions.Mode.CAP ? "dades.esquema=cap" : esquema.toString());
+        // Amb hbm2ddl.auto=create, Hibernate torna a crear les taules buides
+        // després de les migracions, i l'índex de cerca s'ha de refer
+        boolean create = properties.getProperty(AvailableSettings.HBM2DDL_AUTO, "").trim().startsWith("create");
+
+        factory = construir(properties, mesures, "");
+        if (mode != Migracions.Mode.CAP) {
+            try {
+                mesures.mesurarAccio("validació de l'esquema",
+                    () -> factory.getSchemaManager().validateMappedObjects());
+            } catch (RuntimeException e) {
+                factory.close();
+                throw e;
+            }
         }
+        batchSize = readBatchSize(properties);
+        informes = new CacheInformes(readMaxFilesInformes(properties));
+        mesures.mesurarAccio("índex de cerca", () -> prepararCerca(create));
+        particions = mesures.mesurar("particions",
+            () -> Particions.obrir(factory, properties, create || esquema.recreat()));
+        lectura = crearLectura(properties, mesures);
+        indexDisponibilitat = mesures.mesurar("índex de disponibilitat", Manager::carregarIndexDisponibilitat);
+        indexCodiBarres = mesures.mesurar("índex de codis de barres",
+            () -> carregarIndexCodiBarres(properties, create || esquema.recreat(), mesures));
+        venciments = mesures.mesurar("venciments", Manager::carregarVenciments);
+        configurarMetriques(properties);
+        arrencada = mesures;
     }
-    private static <T> T saveEntity(T entity) {
+
+    /**
+     * Construeix una SessionFactory amb les entitats de com.project.domain:
+     * el registre de serveis (amb el de bootstrap compartit), les metadades
+     * de les anotacions i la SessionFactory, cada pas com una fase de
+     * 'mesures' amb el prefix. La fan servir el catàleg, la SessionFactory
+     * de lectura i les particions per biblioteca.
+     */
+    static SessionFactory construir(Map<?, ?> settings, Arrencada mesures, String prefix) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> valors = (Map<String, Object>) settings;
+        StandardServiceRegistry registry = mesures.mesurar(prefix + "registre de serveis",
+            () -> new StandardServiceRegistryBuilder(BOOTSTRAP).applySettings(valors).build());
+        try {
+            Metadata metadata = mesures.mesurar(prefix + "metadades", () -> {
+                MetadataSources sources = new MetadataSources(registry);
+                for (Class<?> entitat : ENTITATS) {
+                    sources.addAnnotatedClass(entitat);
+                }
+                return sources.buildMetadata();
+            });
+            return mesures.mesurar(prefix + "SessionFactory", metadata::buildSessionFactory);
+        } catch (RuntimeException e) {
+            StandardServiceRegistryBuilder.destroy(registry);
+            throw e;
+        }
+    }
+
+    /**
+     * Temps de cada fase de l'última arrencada (createSessionFactory)
+     */
+    public static Arrencada getArrencada() {
+        return arrencada;
+    }
+
+    /**
+     * SessionFactory de només lectura per als informes (dades.lectura.separada).
+     * Obre el mateix fitxer amb SQLITE_OPEN_READONLY i té el seu pool: els
+     * informes llargs no ocupen les connexions dels préstecs i retorns, i
+     * amb WAL llegeixen l'última versió confirmada sense bloquejar
+     * l'escriptor. Comparteix les regions de la cache de segon nivell amb
+     * la SessionFactory principal (el mateix CacheManager de JCache), així
+     * que hi veu els canvis que aquesta hi fa. Sense lectura separada, torna
+     * la principal.
+     */
+    private static SessionFactory crearLectura(Properties properties, Arrencada mesures) {
+        if (!Boolean.parseBoolean(properties.getProperty("dades.lectura.separada", "true").trim())) {
+            return factory;
+        }
+        String connexions = properties.getProperty("dades.lectura.connexions",
+            Integer.toString(DEFAULT_CONNEXIONS_LECTURA));
+        Properties settings = new Properties();
+        settings.putAll(properties);
+        settings.setProperty(AvailableSettings.HBM2DDL_AUTO, "none");
+        // SQLITE_OPEN_READONLY. El pool ha de saber que ho és: sqlite-jdbc no
+        // deixa canviar el mode un cop oberta la connexió
+        settings.setProperty("hibernate.hikari.dataSource.open_mode", "1");
+        settings.setProperty("hibernate.hikari.readOnly", "true");
+        settings.setProperty("hibernate.hikari.poolName", "dades-lectura");
+        settings.setProperty("hibernate.hikari.maximumPoolSize", connexions);
+        settings.setProperty("hibernate.hikari.minimumIdle", connexions);
+        return construir(settings, mesures, "lectura: ");
+    }
+
+    /**
+     * Si els informes van per una SessionFactory de només lectura
+     */
+    public static boolean isLecturaSeparada() {
+        return lectura != null && lectura != factory;
+    }
+
+    /**
+     * Sessió per a consultes: les entitats es carreguen només de lectura
+     * (Hibernate no en guarda la còpia per comprovar canvis) i no es fa mai
+     * flush
+     */
+    private static Session obrirLectura(SessionFactory sessionFactory) {
+        Session session = sessionFactory.openSession();
+        session.setDefaultReadOnly(true);
+        session.setHibernateFlushMode(FlushMode.MANUAL);
+        return session;
+    }
+
+    private static Session obrirLectura() {
+        return obrirLectura(lectura);
+    }
+
+    // On es fan les consultes dels informes: les particions o la SessionFactory de lectura
+    private static Collection<SessionFactory> lectures() {
+        return isParticionat() ? particions.totes() : List.of(lectura);
+    }
+
+    /**
+     * Estadístiques de Hibernate (cal hibernate.generate_statistics=true)
+     */
+    public static Statistics getStatistics() {
+        return factory.getStatistics();
+    }
+
+    /**
+     * Estadístiques de la SessionFactory de lectura, per on van els informes
+     * (les mateixes que getStatistics si no n'hi ha de separada)
+     */
+    public static Statistics getStatisticsLectura() {
+        return lectura.getStatistics();
+    }
+
+    /**
+     * Resum d'encerts i errades de cada regió de la cache de segon nivell
+     */
+    public static String cacheStatisticsToString() {
+        Statistics stats = factory.getStatistics();
+        StringBuilder sb = new StringBuilder();
+        sb.append("Cache L2: encerts=").append(stats.getSecondLevelCacheHitCount())
+          .append(", errades=").append(stats.getSecondLevelCacheMissCount())
+          .append(", insercions=").append(stats.getSecondLevelCachePutCount()).append("\n");
+        for (String region : stats.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics rs = stats.getDomainDataRegionStatistics(region);
+            sb.append("    ").append(region)
+              .append(": encerts=").append(rs.getHitCount())
+              .append(", errades=").append(rs.getMissCount())
+              .append(", insercions=").append(rs.getPutCount()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Buida totes les regions de la cache de segon nivell i la cache
+     * d'informes
+     */
+    public static void evictCache() {
+        factory.getCache().evictAllRegions();
+        informes.buidar();
+    }
+
+    /**
+     * Crides, errors i latències de cada operació del Manager, i les
+     * estadístiques de Hibernate. També es publiquen per JMX.
+     */
+    public static Metriques getMetriques() {
+        return metriques;
+    }
+
+    /**
+     * Cache dels informes (findLlibresAmbAutors, listLlibresEnPrestec,
+     * listLlibresAmbBiblioteques...) amb els seus encerts i errades
+     */
+    public static CacheInformes getCacheInformes() {
+        return informes;
+    }
+
+    /**
+     * Biblioteca.exemplars és el costat invers (mappedBy) de la relació:
+     * Hibernate no l'invalida quan es desa un Exemplar, així que s'ha de
+     * treure de la cache a mà perquè no falti el nou exemplar
+     */
+    private static void evictExemplarsBiblioteca(Collection<Exemplar> exemplars) {
+        Cache cache = factory.getCache();
+        for (Exemplar exemplar : exemplars) {
+            if (exemplar.getBiblioteca() != null) {
+                cache.evictCollectionData(Biblioteca.class.getName() + ".exemplars",
+                    exemplar.getBiblioteca().getBibliotecaId());
+            }
+        }
+    }
+
+    private static int readBatchSize(Properties properties) {
+        String value = properties.getProperty("hibernate.jdbc.batch_size");
+        if (value == null || value.isBlank()) {
+            return DEFAULT_BATCH_SIZE;
+        }
+        return Math.max(1, Integer.parseInt(value.trim()));
+    }
+
+    private static void configurarMetriques(Properties properties) {
+        if (Boolean.parseBoolean(properties.getProperty("dades.metriques.jmx", "true").trim())) {
+            metriques.publicarJmx();
+        }
+        String value = properties.getProperty("dades.metriques.log_segons");
+        metriques.iniciarLog(value == null || value.isBlank()
+            ? DEFAULT_SEGONS_LOG_METRIQUES : Long.parseLong(value.trim()));
+    }
+
+    // Els errors que el Manager s'empassa també compten a les mètriques
+    private static void error(Exception e) {
+        LOG.log(Level.WARNING, "Error a la base de dades", e);
+        metriques.error();
+    }
+
+    private static int readMaxFilesInformes(Properties properties) {
+        String value = properties.getProperty("dades.informes.max_files");
+        if (value == null || value.isBlank()) {
+            return DEFAULT_MAX_FILES_INFORMES;
+        }
+        return Math.max(0, Integer.parseInt(value.trim()));
+    }
+
+    /**
+     * Connecta SincronitzacioCerca als esdeveniments de Hibernate i crea
+     * l'índex de cerca si no hi és (la migració V2 el crea, però amb
+     * dades.esquema=cap pot faltar). Amb hbm2ddl.auto=create les taules es
+     * tornen a crear buides i l'índex també es refà.
+     */
+    private static void prepararCerca(boolean refer) {
+        SincronitzacioCerca sincronitzacio = new SincronitzacioCerca();
+        EventListenerRegistry registry = factory.unwrap(SessionFactoryImplementor.class)
+            .getServiceRegistry().getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_INSERT, sincronitzacio);
+        registry.appendListeners(EventType.POST_UPDATE, sincronitzacio);
+        registry.appendListeners(EventType.POST_DELETE, sincronitzacio);
+        registry.appendListeners(EventType.POST_COLLECTION_RECREATE, sincronitzacio);
+        registry.appendListeners(EventType.POST_COLLECTION_UPDATE, sincronitzacio);
+        registry.appendListeners(EventType.POST_COLLECTION_REMOVE, sincronitzacio);
+
         try (Session session = factory.openSession()) {
             Transaction tx = session.beginTransaction();
-            session.persist(entity);
+            session.doWork(conn -> {
+                if (refer || !IndexCerca.existeix(conn)) {
+                    IndexCerca.reconstruir(conn);
+                }
+            });
             tx.commit();
-            return entity;
-        } catch (HibernateException e) {
-            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Índex en memòria de la disponibilitat dels exemplars. Es carrega en
+     * crear la SessionFactory i el mantenen al dia addExemplar(s),
+     * prestarExemplar (i addPrestec) i registrarRetornPrestec.
+     */
+    public static IndexDisponibilitat getIndexDisponibilitat() {
+        return indexDisponibilitat;
+    }
+
+    /**
+     * Torna a construir l'índex de disponibilitat des de la base de dades,
+     * per si s'ha modificat per fora del Manager
+     */
+    public static void recarregarIndexDisponibilitat() {
+        indexDisponibilitat = carregarIndexDisponibilitat();
+        indexCodiBarres.sincronitzar(indexDisponibilitat);
+    }
+
+    // Amb particions, cada partició s'hi afegeix alhora (afegir és segur entre fils)
+    private static IndexDisponibilitat carregarIndexDisponibilitat() {
+        IndexDisponibilitat index = new IndexDisponibilitat();
+        String hql = "SELECT e.exemplarId, e.llibre.llibreId, e.biblioteca.bibliotecaId, e.disponible, e.versio "
+            + "FROM Exemplar e ORDER BY e.exemplarId";
+        particions.perCadascuna(particio -> {
+            try (Session session = particio.openSession();
+                 ScrollableResults<Object[]> results = session.createQuery(hql, Object[].class)
+                    .setFetchSize(DEFAULT_FETCH_SIZE)
+                    .scroll(ScrollMode.FORWARD_ONLY)) {
+                while (results.next()) {
+                    Object[] fila = results.get();
+                    if (fila[1] != null && fila[2] != null) {
+                        index.afegir((Long) fila[0], (Long) fila[1], (Long) fila[2],
+                            (Boolean) fila[3], (Long) fila[4]);
+                    }
+                }
+            }
             return null;
+        });
+        if (index.ignorats() > 0) {
+            LOG.warning(index.ignorats() + " exemplars no caben a l'índex de disponibilitat (ids massa grans)");
         }
+        return index;
     }
 
-    public static Autor addAutor(String nom) {
-        Autor autor = new Autor();
-        autor.setNom(nom);
-        return saveEntity(autor);
+    /**
+     * Cua dels préstecs actius que encara han de vèncer. Amb iniciar()
+     * avisa cada dia dels préstecs que han passat a estar retardats.
+     */
+    public static PlanificadorVenciments getPlanificadorVenciments() {
+        return venciments;
     }
 
-    public static void updateAutor(long autorId, String nom, Set<Llibre> llibres) {
-        try (Session session = factory.openSession()) {
-            Transaction tx = session.beginTransaction();
-            Autor autor = session.get(Autor.class, autorId);
-            if (autor != null) {
-                autor.setNom(nom);
-                autor.setLlibres(llibres);
-                session.merge(autor);
+    private static PlanificadorVenciments carregarVenciments() {
+        LocalDate avui = LocalDate.now();
+        PlanificadorVenciments planificador = new PlanificadorVenciments(avui);
+        String hql = "SELECT p.prestecId, p.dataRetornPrevista FROM Prestec p "
+            + "WHERE p.actiu = true AND p.dataRetornPrevista >= :avui";
+        for (SessionFactory particio : particions.totes()) {
+            try (Session session = particio.openSession();
+                 ScrollableResults<Object[]> results = session.createQuery(hql, Object[].class)
+                    .setParameter("avui", avui)
+                    .setFetchSize(DEFAULT_FETCH_SIZE)
+                    .scroll(ScrollMode.FORWARD_ONLY)) {
+                while (results.next()) {
+                    Object[] fila = results.get();
+                    planificador.registrar((Long) fila[0], (LocalDate) fila[1]);
+                }
             }
-            tx.commit();
-        } catch (HibernateException e) {
-            e.printStackTrace();
         }
+        return planificador;
     }
 
-    public static Llibre addLlibre(String isbn, String titol, String editorial, int anyPublicacio) {
-        Llibre llibre = new Llibre();
-        llibre.setIsbn(isbn);
-        llibre.setTitol(titol);
-        llibre.setEditorial(editorial);
-        llibre.setAnyPublicacio(anyPublicacio);
-        return saveEntity(llibre);
+    // Després del commit: un exemplar que no cap a l'índex de disponibilitat
+    // només s'avisa, i es consultarà a la base de dades
+    private static void indexarExemplar(Exemplar exemplar) {
+        if (exemplar.getLlibre() != null && exemplar.getBiblioteca() != null
+                && !indexDisponibilitat.afegir(exemplar.getExemplarId(), exemplar.getLlibre().getLlibreId(),
+                    exemplar.getBiblioteca().getBibliotecaId(), exemplar.isDisponible(), exemplar.getVersio())) {
+            LOG.warning("L'exemplar " + exemplar.getExemplarId() + " (llibre " + exemplar.getLlibre().getLlibreId()
+                + ") no cap a l'índex de disponibilitat");
+        }
+        if (exemplar.getCodiBarres() != null) {
+            indexCodiBarres.afegir(exemplar.getCodiBarres(), exemplar.getExemplarId(), exemplar.isDisponible());
+        }
     }
 
-    public static Biblioteca addBiblioteca(String nom, String ciutat, String adreca, String telefon, String email) {
-        Biblioteca biblioteca = new Biblioteca();
-        biblioteca.setNom(nom);
-        biblioteca.setCiutat(ciutat);
-        biblioteca.setAdreca(adreca);
-        biblioteca.setTelefon(telefon);
-        biblioteca.setEmail(email);
-        return saveEntity(biblioteca);
+    /**
+     * Índex dels codis de barres, fora del heap: del codi a l'exemplar i la
+     * seva disponibilitat sense anar a SQLite. El mantenen al dia els
+     * mateixos mètodes que l'índex de disponibilitat.
+     */
+    public static IndexCodiBarres getIndexCodiBarres() {
+        return indexCodiBarres;
     }
 
-    public static Exemplar addExemplar(String codiBarres, Llibre llibre, Biblioteca biblioteca) {
-        Exemplar exemplar = new Exemplar();
-        exemplar.setCodiBarres(codiBarres);
-        exemplar.setLlibre(llibre);
-        exemplar.setBiblioteca(biblioteca);
-        exemplar.setDisponible(true);
-        return saveEntity(exemplar);
+    /**
+     * Obre l'índex de codis de barres del fitxer i hi afegeix els exemplars
+     * nous (amb id més gran que l'últim que té). Si no hi ha fitxer, no es
+     * va tancar bé, no quadra amb el nombre d'exemplars de la base de dades
+     * o la base de dades s'ha recreat, se'n fa un de nou. Al final, la
+     * disponibilitat es copia de l'índex de disponibilitat, que s'acaba de
+     * llegir de la base de dades.
+     */
+    private static IndexCodiBarres carregarIndexCodiBarres(Properties properties, boolean refer,
+            Arrencada mesures) {
+        Path fitxer = fitxerCodiBarres(properties);
+        long exemplars = 0;
+        for (Long n : ajuntar(session -> session.createQuery("SELECT count(e) FROM Exemplar e", Long.class).list())) {
+            exemplars += n;
+        }
+        IndexCodiBarres index = refer ? null : IndexCodiBarres.obrir(fitxer);
+        String detall = "refet";
+        if (index != null) {
+            long abans = index.getExemplars();
+            afegirCodis(index, index.getIdMaxim());
+            if (index.getExemplars() == exemplars) {
+                detall = (index.getExemplars() - abans) + " exemplars nous";
+            } else {
+                index.close();
+                index = null;
+            }
+        }
+        if (index == null) {
+            index = IndexCodiBarres.crear(fitxer, exemplars);
+            afegirCodis(index, 0);
+        }
+        index.sincronitzar(indexDisponibilitat);
+        mesures.detall("índex de codis de barres", index.mida() + " codis, " + detall);
+        return index;
     }
 
-    public static Persona addPersona(String dni, String nom, String telefon, String email) {
-        Persona persona = new Persona();
-        persona.setDni(dni);
-        persona.setNom(nom);
-        persona.setTelefon(telefon);
-        persona.setEmail(email);
-        return saveEntity(persona);
+    private static void afegirCodis(IndexCodiBarres index, long desDe) {
+        String hql = "SELECT e.codiBarres, e.exemplarId, e.disponible FROM Exemplar e "
+            + "WHERE e.exemplarId > :id ORDER BY e.exemplarId";
+        for (SessionFactory particio : particions.totes()) {
+            try (Session session = particio.openSession();
+                 ScrollableResults<Object[]> results = session.createQuery(hql, Object[].class)
+                    .setParameter("id", desDe)
+                    .setFetchSize(DEFAULT_FETCH_SIZE)
+                    .scroll(ScrollMode.FORWARD_ONLY)) {
+                while (results.next()) {
+                    Object[] fila = results.get();
+                    index.afegir((String) fila[0], (Long) fila[1], (Boolean) fila[2]);
+                }
+            }
+        }
     }
 
-    public static Prestec addPrestec(Exemplar exemplar, Persona persona, LocalDate dataPrestec, LocalDate dataRetornPrevista) {
-        Prestec prestec = new Prestec();
-        prestec.setExemplar(exemplar);
-        prestec.setPersona(persona);
-        prestec.setDataPrestec(dataPrestec);
-        prestec.setDataRetornPrevista(dataRetornPrevista);
-        prestec.setActiu(true);
-        try (Session session = factory.openSession()) {
+    // dades.codis.fitxer o, si no hi és, data/database.db -> data/database-codis.idx
+    private static Path fitxerCodiBarres(Properties properties) {
+        String configurat = properties.getProperty("dades.codis.fitxer");
+        if (configurat != null && !configurat.isBlank()) {
+            return Paths.get(configurat.trim());
+        }
+        String fitxer = Particions.fitxer(Particions.url(properties));
+        int punt = fitxer.lastIndexOf('.');
+        String base = punt > fitxer.lastIndexOf('/') ? fitxer.substring(0, punt) : fitxer;
+        return Paths.get(base + "-codis.idx");
+    }
+
+    /**
+     * Canvia la mida dels lots de les insercions massives
+     */
+    public static void setBatchSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("La mida del lot ha de ser positiva: " + size);
+        }
+        batchSize = size;
+    }
+
+    public static int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Tanca la SessionFactory
+     */
+    public static void close() {
+        venciments.aturar();
+        metriques.aturarLog();
+        if (indexCodiBarres != null) {
+            indexCodiBarres.close();
+        }
+        if (particions != null) {
+            particions.tancar();
+        }
+        if (isLecturaSeparada()) {
+            lectura.close();
+        }
+        if (factory != null) {
+            factory.close();
+        }
+    }
+
+    /**
+     * Si les dades estan repartides per biblioteca (vegeu Particions)
+     */
+    public static boolean isParticionat() {
+        return particions != null && particions.actives();
+    }
+
+    // Només Exemplar i Prestec són a les particions
+    private static boolean particionada(Class<?> clazz) {
+        return isParticionat() && (clazz == Exemplar.class || clazz == Prestec.class);
+    }
+
+    // La biblioteca de l'exemplar surt de l'índex de disponibilitat, o de
+    // les particions si l'id no hi cap. Un exemplar desconegut va al
+    // catàleg, on tampoc es trobarà
+    private static SessionFactory particioExemplar(long exemplarId) {
+        if (!isParticionat()) {
+            return factory;
+        }
+        long bibliotecaId = IndexDisponibilitat.isIndexable(exemplarId)
+            ? indexDisponibilitat.biblioteca(exemplarId) : bibliotecaExemplar(exemplarId);
+        return bibliotecaId < 0 ? factory : particions.perBiblioteca(bibliotecaId);
+    }
+
+    private static long bibliotecaExemplar(long exemplarId) {
+        List<Long> ids = ajuntar(session -> session.createQuery(
+                "SELECT e.biblioteca.bibliotecaId FROM Exemplar e WHERE e.exemplarId = :id", Long.class)
+            .setParameter("id", exemplarId)
+            .list());
+        return ids.isEmpty() ? -1 : ids.get(0);
+    }
+
+    private static SessionFactory particioBiblioteca(Biblioteca biblioteca) {
+        return biblioteca == null ? factory : particions.perBiblioteca(biblioteca.getBibliotecaId());
+    }
+
+    /**
+     * Fa la consulta a cada partició alhora i n'ajunta els resultats per
+     * ordre de biblioteca. Sense particions és la consulta a la SessionFactory
+     * de lectura. Les sessions són només de lectura.
+     */
+    private static <R> List<R> ajuntar(Function<Session, List<R>> consulta) {
+        if (!isParticionat()) {
+            try (Session session = obrirLectura()) {
+                return consulta.apply(session);
+            }
+        }
+        List<R> resultat = new ArrayList<>();
+        for (List<R> part : particions.perCadascuna(particio -> {
+            try (Session session = obrirLectura(particio)) {
+                return consulta.apply(session);
+            }
+        })) {
+            resultat.addAll(part);
+        }
+        return resultat;
+    }
+    private static <T> T saveEntity(T entity) {
+        return saveEntity(factory, entity);
+    }
+
+    private static <T> T saveEntity(SessionFactory particio, T entity) {
+        try (Session session = particio.openSession()) {
             Transaction tx = session.beginTransaction();
-            exemplar.setDisponible(false);
-            session.merge(exemplar);
-            session.persist(prestec);
+            session.persist(entity);
             tx.commit();
+            informes.invalidar(entity.getClass());
+            return entity;
         } catch (HibernateException e) {
-            e.printStackTrace();
+            error(e);
+            return null;
         }
-        return prestec;
     }
 
-    public static void registrarRetornPrestec(long prestecId, LocalDate dataRetornReal) {
-        try (Session session = factory.openSession()) {
+    /**
+     * Desa totes les entitats en una única transacció, agrupant els INSERT
+     * en lots JDBC de 'batchSize' files. Després de cada lot es fa flush i
+     * clear perquè la sessió no acumuli totes les entitats a memòria.
+     */
+    private static <T> List<T> saveEntities(Collection<T> entities) {
+        return saveEntities(factory, entities);
+    }
+
+    private static <T> List<T> saveEntities(SessionFactory particio, Collection<T> entities) {
+        List<T> saved = new ArrayList<>(entities.size());
+        try (Session session = particio.openSession()) {
+            session.setJdbcBatchSize(batchSize);
             Transaction tx = session.beginTransaction();
-            Prestec prestec = session.get(Prestec.class, prestecId);
-            if (prestec != null) {
-                prestec.setDataRetornReal(dataRetornReal);
-                prestec.setActiu(false);
-                Exemplar exemplar = prestec.getExemplar();
-                exemplar.setDisponible(true);
-                session.merge(exemplar);
-                session.merge(prestec);
+            int count = 0;
+            for (T entity : entities) {
+                session.persist(entity);
+                saved.add(entity);
+                if (++count % batchSize == 0) {
+                    session.flush();
+                    session.clear();
+                }
             }
             tx.commit();
+            saved.stream().map(Object::getClass).distinct().forEach(informes::invalidar);
+            return saved;
         } catch (HibernateException e) {
-            e.printStackTrace();
+            error(e);
+            return null;
         }
     }
 
-    public static List<Llibre> findLlibresAmbAutors() {
-        try (Session session = factory.openSession()) {
-            String hql = "SELECT DISTINCT l FROM Llibre l JOIN FETCH l.autors";
-            return session.createQuery(hql, Llibre.class).list();
+    /**
+     * saveEntities amb les entitats repartides per partició: cada partició
+     * desa les seves en una transacció pròpia, totes alhora. Si alguna
+     * falla es torna null, però les de les altres particions ja s'han desat.
+     */
+    private static <T> List<T> saveEntities(Collection<T> entities, Function<T, SessionFactory> particio) {
+        if (!isParticionat()) {
+            return saveEntities(entities);
+        }
+        try {
+            Map<SessionFactory, List<T>> perParticio = new LinkedHashMap<>();
+            for (T entity : entities) {
+                perParticio.computeIfAbsent(particio.apply(entity), k -> new ArrayList<>()).add(entity);
+            }
+            AtomicBoolean fallada = new AtomicBoolean();
+            List<Runnable> feines = new ArrayList<>(perParticio.size());
+            for (Map.Entry<SessionFactory, List<T>> entrada : perParticio.entrySet()) {
+                feines.add(() -> {
+                    if (saveEntities(entrada.getKey(), entrada.getValue()) == null) {
+                        fallada.set(true);
+                    }
+                });
+            }
+            particions.executar(feines);
+            if (fallada.get()) {
+                // L'error s'ha comptat al fil de la partició
+                metriques.error();
+                return null;
+            }
+            return new ArrayList<>(entities);
+        } catch (HibernateException e) {
+            error(e);
+            return null;
         }
     }
 
-    public static List<Object[]> findLlibresEnPrestec() {
-        try (Session session = factory.openSession()) {
-            String hql = "SELECT p.exemplar.llibre.titol, p.persona.nom FROM Prestec p WHERE p.actiu = true";
-            return session.createQuery(hql, Object[].class).list();
-        }
+    public static Autor addAutor(String nom) {
+        return metriques.mesurar(Metriques.Operacio.ADD_AUTOR, () -> {
+            Autor autor = new Autor();
+            autor.setNom(nom);
+            return saveEntity(autor);
+        });
     }
 
-    public static List<Object[]> findLlibresAmbBiblioteques() {
-        try (Session session = factory.openSession()) {
-            String hql = "SELECT l.titol, e.biblioteca.nom FROM Exemplar e JOIN e.llibre l";
-            return session.createQuery(hql, Object[].class).list();
-        }
+    public static List<Autor> addAutors(Collection<Autor> autors) {
+        return metriques.mesurar(Metriques.Operacio.ADD_AUTORS, () -> saveEntities(autors));
     }
 
-    public static <T> Collection<T> listCollection(Class<T> clazz) {
-        try (Session session = factory.openSession()) {
-            String hql = "FROM " + clazz.getSimpleName();
-            return session.createQuery(hql, clazz).list();
-        }
+    public static void updateAutor(long autorId, String nom, Set<Llibre> llibres) {
+        metriques.mesurarAccio(Metriques.Operacio.UPDATE_AUTOR, () -> {
+            try (Session session = factory.openSession()) {
+                Transaction tx = session.beginTransaction();
+                Autor autor = session.get(Autor.class, autorId);
+                if (autor != null) {
+                    autor.setNom(nom);
+                    autor.setLlibres(llibres);
+                    session.merge(autor);
+                }
+                tx.commit();
+                informes.invalidar(Autor.class);
+            } catch (HibernateException e) {
+                error(e);
+            }
+        });
     }
-    
-public static <T> String collectionToString(Class<T> clazz, Collection<T> collection) {
-    StringBuilder sb = new StringBuilder();
-    try (Session session = factory.openSession()) {
-        for (T item : collection) {
-            if (item instanceof Autor) {
-                Hibernate.initialize(((Autor) item).getLlibres());
-            } else if (item instanceof Llibre) {
-                Hibernate.initialize(((Llibre) item).getAutors());
+
+    public static Llibre addLlibre(String isbn, String titol, String editorial, int anyPublicacio) {
+        return metriques.mesurar(Metriques.Operacio.ADD_LLIBRE, () -> {
+            Llibre llibre = new Llibre();
+            llibre.setIsbn(isbn);
+            llibre.setTitol(titol);
+            llibre.setEditorial(editorial);
+            llibre.setAnyPublicacio(anyPublicacio);
+            return saveEntity(llibre);
+        });
+    }
+
+    public static List<Llibre> addLlibres(Collection<Llibre> llibres) {
+        return metriques.mesurar(Metriques.Operacio.ADD_LLIBRES, () -> saveEntities(llibres));
+    }
+
+    public static void updateLlibre(long llibreId, String titol, String editorial, int anyPublicacio) {
+        metriques.mesurarAccio(Metriques.Operacio.UPDATE_LLIBRE, () -> {
+            try (Session session = factory.openSession()) {
+                Transaction tx = session.beginTransaction();
+                Llibre llibre = session.get(Llibre.class, llibreId);
+                if (llibre != null) {
+                    llibre.setTitol(titol);
+                    llibre.setEditorial(editorial);
+                    llibre.setAnyPublicacio(anyPublicacio);
+                }
+                tx.commit();
+                informes.invalidar(Llibre.class);
+            } catch (HibernateException e) {
+                error(e);
             }
-            // Agrega más casos si hay otras colecciones perezosas
-            sb.append(item.toString()).append("\n");
-        }
-    } catch (Exception e) {
-        e.printStackTrace();
+        });
     }
-    return sb.toString();
-}
 
-    public static String formatMultipleResult(List<Object[]> results) {
-        StringBuilder sb = new StringBuilder();
-        for (Object[] row : results) {
-            sb.append("[");
-            for (Object col : row) {
-                sb.append(col).append(", ");
+    public static Biblioteca addBiblioteca(String nom, String ciutat, String adreca, String telefon, String email) {
+        return metriques.mesurar(Metriques.Operacio.ADD_BIBLIOTECA, () -> {
+            Biblioteca biblioteca = new Biblioteca();
+            biblioteca.setNom(nom);
+            biblioteca.setCiutat(ciutat);
+            biblioteca.setAdreca(adreca);
+            biblioteca.setTelefon(telefon);
+            biblioteca.setEmail(email);
+            Biblioteca saved = saveEntity(biblioteca);
+            if (saved != null) {
+                try {
+                    particions.afegir(saved.getBibliotecaId());
+                } catch (HibernateException e) {
+                    // Es tornarà a intentar obrir quan s'hi escrigui
+                    error(e);
+                }
+            }
+            return saved;
+        });
+    }
+
+    public static Exemplar addExemplar(String codiBarres, Llibre llibre, Biblioteca biblioteca) {
+        return metriques.mesurar(Metriques.Operacio.ADD_EXEMPLAR, () -> {
+            Exemplar exemplar = new Exemplar();
+            exemplar.setCodiBarres(codiBarres);
+            exemplar.setLlibre(llibre);
+            exemplar.setBiblioteca(biblioteca);
+            exemplar.setDisponible(true);
+            Exemplar saved = saveEntity(particioBiblioteca(biblioteca), exemplar);
+            if (saved != null) {
+                evictExemplarsBiblioteca(List.of(exemplar));
+                indexarExemplar(saved);
             }
-            if (sb.length() > 1) {
-                sb.setLength(sb.length() - 2);
+            return saved;
+        });
+    }
+
+    /**
+     * Desa exemplars en bloc respectant la disponibilitat que porten
+     * (el constructor d'Exemplar ja els crea disponibles)
+     */
+    public static List<Exemplar> addExemplars(Collection<Exemplar> exemplars) {
+        return metriques.mesurar(Metriques.Operacio.ADD_EXEMPLARS, () -> {
+            List<Exemplar> saved = saveEntities(exemplars, exemplar -> particioBiblioteca(exemplar.getBiblioteca()));
+            if (saved != null) {
+                evictExemplarsBiblioteca(saved);
+                saved.forEach(Manager::indexarExemplar);
             }
-            sb.append("]\n");
+            return saved;
+        });
+    }
+
+    public static Persona addPersona(String dni, String nom, String telefon, String email) {
+        return metriques.mesurar(Metriques.Operacio.ADD_PERSONA, () -> {
+            Persona persona = new Persona();
+            persona.setDni(dni);
+            persona.setNom(nom);
+            persona.setTelefon(telefon);
+            persona.setEmail(email);
+            return saveEntity(persona);
+        });
+    }
+
+    public static List<Persona> addPersones(Collection<Persona> persones) {
+        return metriques.mesurar(Metriques.Operacio.ADD_PERSONES, () -> saveEntities(persones));
+    }
+
+    /**
+     * Presta l'exemplar si encara és disponible. Fa servir addPrestec per
+     * compatibilitat: torna el préstec creat, o null si no s'ha pogut fer.
+     */
+    public static Prestec addPrestec(Exemplar exemplar, Persona persona, LocalDate dataPrestec, LocalDate dataRetornPrevista) {
+        ResultatPrestec resultat = prestarExemplar(exemplar.getExemplarId(), persona.getPersonaId(),
+            dataPrestec, dataRetornPrevista);
+        if (!resultat.isPrestat()) {
+            return null;
         }
-        return sb.toString();
+        exemplar.setDisponible(false);
+        persona.setPrestecsActius(resultat.getPrestec().getPersona().getPrestecsActius());
+        return resultat.getPrestec();
+    }
+
+    /**
+     * Préstec atòmic d'un exemplar. Es llegeix l'estat actual (no el de la
+     * cache) i, si és disponible, es marca com a prestat i es crea el préstec
+     * en la mateixa transacció. L'UPDATE porta la condició de versió de
+     * l'Exemplar: si un altre préstec s'ha confirmat abans, aquest falla, es
+     * reintenta i llavors ja es veu que l'exemplar no és disponible.
+     */
+    public static ResultatPrestec prestarExemplar(long exemplarId, long personaId,
+            LocalDate dataPrestec, LocalDate dataRetornPrevista) {
+        return metriques.mesurar(Metriques.Operacio.PRESTAR_EXEMPLAR, () -> {
+            ResultatPrestec resultat = executeWithRetry(particioExemplar(exemplarId),
+                session -> prestar(session, exemplarId, personaId, dataPrestec, dataRetornPrevista),
+                ResultatPrestec.fallit(ResultatPrestec.Estat.ERROR));
+            despresDePrestar(resultat);
+            return resultat;
+        });
+    }
+
+    /**
+     * Préstec des d'un mostrador: l'exemplar es busca pel codi de barres a
+     * l'índex de codis (sense SQLite), i els codis que no hi poden ser (no
+     * indexables), a la base de dades. Després és un prestarExemplar.
+     */
+    public static ResultatPrestec prestarPerCodiBarres(String codiBarres, long personaId,
+            LocalDate dataPrestec, LocalDate dataRetornPrevista) {
+        long exemplarId = findExemplarIdPerCodiBarres(codiBarres);
+        if (exemplarId < 0) {
+            return ResultatPrestec.fallit(ResultatPrestec.Estat.EXEMPLAR_NO_TROBAT);
+        }
+        return prestarExemplar(exemplarId, personaId, dataPrestec, dataRetornPrevista);
+    }
+
+    /**
+     * Id de l'exemplar amb aquest codi de barres, o -1 si no n'hi ha cap
+     * (vegeu IndexCodiBarres)
+     */
+    public static long findExemplarIdPerCodiBarres(String codiBarres) {
+        return metriques.mesurar(Metriques.Operacio.FIND_EXEMPLAR_ID_PER_CODI_BARRES, () -> {
+            if (IndexCodiBarres.isIndexable(codiBarres)) {
+                return indexCodiBarres.exemplarId(codiBarres);
+            }
+            try {
+                List<Long> ids = ajuntar(session -> session.createQuery(
+                        "SELECT e.exemplarId FROM Exemplar e WHERE e.codiBarres = :codi", Long.class)
+                    .setParameter("codi", codiBarres)
+                    .list());
+                return ids.isEmpty() ? -1L : ids.get(0);
+            } catch (HibernateException e) {
+                error(e);
+                return -1L;
+            }
+        });
+    }
+
+    /**
+     * prestarExemplar com a comanda d'un grup (executarEnGrup)
+     */
+    static ComandaAgrupada<ResultatPrestec> comandaPrestec(long exemplarId, long personaId,
+            LocalDate dataPrestec, LocalDate dataRetornPrevista) {
+        return new ComandaAgrupada<>(particioExemplar(exemplarId),
+            session -> prestar(session, exemplarId, personaId, dataPrestec, dataRetornPrevista),
+            Manager::despresDePrestar, ResultatPrestec.fallit(ResultatPrestec.Estat.ERROR));
+    }
+
+    // Només l'exemplar i la persona, sense les seves referències (LAZY)
+    private static ResultatPrestec prestar(Session session, long exemplarId, long personaId,
+            LocalDate dataPrestec, LocalDate dataRetornPrevista) {
+        Exemplar exemplar = session.get(Exemplar.class, exemplarId);
+        if (exemplar == null) {
+            return ResultatPrestec.fallit(ResultatPrestec.Estat.EXEMPLAR_NO_TROBAT);
+        }
+        if (!exemplar.isDisponible()) {
+            return ResultatPrestec.fallit(ResultatPrestec.Estat.JA_EN_PRESTEC);
+        }
+        Persona persona = session.get(Persona.class, personaId);
+        if (persona == null) {
+            return ResultatPrestec.fallit(ResultatPrestec.Estat.PERSONA_NO_TROBADA);
+        }
+        exemplar.setDisponible(false);
+        // Amb particions el comptador no es manté: la persona és al catàleg
+        if (!isParticionat()) {
+            persona.setPrestecsActius(persona.getPrestecsActius() + 1);
+        }
+        Prestec prestec = new Prestec(exemplar, persona, dataPrestec, dataRetornPrevista);
+        session.persist(prestec);
+        return ResultatPrestec.prestat(prestec);
+    }
+
+    // Un cop confirmat el préstec
+    private static void despresDePrestar(ResultatPrestec resultat) {
+        if (resultat.isPrestat()) {
+            Prestec prestec = resultat.getPrestec();
+            Exemplar exemplar = prestec.getExemplar();
+            indexDisponibilitat.actualitzar(exemplar.getExemplarId(), false, exemplar.getVersio());
+            indexCodiBarres.sincronitzar(exemplar.getCodiBarres(), exemplar.getExemplarId(), false,
+                indexDisponibilitat);
+            venciments.registrar(prestec.getPrestecId(), prestec.getDataRetornPrevista());
+            informes.invalidar(Prestec.class);
+        }
+    }
+
+    /**
+     * Executa una transacció d'escriptura llegint l'estat de la base de dades
+     * (CacheMode.REFRESH). Si xoca amb una altra escriptura (versió canviada,
+     * SQLITE_BUSY o snapshot de WAL antic) es desfà i es torna a executar
+     * després d'una espera aleatòria creixent, com a molt MAX_REINTENTS
+     * vegades. SQLite no espera el busy_timeout quan una transacció de lectura
+     * vol passar a escriure, per això l'espera la fem nosaltres.
+     * En cas d'error torna 'onError'.
+     */
+    private static <R> R executeWithRetry(Function<Session, R> work, R onError) {
+        return executeWithRetry(factory, work, onError, false);
+    }
+
+    private static <R> R executeWithRetry(SessionFactory particio, Function<Session, R> work, R onError) {
+        return executeWithRetry(particio, work, onError, false);
+    }
+
+    /**
+     * Amb 'fsync', el commit es fa amb PRAGMA synchronous=FULL: SQLite fa
+     * fsync del WAL abans de tornar, i el canvi sobreviu a una caiguda del
+     * sistema. Amb el valor del pool (NORMAL) només es fa als checkpoints.
+     */
+    private static <R> R executeWithRetry(SessionFactory particio, Function<Session, R> work, R onError,
+            boolean fsync) {
+        for (int intent = 1; ; intent++) {
+            try (Session session = particio.openSession()) {
+                session.setCacheMode(CacheMode.REFRESH);
+                int sincronitzacio = fsync ? canviarSincronitzacio(session, 2) : -1;
+                Transaction tx = session.beginTransaction();
+                try {
+                    reservarEscriptura(session);
+                    R result = work.apply(session);
+                    tx.commit();
+                    return result;
+                } catch (OptimisticLockException | PessimisticLockException
+                        | StaleStateException | LockAcquisitionException e) {
+                    if (tx.isActive()) {
+                        tx.rollback();
+                    }
+                    if (intent >= MAX_REINTENTS) {
+                        error(e);
+                        return onError;
+                    }
+                } finally {
+                    if (sincronitzacio >= 0) {
+                        if (tx.isActive()) {
+                            tx.rollback();
+                        }
+                        // La connexió torna al pool amb el valor que tenia
+                        canviarSincronitzacio(session, sincronitzacio);
+                    }
+                }
+            } catch (HibernateException e) {
+                error(e);
+                return onError;
+            }
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(1, 2 << Math.min(intent, 6)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return onError;
+            }
+        }
+    }
+
+    // Canvia PRAGMA synchronous de la connexió i torna el valor que tenia
+    private static int canviarSincronitzacio(Session session, int valor) {
+        return session.doReturningWork(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                int anterior;
+                try (ResultSet rs = statement.executeQuery("PRAGMA synchronous")) {
+                    anterior = rs.next() ? rs.getInt(1) : valor;
+                }
+                statement.executeUpdate("PRAGMA synchronous = " + valor);
+                return anterior;
+            }
+        });
+    }
+
+    /**
+     * Agafa el bloqueig d'escriptura de SQLite abans de llegir res, com faria
+     * un BEGIN IMMEDIATE: el del fitxer principal o, a una partició, el seu.
+     * Un UPDATE que no toca cap fila ja el demana, i en aquest punt la
+     * connexió encara no té cap lectura oberta: si un altre escriptor el té,
+     * SQLite espera el busy_timeout en lloc de fallar de seguida amb
+     * SQLITE_BUSY o SQLITE_BUSY_SNAPSHOT.
+     */
+    private static void reservarEscriptura(Session session) {
+        session.doWork(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("UPDATE exemplars SET versio = versio WHERE 0");
+            }
+        });
+    }
+
+    /**
+     * Importa préstecs en bloc (històrics o migrats d'un altre sistema).
+     * Es desen tal com arriben: no es toca la disponibilitat dels exemplars,
+     * però sí el comptador de préstecs actius de cada persona (sense
+     * particions). Cada préstec va a la partició del seu exemplar.
+     */
+    public static List<Prestec> addPrestecs(Collection<Prestec> prestecs) {
+        return metriques.mesurar(Metriques.Operacio.ADD_PRESTECS, () -> {
+            List<Prestec> saved = saveEntities(prestecs, prestec ->
+                particioBiblioteca(prestec.getExemplar() == null ? null : prestec.getExemplar().getBiblioteca()));
+            if (saved != null) {
+                Map<Long, Integer> actius = new HashMap<>();
+                for (Prestec prestec : saved) {
+                    if (prestec.isActiu()) {
+                        venciments.registrar(prestec.getPrestecId(), prestec.getDataRetornPrevista());
+                        actius.merge(prestec.getPersona().getPersonaId(), 1, Integer::sum);
+                    }
+                }
+                if (!actius.isEmpty() && !isParticionat()) {
+                    sumarPrestecsActius(actius);
+                }
+            }
+            return saved;
+        });
+    }
+
+    private static void sumarPrestecsActius(Map<Long, Integer> increments) {
+        String hql = "UPDATE Persona p SET p.prestecsActius = p.prestecsActius + :n WHERE p.personaId = :id";
+        executeWithRetry(session -> {
+            for (Map.Entry<Long, Integer> entrada : increments.entrySet()) {
+                session.createMutationQuery(hql)
+                    .setParameter("n", entrada.getValue())
+                    .setParameter("id", entrada.getKey())
+                    .executeUpdate();
+            }
+            return true;
+        }, false);
+    }
+
+    /**
+     * Préstecs actius de la persona, llegits del comptador de la taula
+     * persones (no es carrega la col·lecció de préstecs). Amb particions es
+     * compten a cada partició (amb l'índex idx_prestecs_persona) i se sumen.
+     */
+    public static int getPrestecsActius(long personaId) {
+        return metriques.mesurar(Metriques.Operacio.GET_PRESTECS_ACTIUS, () -> {
+            if (isParticionat()) {
+                String hql = "SELECT count(p) FROM Prestec p WHERE p.persona.personaId = :id AND p.actiu = true";
+                long actius = 0;
+                for (Long n : ajuntar(session -> session.createQuery(hql, Long.class)
+                        .setParameter("id", personaId)
+                        .list())) {
+                    actius += n;
+                }
+                return (int) actius;
+            }
+            try (Session session = factory.openSession()) {
+                String hql = "SELECT p.prestecsActius FROM Persona p WHERE p.personaId = :id";
+                Integer actius = session.createQuery(hql, Integer.class)
+                    .setParameter("id", personaId)
+                    .uniqueResult();
+                return actius == null ? 0 : actius;
+            }
+        });
+    }
+
+    /**
+     * Compara el comptador de préstecs actius de cada persona amb la taula
+     * prestecs i torna quantes persones no quadren (-1 si hi ha hagut un
+     * error). Si 'reparar' és cert, els corregeix en la mateixa transacció.
+     * Amb particions el comptador només s'actualitza quan es repara.
+     */
+    public static int comprovarPrestecsActius(boolean reparar) {
+        return metriques.mesurar(Metriques.Operacio.COMPROVAR_PRESTECS_ACTIUS, () -> {
+            String recompte = "SELECT p.persona.personaId, count(p) FROM Prestec p "
+                + "WHERE p.actiu = true GROUP BY p.persona.personaId";
+            Map<Long, Integer> particionats = new HashMap<>();
+            if (isParticionat()) {
+                try {
+                    for (Object[] fila : ajuntar(session -> session.createQuery(recompte, Object[].class).list())) {
+                        particionats.merge((Long) fila[0], ((Long) fila[1]).intValue(), Integer::sum);
+                    }
+                } catch (HibernateException e) {
+                    error(e);
+                    return -1;
+                }
+            }
+            Integer desquadrades = executeWithRetry(session -> {
+                Map<Long, Integer> reals = particionats;
+                if (!isParticionat()) {
+                    reals = new HashMap<>();
+                    for (Object[] fila : session.createQuery(recompte, Object[].class).list()) {
+                        reals.put((Long) fila[0], ((Long) fila[1]).intValue());
+                    }
+                }
+
+                String actualitzar = "UPDATE Persona p SET p.prestecsActius = :n WHERE p.personaId = :id";
+                int errors = 0;
+                String comptadors = "SELECT p.personaId, p.prestecsActius FROM Persona p";
+                for (Object[] fila : session.createQuery(comptadors, Object[].class).list()) {
+                    long personaId = (Long) fila[0];
+                    int real = reals.getOrDefault(personaId, 0);
+                    if ((Integer) fila[1] != real) {
+                        errors++;
+                        if (reparar) {
+                            session.createMutationQuery(actualitzar)
+                                .setParameter("n", real)
+                                .setParameter("id", personaId)
+                                .executeUpdate();
+                        }
+                    }
+                }
+                return errors;
+            }, null);
+            return desquadrades == null ? -1 : desquadrades;
+        });
+    }
+
+    public static void registrarRetornPrestec(long prestecId, LocalDate dataRetornReal) {
+        metriques.mesurarAccio(Metriques.Operacio.REGISTRAR_RETORN_PRESTEC, () -> {
+            Exemplar exemplar = executeWithRetry(particions.perPrestec(prestecId),
+                session -> retornar(session, prestecId, dataRetornReal), null);
+            despresDeRetornar(prestecId, exemplar);
+        });
+    }
+
+    /**
+     * registrarRetornPrestec com a comanda d'un grup (executarEnGrup). El
+     * resultat és l'exemplar retornat, o null si el préstec no existeix o
+     * ja estava retornat.
+     */
+    static ComandaAgrupada<Exemplar> comandaRetorn(long prestecId, LocalDate dataRetornReal) {
+        return new ComandaAgrupada<>(particions.perPrestec(prestecId),
+            session -> retornar(session, prestecId, dataRetornReal),
+            exemplar -> despresDeRetornar(prestecId, exemplar), null);
+    }
+
+    // El préstec i el que se'n toca en un sol SELECT: l'exemplar (graf
+    // Prestec.retornar) i, sense particions, també la persona (Prestec.mostrar)
+    @SuppressWarnings("unchecked")
+    private static Exemplar retornar(Session session, long prestecId, LocalDate dataRetornReal) {
+        String graf = isParticionat() ? "Prestec.retornar" : "Prestec.mostrar";
+        Prestec prestec = session.byId(Prestec.class)
+            .withFetchGraph((RootGraph<Prestec>) session.getEntityGraph(graf))
+            .load(prestecId);
+        // Un préstec ja retornat no es torna a comptar
+        if (prestec == null || !prestec.isActiu()) {
+            return null;
+        }
+        prestec.setDataRetornReal(dataRetornReal);
+        prestec.setActiu(false);
+        prestec.getExemplar().setDisponible(true);
+        if (!isParticionat()) {
+            Persona persona = prestec.getPersona();
+            persona.setPrestecsActius(Math.max(0, persona.getPrestecsActius() - 1));
+        }
+        return prestec.getExemplar();
+    }
+
+    private static void despresDeRetornar(long prestecId, Exemplar exemplar) {
+        if (exemplar != null) {
+            indexDisponibilitat.actualitzar(exemplar.getExemplarId(), true, exemplar.getVersio());
+            indexCodiBarres.sincronitzar(exemplar.getCodiBarres(), exemplar.getExemplarId(), true,
+                indexDisponibilitat);
+            venciments.treure(prestecId);
+            informes.invalidar(Prestec.class);
+        }
+    }
+
+    // Codis de barres per consulta i ids per UPDATE (SQLite admet fins a 32766 paràmetres)
+    private static final int LOT_RETORNS = 1000;
+
+    // Un exemplar trobat pel codi de barres i el seu préstec actiu (null si no en té)
+    private record Retorn(long exemplarId, long versio, Long prestecId, Long personaId) {}
+
+    /**
+     * Retorns en bloc (bústies de retorn, màquines classificadores): tanca
+     * el préstec actiu de l'exemplar de cada codi de barres i el torna a
+     * deixar disponible. Per cada lot de codis, una consulta troba els
+     * exemplars amb els seus préstecs actius, i els préstecs, els exemplars
+     * i el comptador de les persones s'actualitzen amb UPDATEs de conjunt,
+     * tot en una sola transacció (amb particions, una per partició, amb els
+     * codis que encara no s'han trobat).
+     *
+     * Els UPDATE de conjunt no passen per les entitats: la versió dels
+     * exemplars la puja UPDATE VERSIONED, i Hibernate buida la regió de
+     * cache dels exemplars en acabar.
+     */
+    public static ResultatRetorns retornarPerCodiBarres(Collection<String> codisBarres, LocalDate dataRetornReal) {
+        return metriques.mesurar(Metriques.Operacio.RETORNAR_PER_CODI_BARRES, () -> {
+            Map<String, ResultatRetorns.Estat> estats = new LinkedHashMap<>();
+            List<String> pendents = new ArrayList<>();
+            for (String codi : codisBarres) {
+                if (estats.putIfAbsent(codi, ResultatRetorns.Estat.CODI_DESCONEGUT) == null) {
+                    pendents.add(codi);
+                }
+            }
+            boolean errors = false;
+            for (SessionFactory particio : particions.totes()) {
+                if (pendents.isEmpty()) {
+                    break;
+                }
+                List<String> codis = pendents;
+                Map<String, Retorn> trobats = executeWithRetry(particio,
+                    session -> retornarEnBloc(session, codis, dataRetornReal), null);
+                if (trobats == null) {
+                    errors = true;
+                    continue;
+                }
+                despresDeRetornarEnBloc(trobats, estats);
+                pendents = new ArrayList<>();
+                for (String codi : codis) {
+                    if (!trobats.containsKey(codi)) {
+                        pendents.add(codi);
+                    }
+                }
+            }
+            // Els que no s'han trobat podrien ser a la partició que ha fallat
+            if (errors) {
+                for (String codi : pendents) {
+                    estats.put(codi, ResultatRetorns.Estat.ERROR);
+                }
+            }
+            return new ResultatRetorns(estats);
+        });
+    }
+
+    private static Map<String, Retorn> retornarEnBloc(Session session, List<String> codisBarres,
+            LocalDate dataRetornReal) {
+        String consulta = "SELECT e.codiBarres, e.exemplarId, e.versio, p.prestecId, p.persona.personaId "
+            + "FROM Exemplar e LEFT JOIN Prestec p ON p.exemplar = e AND p.actiu = true "
+            + "WHERE e.codiBarres IN :codis";
+        Map<String, Retorn> trobats = new HashMap<>();
+        List<Long> prestecs = new ArrayList<>();
+        List<Long> exemplars = new ArrayList<>();
+        Map<Long, Integer> persones = new HashMap<>();
+        for (List<String> lot : lots(codisBarres)) {
+            for (Object[] fila : session.createQuery(consulta, Object[].class)
+                    .setParameter("codis", lot)
+                    .list()) {
+                Retorn retorn = new Retorn((Long) fila[1], (Long) fila[2], (Long) fila[3], (Long) fila[4]);
+                // Un exemplar amb dos préstecs actius: es tanquen tots dos
+                Retorn anterior = trobats.putIfAbsent((String) fila[0], retorn);
+                if (retorn.prestecId() != null) {
+                    prestecs.add(retorn.prestecId());
+                    persones.merge(retorn.personaId(), 1, Integer::sum);
+                    if (anterior == null || anterior.prestecId() == null) {
+                        trobats.put((String) fila[0], retorn);
+                        exemplars.add(retorn.exemplarId());
+                    }
+                }
+            }
+        }
+
+        String tancar = "UPDATE Prestec p SET p.actiu = false, p.dataRetornReal = :dia "
+            + "WHERE p.prestecId IN :ids";
+        for (List<Long> lot : lots(prestecs)) {
+            session.createMutationQuery(tancar)
+                .setParameter("dia", dataRetornReal)
+                .setParameter("ids", lot)
+                .executeUpdate();
+        }
+        String alliberar = "UPDATE VERSIONED Exemplar e SET e.disponible = true WHERE e.exemplarId IN :ids";
+        for (List<Long> lot : lots(exemplars)) {
+            session.createMutationQuery(alliberar)
+                .setParameter("ids", lot)
+                .executeUpdate();
+        }
+        // Amb particions el comptador no es manté: la persona és al catàleg
+        if (!isParticionat()) {
+            descomptarPrestecsActius(session, persones);
+        }
+        return trobats;
+    }
+
+    // Un UPDATE per cada quantitat diferent a descomptar (gairebé sempre 1)
+    private static void descomptarPrestecsActius(Session session, Map<Long, Integer> persones) {
+        Map<Integer, List<Long>> perQuantitat = new HashMap<>();
+        for (Map.Entry<Long, Integer> entrada : persones.entrySet()) {
+            perQuantitat.computeIfAbsent(entrada.getValue(), n -> new ArrayList<>()).add(entrada.getKey());
+        }
+        String hql = "UPDATE Persona p SET p.prestecsActius = "
+            + "CASE WHEN p.prestecsActius > :n THEN p.prestecsActius - :n ELSE 0 END "
+            + "WHERE p.personaId IN :ids";
+        for (Map.Entry<Integer, List<Long>> entrada : perQuantitat.entrySet()) {
+            for (List<Long> lot : lots(entrada.getValue())) {
+                session.createMutationQuery(hql)
+                    .setParameter("n", entrada.getKey())
+                    .setParameter("ids", lot)
+                    .executeUpdate();
+            }
+        }
+    }
+
+    // Un cop confirmada la transacció d'una partició
+    private static void despresDeRetornarEnBloc(Map<String, Retorn> trobats, Map<String, ResultatRetorns.Estat> estats) {
+        boolean retornats = false;
+        for (Map.Entry<String, Retorn> entrada : trobats.entrySet()) {
+            Retorn retorn = entrada.getValue();
+            if (retorn.prestecId() == null) {
+                estats.put(entrada.getKey(), ResultatRetorns.Estat.NO_EN_PRESTEC);
+                continue;
+            }
+            estats.put(entrada.getKey(), ResultatRetorns.Estat.RETORNAT);
+            indexDisponibilitat.actualitzar(retorn.exemplarId(), true, retorn.versio() + 1);
+            indexCodiBarres.sincronitzar(entrada.getKey(), retorn.exemplarId(), true, indexDisponibilitat);
+            venciments.treure(retorn.prestecId());
+            retornats = true;
+        }
+        if (retornats) {
+            informes.invalidar(Prestec.class);
+        }
+    }
+
+    private static <T> List<List<T>> lots(List<T> valors) {
+        List<List<T>> lots = new ArrayList<>();
+        for (int i = 0; i < valors.size(); i += LOT_RETORNS) {
+            lots.add(valors.subList(i, Math.min(i + LOT_RETORNS, valors.size())));
+        }
+        return lots;
+    }
+
+    private static final int GRUP_CONFIRMAT = -1;
+    private static final int GRUP_FALLIT = -2;
+    private static final int FLUSH_FALLIT = -3;
+
+    /**
+     * Executa les comandes en una sola transacció: un sol commit i, amb
+     * Durabilitat.FSYNC, un sol fsync per a totes. Si una comanda llança una
+     * excepció, es desfà el grup, aquella comanda es dona per fallida (el seu
+     * resultat és el de 'siFalla') i les altres es tornen a executar en una
+     * transacció nova. No es fan servir SAVEPOINT: després d'una excepció de
+     * Hibernate la transacció queda marcada per desfer-se sencera.
+     *
+     * Les comandes s'executen sense flush i al final es fa un sol flush, amb
+     * els INSERT i UPDATE en lots JDBC. Si aquest flush falla no se sap de
+     * quina comanda és la culpa: es torna a fer el grup amb un flush després
+     * de cada comanda.
+     *
+     * Si falla la transacció del grup, totes les comandes fallen. Els efectes
+     * en memòria (índex de disponibilitat, venciments, cache d'informes)
+     * s'apliquen després del commit.
+     *
+     * Amb particions, les comandes de cada partició fan el seu grup, i els
+     * grups de les diferents particions s'executen alhora.
+     */
+    static void executarEnGrup(List<? extends ComandaAgrupada<?>> comandes, CommitAgrupat.Durabilitat durabilitat) {
+        metriques.mesurarAccio(Metriques.Operacio.EXECUTAR_EN_GRUP, () -> {
+            boolean fsync = durabilitat == CommitAgrupat.Durabilitat.FSYNC;
+            Map<SessionFactory, List<ComandaAgrupada<?>>> perParticio = new LinkedHashMap<>();
+            for (ComandaAgrupada<?> comanda : comandes) {
+                perParticio.computeIfAbsent(comanda.getParticio(), k -> new ArrayList<>()).add(comanda);
+            }
+            List<Runnable> grups = new ArrayList<>(perParticio.size());
+            for (Map.Entry<SessionFactory, List<ComandaAgrupada<?>>> entrada : perParticio.entrySet()) {
+                grups.add(() -> executarGrup(entrada.getKey(), entrada.getValue(), fsync));
+            }
+            if (grups.size() == 1) {
+                grups.get(0).run();
+            } else if (!grups.isEmpty()) {
+                particions.executar(grups);
+            }
+        });
+    }
+
+    private static void executarGrup(SessionFactory particio, List<ComandaAgrupada<?>> comandes, boolean fsync) {
+        List<ComandaAgrupada<?>> pendents = new ArrayList<>(comandes);
+        boolean flushCadaComanda = false;
+        while (!pendents.isEmpty()) {
+            boolean perComanda = flushCadaComanda;
+            int fallida = executeWithRetry(particio, session -> executarComandes(session, pendents, perComanda),
+                GRUP_FALLIT, fsync);
+            if (fallida == GRUP_CONFIRMAT) {
+                pendents.forEach(ComandaAgrupada::confirmar);
+                return;
+            }
+            if (fallida == GRUP_FALLIT) {
+                pendents.forEach(ComandaAgrupada::fallar);
+                return;
+            }
+            if (fallida == FLUSH_FALLIT) {
+                flushCadaComanda = true;
+            } else {
+                pendents.remove(fallida).fallar();
+            }
+        }
+    }
+
+    // Torna la posició de la comanda que ha fallat, FLUSH_FALLIT o GRUP_CONFIRMAT
+    private static int executarComandes(Session session, List<ComandaAgrupada<?>> comandes,
+            boolean flushCadaComanda) {
+        session.setJdbcBatchSize(batchSize);
+        for (int i = 0; i < comandes.size(); i++) {
+            try {
+                comandes.get(i).executar(session);
+                if (flushCadaComanda) {
+                    session.flush();
+                }
+            } catch (OptimisticLockException | PessimisticLockException
+                    | StaleStateException | LockAcquisitionException e) {
+                // Conflicte amb un altre escriptor: executeWithRetry torna a fer tot el grup
+                throw e;
+            } catch (RuntimeException e) {
+                error(e);
+                session.getTransaction().markRollbackOnly();
+                return i;
+            }
+        }
+        try {
+            session.flush();
+        } catch (OptimisticLockException | PessimisticLockException
+                | StaleStateException | LockAcquisitionException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            error(e);
+            session.getTransaction().markRollbackOnly();
+            return FLUSH_FALLIT;
+        }
+        return GRUP_CONFIRMAT;
+    }
+
+    /**
+     * Préstecs actius que havien de tornar-se abans de 'dia', per data de
+     * retorn prevista. La condició la resol SQLite amb l'índex
+     * (actiu, data_retorn_prevista) en lloc de carregar tots els préstecs.
+     * Amb particions, les llistes de cada partició es tornen a ordenar juntes.
+     */
+    public static List<Prestec> findPrestecsRetardats(LocalDate dia) {
+        return metriques.mesurar(Metriques.Operacio.FIND_PRESTECS_RETARDATS, () -> {
+            String hql = "FROM Prestec p WHERE p.actiu = true AND p.dataRetornPrevista < :dia "
+                + "ORDER BY p.dataRetornPrevista";
+            List<Prestec> retardats = ajuntar(session -> consultaLlistat(session, hql, Prestec.class)
+                .setParameter("dia", dia)
+                .list());
+            if (isParticionat()) {
+                retardats.sort(Comparator.comparing(Prestec::getDataRetornPrevista));
+            }
+            return retardats;
+        });
+    }
+
+    public static long comptarPrestecsRetardats(LocalDate dia) {
+        return metriques.mesurar(Metriques.Operacio.COMPTAR_PRESTECS_RETARDATS, () -> {
+            String hql = "SELECT count(p) FROM Prestec p WHERE p.actiu = true AND p.dataRetornPrevista < :dia";
+            long retardats = 0;
+            for (Long n : ajuntar(session -> session.createQuery(hql, Long.class)
+                    .setParameter("dia", dia)
+                    .list())) {
+                retardats += n;
+            }
+            return retardats;
+        });
+    }
+
+    /**
+     * Biblioteques amb algun exemplar disponible del llibre, consultant la
+     * base de dades. L'índex en memòria (getIndexDisponibilitat) respon el
+     * mateix sense fer cap consulta, si el llibre hi és sencer (isComplet).
+     */
+    public static List<Long> findBibliotequesAmbExemplarDisponible(long llibreId) {
+        return metriques.mesurar(Metriques.Operacio.FIND_BIBLIOTEQUES_AMB_EXEMPLAR_DISPONIBLE, () -> {
+            String hql = "SELECT DISTINCT e.biblioteca.bibliotecaId FROM Exemplar e "
+                + "WHERE e.llibre.llibreId = :llibreId AND e.disponible = true";
+            return ajuntar(session -> session.createQuery(hql, Long.class)
+                .setParameter("llibreId", llibreId)
+                .list());
+        });
+    }
+
+    // Els pesos de bm25 són per columna de IndexCerca: titol, editorial, autors
+    private static final String SQL_CERCA =
+        "SELECT l.llibre_id, l.titol, l.editorial, "
+        + "(SELECT group_concat(a.nom, ', ') FROM autor_llibre al JOIN autors a ON a.autor_id = al.autor_id "
+        + "WHERE al.llibre_id = l.llibre_id), -c.puntuacio "
+        + "FROM (SELECT rowid AS id, bm25(" + IndexCerca.TAULA + ", 10.0, 1.0, 5.0) AS puntuacio "
+        + "FROM " + IndexCerca.TAULA + " WHERE " + IndexCerca.TAULA + " MATCH ?1 "
+        + "ORDER BY puntuacio LIMIT ?2 OFFSET ?3) c "
+        + "JOIN llibres l ON l.llibre_id = c.id ORDER BY c.puntuacio";
+
+    /**
+     * Cerca llibres pel títol, l'editorial o el nom dels autors amb l'índex
+     * FTS5, del més rellevant al menys. Cada paraula del text es busca com a
+     * prefix i hi han de ser totes; el títol pesa més que els autors, i els
+     * autors més que l'editorial. 'pagina' comença a 0.
+     */
+    public static List<LlibreTrobat> cercarLlibres(String text, int pagina, int midaPagina) {
+        return metriques.mesurar(Metriques.Operacio.CERCAR_LLIBRES, () -> {
+            String consulta = IndexCerca.consulta(text);
+            if (consulta == null || midaPagina <= 0) {
+                return new ArrayList<>();
+            }
+            try (Session session = obrirLectura()) {
+                List<Object[]> files = session.createNativeQuery(SQL_CERCA, Object[].class)
+                    .setParameter(1, consulta)
+                    .setParameter(2, midaPagina)
+                    .setParameter(3, (long) Math.max(0, pagina) * midaPagina)
+                    .list();
+                List<LlibreTrobat> resultat = new ArrayList<>(files.size());
+                for (Object[] fila : files) {
+                    resultat.add(new LlibreTrobat(((Number) fila[0]).longValue(), (String) fila[1],
+                        (String) fila[2], (String) fila[3], ((Number) fila[4]).doubleValue()));
+                }
+                return resultat;
+            }
+        });
+    }
+
+    /**
+     * Nombre total de llibres que troba cercarLlibres(text, ...)
+     */
+    public static long comptarLlibresTrobats(String text) {
+        return metriques.mesurar(Metriques.Operacio.COMPTAR_LLIBRES_TROBATS, () -> {
+            String consulta = IndexCerca.consulta(text);
+            if (consulta == null) {
+                return 0L;
+            }
+            try (Session session = obrirLectura()) {
+                String sql = "SELECT count(*) FROM " + IndexCerca.TAULA + " WHERE " + IndexCerca.TAULA + " MATCH ?1";
+                return ((Number) session.createNativeQuery(sql, Object.class)
+                    .setParameter(1, consulta)
+                    .getSingleResult()).longValue();
+            }
+        });
+    }
+
+    /**
+     * Torna a fer l'índex de cerca des de zero. Cal després de canviar
+     * llibres o autors sense passar per una Session (HQL massiu,
+     * StatelessSession o SQL directe). Torna els llibres indexats, o -1.
+     */
+    public static int reconstruirIndexCerca() {
+        return metriques.mesurar(Metriques.Operacio.RECONSTRUIR_INDEX_CERCA, () -> {
+            try (Session session = factory.openSession()) {
+                Transaction tx = session.beginTransaction();
+                int llibres = session.doReturningWork(IndexCerca::reconstruir);
+                tx.commit();
+                return llibres;
+            } catch (HibernateException e) {
+                error(e);
+                return -1;
+            }
+        });
+    }
+
+    /**
+     * Cerca una entitat per id. Llibre, Autor, Biblioteca i Exemplar
+     * se serveixen de la cache de segon nivell si hi són (amb particions,
+     * els exemplars es llegeixen de la seva partició, que no en té).
+     * Els exemplars i els préstecs venen amb les referències del seu
+     * llistat (vegeu grafLlistat).
+     */
+    public static <T> T findById(Class<T> clazz, long id) {
+        return metriques.mesurar(Metriques.Operacio.FIND_BY_ID, () -> {
+            SessionFactory particio = !particionada(clazz) ? factory
+                : clazz == Exemplar.class ? particioExemplar(id) : particions.perPrestec(id);
+            try (Session session = particio.openSession()) {
+                RootGraph<T> graf = grafLlistat(session, clazz);
+                return graf == null ? session.get(clazz, id) : session.byId(clazz).withFetchGraph(graf).load(id);
+            }
+        });
+    }
+
+    // Fila de la cache de findLlibresAmbAutors: només els valors, i cada
+    // crida en fa els seus objectes
+    private record LlibreAmbAutors(long llibreId, String isbn, String titol, String editorial,
+            int anyPublicacio, long[] autorIds, String[] autors) {
+
+        static LlibreAmbAutors de(Llibre llibre) {
+            long[] ids = new long[llibre.getAutors().size()];
+            String[] noms = new String[ids.length];
+            int i = 0;
+            for (Autor autor : llibre.getAutors()) {
+                ids[i] = autor.getAutorId();
+                noms[i++] = autor.getNom();
+            }
+            return new LlibreAmbAutors(llibre.getLlibreId(), llibre.getIsbn(), llibre.getTitol(),
+                llibre.getEditorial(), llibre.getAnyPublicacio(), ids, noms);
+        }
+
+        // Un autor que surt a diversos llibres és el mateix objecte ('autors')
+        Llibre llibre(Map<Long, Autor> autors) {
+            Llibre llibre = new Llibre(isbn, titol, editorial, anyPublicacio);
+            llibre.setLlibreId(llibreId);
+            for (int i = 0; i < autorIds.length; i++) {
+                String nom = this.autors[i];
+                llibre.addAutor(autors.computeIfAbsent(autorIds[i], id -> {
+                    Autor autor = new Autor(nom);
+                    autor.setAutorId(id);
+                    return autor;
+                }));
+            }
+            return llibre;
+        }
+    }
+
+    /**
+     * Llibres amb els seus autors ja carregats (sense exemplars). Surt de la
+     * cache d'informes si no hi ha hagut canvis de llibres o autors; la cache
+     * només guarda els valors, i cada crida rep objectes nous que pot
+     * modificar sense afectar les altres.
+     */
+    public static List<Llibre> findLlibresAmbAutors() {
+        return metriques.mesurar(Metriques.Operacio.FIND_LLIBRES_AMB_AUTORS, () -> {
+            List<LlibreAmbAutors> files = informes.obtenir(CacheInformes.Informe.LLIBRES_AMB_AUTORS, () -> {
+                try (Session session = obrirLectura()) {
+                    String hql = "SELECT DISTINCT l FROM Llibre l JOIN FETCH l.autors";
+                    return session.createQuery(hql, Llibre.class).list().stream()
+                        .map(LlibreAmbAutors::de)
+                        .toList();
+                }
+            });
+            Map<Long, Autor> autors = new HashMap<>();
+            List<Llibre> llibres = new ArrayList<>(files.size());
+            for (LlibreAmbAutors fila : files) {
+                llibres.add(fila.llibre(autors));
+            }
+            return llibres;
+        });
+    }
+
+    /**
+     * @deprecated fa servir listLlibresEnPrestec o streamLlibresEnPrestec,
+     * que no creen un Object[] per fila
+     */
+    @Deprecated
+    public static List<Object[]> findLlibresEnPrestec() {
+        List<Object[]> result = new ArrayList<>();
+        for (LlibreEnPrestec fila : listLlibresEnPrestec()) {
+            result.add(new Object[] {fila.titol(), fila.persona()});
+        }
+        return result;
+    }
+
+    /**
+     * @deprecated fa servir listLlibresAmbBiblioteques o streamLlibresAmbBiblioteques
+     */
+    @Deprecated
+    public static List<Object[]> findLlibresAmbBiblioteques() {
+        List<Object[]> result = new ArrayList<>();
+        for (LlibreBiblioteca fila : listLlibresAmbBiblioteques()) {
+            result.add(new Object[] {fila.titol(), fila.biblioteca()});
+        }
+        return result;
+    }
+
+    private static final String HQL_LLIBRES_EN_PRESTEC =
+        "SELECT new com.project.dao.LlibreEnPrestec(l.titol, pe.nom) "
+        + "FROM Prestec p JOIN p.exemplar e JOIN e.llibre l JOIN p.persona pe "
+        + "WHERE p.actiu = true";
+
+    private static final String HQL_LLIBRES_AMB_BIBLIOTEQUES =
+        "SELECT new com.project.dao.LlibreBiblioteca(l.titol, b.nom) "
+        + "FROM Exemplar e JOIN e.llibre l JOIN e.biblioteca b";
+
+    /**
+     * Llibres en préstec i qui els té, com a files tipades. Surt de la
+     * cache d'informes si no hi ha hagut préstecs ni retorns des de l'última
+     * consulta; la llista que es torna no es pot modificar.
+     */
+    public static List<LlibreEnPrestec> listLlibresEnPrestec() {
+        return metriques.mesurar(Metriques.Operacio.LIST_LLIBRES_EN_PRESTEC, () -> {
+            return informes.obtenir(CacheInformes.Informe.LLIBRES_EN_PRESTEC,
+                () -> listProjection(HQL_LLIBRES_EN_PRESTEC, LlibreEnPrestec.class));
+        });
+    }
+
+    /**
+     * Com listLlibresEnPrestec, però passa les files al consumidor a mesura
+     * que es llegeixen, sense construir la llista. Si l'informe és a la
+     * cache, es passen les files de la cache.
+     */
+    public static void streamLlibresEnPrestec(Consumer<? super LlibreEnPrestec> consumidor) {
+        metriques.mesurarAccio(Metriques.Operacio.STREAM_LLIBRES_EN_PRESTEC, () -> {
+            List<LlibreEnPrestec> files = informes.vigent(CacheInformes.Informe.LLIBRES_EN_PRESTEC);
+            if (files != null) {
+                files.forEach(consumidor);
+            } else {
+                streamProjection(HQL_LLIBRES_EN_PRESTEC, LlibreEnPrestec.class, consumidor);
+            }
+        });
+    }
+
+    /**
+     * Llibres i les biblioteques on n'hi ha exemplars, com a files tipades.
+     * Surt de la cache d'informes si no hi ha hagut canvis de llibres,
+     * exemplars ni biblioteques; la llista no es pot modificar.
+     */
+    public static List<LlibreBiblioteca> listLlibresAmbBiblioteques() {
+        return metriques.mesurar(Metriques.Operacio.LIST_LLIBRES_AMB_BIBLIOTEQUES, () -> {
+            return informes.obtenir(CacheInformes.Informe.LLIBRES_AMB_BIBLIOTEQUES,
+                () -> listProjection(HQL_LLIBRES_AMB_BIBLIOTEQUES, LlibreBiblioteca.class));
+        });
+    }
+
+    public static void streamLlibresAmbBiblioteques(Consumer<? super LlibreBiblioteca> consumidor) {
+        metriques.mesurarAccio(Metriques.Operacio.STREAM_LLIBRES_AMB_BIBLIOTEQUES, () -> {
+            List<LlibreBiblioteca> files = informes.vigent(CacheInformes.Informe.LLIBRES_AMB_BIBLIOTEQUES);
+            if (files != null) {
+                files.forEach(consumidor);
+            } else {
+                streamProjection(HQL_LLIBRES_AMB_BIBLIOTEQUES, LlibreBiblioteca.class, consumidor);
+            }
+        });
+    }
+
+    // Amb particions, es consulten totes alhora i s'ajunten les files
+    private static <R> List<R> listProjection(String hql, Class<R> clazz) {
+        return ajuntar(session -> session.createQuery(hql, clazz).list());
+    }
+
+    /**
+     * Escriu l'informe de llibres en préstec fila a fila, a mesura que es
+     * llegeixen de la base de dades
+     */
+    public static void informeLlibresEnPrestec(EscriptorInforme escriptor) {
+        streamLlibresEnPrestec(fila -> fila.escriure(escriptor));
+        escriptor.flush();
+    }
+
+    public static void informeLlibresAmbBiblioteques(EscriptorInforme escriptor) {
+        streamLlibresAmbBiblioteques(fila -> fila.escriure(escriptor));
+        escriptor.flush();
+    }
+
+    // Les projeccions no entren al context de persistència: no cal fer clear.
+    // Amb particions, es recorren una darrere l'altra
+    private static <R> void streamProjection(String hql, Class<R> clazz, Consumer<? super R> consumidor) {
+        for (SessionFactory particio : lectures()) {
+            try (Session session = obrirLectura(particio);
+                 ScrollableResults<R> results = session.createQuery(hql, clazz)
+                    .setFetchSize(DEFAULT_FETCH_SIZE)
+                    .scroll(ScrollMode.FORWARD_ONLY)) {
+                while (results.next()) {
+                    consumidor.accept(results.get());
+                }
+            }
+        }
+    }
+
+    /**
+     * Les referències @ManyToOne són LAZY. Els llistats d'exemplars i de
+     * préstecs (streamCollection, findPrestecsRetardats i findById, i
+     * listCollection dels exemplars) carreguen en el mateix SELECT les que
+     * mostra el toString(), amb el graf '<Entitat>.mostrar'; la resta es
+     * queden com a proxies.
+     * Les altres entitats no tenen referències i es carreguen soles: els
+     * seus grafs .mostrar són de col·leccions, que només carrega
+     * writeCollection.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> RootGraph<T> grafLlistat(Session session, Class<T> clazz) {
+        return clazz == Exemplar.class || clazz == Prestec.class
+            ? (RootGraph<T>) session.getEntityGraph(clazz.getSimpleName() + ".mostrar") : null;
+    }
+
+    private static <T> Query<T> consultaLlistat(Session session, String hql, Class<T> clazz) {
+        Query<T> query = session.createQuery(hql, clazz);
+        RootGraph<T> graf = grafLlistat(session, clazz);
+        return graf == null ? query : query.applyFetchGraph(graf);
+    }
+
+    /**
+     * Tota la taula en una llista. Els préstecs no fan servir el graf: hi ha
+     * molts préstecs de cada exemplar i de cada persona, i el JOIN repetiria
+     * les seves columnes a cada fila. Amb el perfil Prestec.llistat, en
+     * acabar la consulta Hibernate carrega els exemplars i les persones
+     * diferents en SELECTs de 500 ids (@BatchSize).
+     */
+    public static <T> Collection<T> listCollection(Class<T> clazz) {
+        return metriques.mesurar(Metriques.Operacio.LIST_COLLECTION, () -> {
+            String hql = "FROM " + clazz.getSimpleName();
+            if (particionada(clazz)) {
+                return ajuntar(session -> llistar(session, hql, clazz));
+            }
+            try (Session session = obrirLectura()) {
+                return llistar(session, hql, clazz);
+            }
+        });
+    }
+
+    private static <T> List<T> llistar(Session session, String hql, Class<T> clazz) {
+        if (clazz == Prestec.class) {
+            session.enableFetchProfile("Prestec.llistat");
+            return session.createQuery(hql, clazz).list();
+        }
+        return consultaLlistat(session, hql, clazz).list();
+    }
+
+    public static <T> Stream<T> streamCollection(Class<T> clazz) {
+        return streamCollection(clazz, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Recorre tota la taula amb un cursor (ScrollableResults) en lloc de
+     * carregar-la sencera en una llista. Cada 'fetchSize' files es fa clear
+     * de la sessió, de manera que la memòria no creix amb la mida de la taula.
+     * Les entitats que arriben al Stream ja poden estar desvinculades.
+     *
+     * El Stream manté oberta la sessió: s'ha de tancar (try-with-resources).
+     * Amb particions, els exemplars i els préstecs es recorren partició per
+     * partició i la sessió de cadascuna s'obre quan s'hi arriba.
+     */
+    public static <T> Stream<T> streamCollection(Class<T> clazz, int fetchSize) {
+        return metriques.mesurar(Metriques.Operacio.STREAM_COLLECTION, () -> {
+            if (particionada(clazz)) {
+                return concatenar(particions.totes(), particio -> streamCollection(particio, clazz, fetchSize));
+            }
+            return streamCollection(lectura, clazz, fetchSize);
+        });
+    }
+
+    private static <T> Stream<T> streamCollection(SessionFactory particio, Class<T> clazz, int fetchSize) {
+        Session session = obrirLectura(particio);
+        try {
+            session.setCacheMode(CacheMode.IGNORE);
+            String hql = "FROM " + clazz.getSimpleName();
+            ScrollableResults<T> results = consultaLlistat(session, hql, clazz)
+                .setFetchSize(fetchSize)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY);
+
+            Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(
+                    Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                private long count;
+
+                @Override
+                public boolean tryAdvance(Consumer<? super T> action) {
+                    if (!results.next()) {
+                        return false;
+                    }
+                    action.accept(results.get());
+                    if (++count % fetchSize == 0) {
+                        session.clear();
+                    }
+                    return true;
+                }
+            };
+
+            return StreamSupport.stream(spliterator, false).onClose(() -> {
+                results.close();
+                session.close();
+            });
+        } catch (HibernateException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    // Els Streams de cada partició un darrere l'altre, sense obrir-ne cap
+    // fins que s'hi arriba. Stream.flatMap no serveix: amb iterator() o
+    // spliterator() llegeix cada partició sencera abans de tornar-ne res
+    private static <T> Stream<T> concatenar(Collection<SessionFactory> factories,
+            Function<SessionFactory, Stream<T>> obrir) {
+        Iterator<SessionFactory> pendents = factories.iterator();
+        List<Stream<T>> obertes = new ArrayList<>(1);
+        Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private Spliterator<T> actual;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                while (actual == null || !actual.tryAdvance(action)) {
+                    obertes.forEach(Stream::close);
+                    obertes.clear();
+                    actual = null;
+                    if (!pendents.hasNext()) {
+                        return false;
+                    }
+                    Stream<T> stream = obrir.apply(pendents.next());
+                    obertes.add(stream);
+                    actual = stream.spliterator();
+                }
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(() -> obertes.forEach(Stream::close));
+    }
+    
+    public static <T> String collectionToString(Class<T> clazz, Collection<T> collection) {
+        StringBuilder sb = new StringBuilder();
+        writeCollection(clazz, collection, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Escriu el toString() de cada element, un per línia, directament a 'out'
+     * (un Writer, un PrintStream, un StringBuilder...). Els elements es
+     * carreguen i s'escriuen per blocs, i la sessió es buida després de cada
+     * bloc: la memòria no creix amb la mida de la col·lecció.
+     */
+    public static <T> void writeCollection(Class<T> clazz, Collection<T> collection, Appendable out) {
+        metriques.mesurarAccio(Metriques.Operacio.WRITE_COLLECTION, () -> {
+            try {
+                forEachForRendering(clazz, collection, item -> {
+                    try {
+                        out.append(item.toString()).append('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (Exception e) {
+                error(e);
+            }
+        });
+    }
+
+    /**
+     * Com writeCollection, però en el format de l'escriptor (text, CSV o NDJSON)
+     */
+    public static <T extends FilaInforme> void writeCollection(Class<T> clazz, Collection<T> collection,
+            EscriptorInforme escriptor) {
+        metriques.mesurarAccio(Metriques.Operacio.WRITE_COLLECTION, () -> {
+            try {
+                forEachForRendering(clazz, collection, item -> item.escriure(escriptor));
+            } catch (Exception e) {
+                error(e);
+            }
+            escriptor.flush();
+        });
+    }
+
+    // Una sessió per partició, oberta el primer cop que un bloc en té elements
+    private static <T> void forEachForRendering(Class<T> clazz, Collection<T> collection, Consumer<T> consumidor) {
+        Map<SessionFactory, Session> sessions = new HashMap<>();
+        try {
+            List<T> bloc = new ArrayList<>(Math.min(collection.size(), RENDER_BATCH_SIZE));
+            for (T item : collection) {
+                bloc.add(item);
+                if (bloc.size() == RENDER_BATCH_SIZE) {
+                    renderBloc(sessions, clazz, bloc, consumidor);
+                    sessions.values().forEach(Session::clear);
+                    bloc.clear();
+                }
+            }
+            if (!bloc.isEmpty()) {
+                renderBloc(sessions, clazz, bloc, consumidor);
+            }
+        } finally {
+            sessions.values().forEach(Session::close);
+        }
+    }
+
+    /**
+     * Carrega el bloc amb loadForRendering a la partició de cada element:
+     * els exemplars, els préstecs i les biblioteques (pels seus exemplars)
+     * a la seva, i la resta (o tot, sense particions) a la SessionFactory de
+     * lectura. Si el bloc toca més d'una partició, els carregats es tornen a
+     * posar en l'ordre del bloc abans de passar-los al consumidor.
+     */
+    private static <T> void renderBloc(Map<SessionFactory, Session> sessions, Class<T> clazz, List<T> bloc,
+            Consumer<T> consumidor) {
+        Map<SessionFactory, List<T>> perParticio = new LinkedHashMap<>();
+        for (T item : bloc) {
+            perParticio.computeIfAbsent(particioPerMostrar(item), k -> new ArrayList<>()).add(item);
+        }
+        if (perParticio.size() == 1) {
+            SessionFactory particio = perParticio.keySet().iterator().next();
+            loadForRendering(sessions.computeIfAbsent(particio, Manager::obrirLectura), clazz, bloc)
+                .forEach(consumidor);
+            return;
+        }
+        PersistenceUnitUtil util = factory.getPersistenceUnitUtil();
+        Map<Object, T> carregats = new HashMap<>();
+        for (Map.Entry<SessionFactory, List<T>> entrada : perParticio.entrySet()) {
+            Session session = sessions.computeIfAbsent(entrada.getKey(), Manager::obrirLectura);
+            for (T carregat : loadForRendering(session, clazz, entrada.getValue())) {
+                if (carregat != null) {
+                    carregats.put(util.getIdentifier(carregat), carregat);
+                }
+            }
+        }
+        for (T item : bloc) {
+            consumidor.accept(carregats.get(util.getIdentifier(item)));
+        }
+    }
+
+    private static SessionFactory particioPerMostrar(Object item) {
+        if (!isParticionat()) {
+            return lectura;
+        }
+        if (item instanceof Exemplar exemplar) {
+            return particioExemplar(exemplar.getExemplarId());
+        }
+        if (item instanceof Prestec prestec) {
+            return particions.perPrestec(prestec.getPrestecId());
+        }
+        if (item instanceof Biblioteca biblioteca) {
+            return particions.perBiblioteca(biblioteca.getBibliotecaId());
+        }
+        return lectura;
+    }
+
+    /**
+     * Torna a carregar els elements dins la sessió amb el graf '<Entitat>.mostrar',
+     * que inclou totes les associacions que recorre el toString(). Es carreguen
+     * per blocs d'ids amb les associacions en el mateix SELECT, així el nombre de
+     * consultes no depèn de quants elements o relacions tingui la col·lecció.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> loadForRendering(Session session, Class<T> clazz, Collection<T> collection) {
+        List<Object> ids = new ArrayList<>(collection.size());
+        PersistenceUnitUtil util = factory.getPersistenceUnitUtil();
+        for (T item : collection) {
+            ids.add(util.getIdentifier(item));
+        }
+        RootGraph<T> graph = (RootGraph<T>) session.getEntityGraph(clazz.getSimpleName() + ".mostrar");
+        return session.byMultipleIds(clazz)
+            .withFetchGraph(graph)
+            .withBatchSize(RENDER_BATCH_SIZE)
+            .multiLoad(ids);
+    }
+
+    /**
+     * Una fila per línia, en el mateix format que formatMultipleResult
+     */
+    public static String formatResults(Collection<? extends FilaInforme> results) {
+        StringBuilder sb = new StringBuilder();
+        EscriptorInforme.sobre(sb, FormatInforme.TEXT).files(results);
+        return sb.toString();
+    }
+
+    public static String formatMultipleResult(List<Object[]> results) {
+        StringBuilder sb = new StringBuilder();
+        writeMultipleResult(results, EscriptorInforme.sobre(sb, FormatInforme.TEXT));
+        return sb.toString();
+    }
+
+    /**
+     * Escriu files Object[] sense construir el text sencer. En CSV i NDJSON
+     * les columnes es diuen c1, c2...
+     */
+    public static void writeMultipleResult(List<Object[]> results, EscriptorInforme escriptor) {
+        for (Object[] row : results) {
+            escriptor.fila();
+            for (int i = 0; i < row.length; i++) {
+                escriptor.camp(i < NOMS_COLUMNES.length ? NOMS_COLUMNES[i] : "c" + (i + 1), row[i]);
+            }
+            escriptor.fi();
+        }
+        escriptor.flush();
     }
 }
@@ -0,0 +1,430 @@
+package com.project.dao;
+
+import java.lang.reflect.Method;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.project.domain.Exemplar;
+import com.project.domain.Llibre;
+import com.project.domain.Persona;
+import com.project.domain.Prestec;
+
+/**
+ * Versió asíncrona del Manager: cada mètode torna un CompletableFuture.
+ *
+ * Les lectures s'executen en fils virtuals si la JVM en té (Java 21 o
+ * posterior) i si no, en un grup fix de fils, tants com connexions té el
+ * pool. Les escriptures van totes a una cua limitada que buida un sol fil
+ * escriptor, un darrere l'altre: SQLite només admet un escriptor a la
+ * vegada, i així les escriptures fetes per aquí no s'esperen entre elles
+ * pel bloqueig ni han de reintentar per SQLITE_BUSY. Quan la cua és plena,
+ * qui demana l'escriptura s'espera fins que hi ha lloc (contrapressió).
+ *
+ * Els préstecs i els retorns es poden agrupar (CommitAgrupat): el fil
+ * escriptor n'executa uns quants seguits en una sola transacció, i cadascun
+ * rep el seu resultat quan s'ha fet el commit. Per defecte cada un va en la
+ * seva transacció.
+ *
+ * Els futurs es completen en els fils de lectura, mai en el fil escriptor:
+ * el que s'hi encadeni (thenApply...) no atura les escriptures.
+ *
+ * Cal que la SessionFactory del Manager ja estigui creada. close() acaba
+ * les escriptures que ja són a la cua abans d'aturar-se.
+ */
+public class ManagerAsincron implements AutoCloseable {
+
+    public static final int MIDA_CUA_PER_DEFECTE = 1024;
+    // Com hibernate.hikari.maximumPoolSize: més fils de lectura no farien més consultes alhora
+    public static final int FILS_LECTURA_PER_DEFECTE = 8;
+
+    private static final Escriptura<Void> FI = new Escriptura<>(() -> null, null, null);
+
+    // Una escriptura qualsevol ('feina') o una comanda que es pot agrupar
+    private record Escriptura<T>(Supplier<T> feina, ComandaAgrupada<T> comanda, CompletableFuture<T> resultat) {
+
+        void executar(Executor completar) {
+            T valor;
+            try {
+                valor = feina.get();
+            } catch (Throwable e) {
+                fallar(completar, e);
+                return;
+            }
+            completarEn(completar, () -> resultat.complete(valor));
+        }
+
+        void completar(Executor completar) {
+            T valor = comanda.getResultat();
+            completarEn(completar, () -> resultat.complete(valor));
+        }
+
+        void fallar(Executor completar, Throwable error) {
+            completarEn(completar, () -> resultat.completeExceptionally(error));
+        }
+
+        // Si els fils de lectura ja no accepten feina, es completa en aquest fil
+        private static void completarEn(Executor completar, Runnable accio) {
+            try {
+                completar.execute(accio);
+            } catch (RejectedExecutionException e) {
+                accio.run();
+            }
+        }
+    }
+
+    private final ExecutorService lectors;
+    private final boolean filsVirtuals;
+    private final BlockingQueue<Escriptura<?>> cua;
+    private final Thread escriptor;
+    private final CommitAgrupat grup;
+    private final AtomicInteger afegint = new AtomicInteger();
+    private final AtomicLong escriptures = new AtomicLong();
+    private final AtomicLong esperesCuaPlena = new AtomicLong();
+    private final AtomicLong grups = new AtomicLong();
+    private final AtomicLong comandesAgrupades = new AtomicLong();
+    private volatile boolean tancat;
+
+    public ManagerAsincron() {
+        this(MIDA_CUA_PER_DEFECTE, FILS_LECTURA_PER_DEFECTE);
+    }
+
+    public ManagerAsincron(int midaCua, int filsLectura) {
+        this(midaCua, filsLectura, CommitAgrupat.DESACTIVAT);
+    }
+
+    /**
+     * 'midaCua': escriptures que poden estar esperant el fil escriptor.
+     * 'filsLectura': mida del grup de fils de lectura quan no hi ha fils
+     * virtuals. 'grup': com s'agrupen els préstecs i retorns.
+     */
+    public ManagerAsincron(int midaCua, int filsLectura, CommitAgrupat grup) {
+        this.grup = grup;
+        ExecutorService virtuals = crearExecutorVirtual();
+        filsVirtuals = virtuals != null;
+        lectors = filsVirtuals ? virtuals : Executors.newFixedThreadPool(filsLectura, fils("dades-lectura"));
+        cua = new ArrayBlockingQueue<>(midaCua);
+        escriptor = fils("dades-escriptura").newThread(this::buidarCua);
+        escriptor.start();
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() només existeix a partir de Java 21
+    private static ExecutorService crearExecutorVirtual() {
+        try {
+            Method metode = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) metode.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory fils(String nom) {
+        AtomicInteger comptador = new AtomicInteger();
+        return feina -> {
+            Thread fil = new Thread(feina, nom + "-" + comptador.incrementAndGet());
+            fil.setDaemon(true);
+            return fil;
+        };
+    }
+
+    private void buidarCua() {
+        Escriptura<?> seguent = null;
+        while (true) {
+            Escriptura<?> escriptura = seguent;
+            seguent = null;
+            if (escriptura == null) {
+                try {
+                    escriptura = cua.take();
+                } catch (InterruptedException e) {
+                    // Només s'atura amb FI, perquè cap escriptura de la cua quedi sense resposta
+                    continue;
+                }
+            }
+            if (escriptura == FI) {
+                return;
+            }
+            List<Escriptura<?>> lot = new ArrayList<>();
+            lot.add(escriptura);
+            try {
+                if (escriptura.comanda() == null) {
+                    escriptura.executar(lectors);
+                    escriptures.incrementAndGet();
+                    continue;
+                }
+                seguent = omplirLot(lot);
+                executarLot(lot);
+            } catch (Throwable e) {
+                // El fil escriptor no es pot aturar: les escriptures del lot
+                // que encara no tenen resposta fallen i es continua amb la cua
+                for (Escriptura<?> fallida : lot) {
+                    fallida.fallar(lectors, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Afegeix al lot les comandes que arribin dins la finestra. Torna la
+     * primera escriptura de la cua que no s'hi pot afegir, o null.
+     */
+    private Escriptura<?> omplirLot(List<Escriptura<?>> lot) {
+        long limit = System.nanoTime() + grup.finestra().toNanos();
+        while (lot.size() < grup.maxComandes()) {
+            Escriptura<?> escriptura;
+            try {
+                escriptura = cua.poll(limit - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                return null;
+            }
+            if (escriptura == null) {
+                return null;
+            }
+            if (escriptura.comanda() == null) {
+                return escriptura;
+            }
+            lot.add(escriptura);
+        }
+        return null;
+    }
+
+    private void executarLot(List<Escriptura<?>> lot) {
+        List<ComandaAgrupada<?>> comandes = new ArrayList<>(lot.size());
+        for (Escriptura<?> escriptura : lot) {
+            comandes.add(escriptura.comanda());
+        }
+        try {
+            Manager.executarEnGrup(comandes, grup.durabilitat());
+        } catch (Throwable e) {
+            // Amb particions, els grups d'altres particions poden haver fet
+            // ja el commit: aquestes comandes tenen resultat, la resta falla
+            for (Escriptura<?> escriptura : lot) {
+                if (escriptura.comanda().isConfirmada()) {
+                    escriptura.completar(lectors);
+                } else {
+                    escriptura.fallar(lectors, e);
+                }
+            }
+            return;
+        }
+        for (Escriptura<?> escriptura : lot) {
+            escriptura.completar(lectors);
+        }
+        grups.incrementAndGet();
+        comandesAgrupades.addAndGet(lot.size());
+        escriptures.addAndGet(lot.size());
+    }
+
+    /**
+     * Executa 'consulta' en un fil de lectura
+     */
+    public <T> CompletableFuture<T> llegir(Supplier<T> consulta) {
+        if (tancat) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("ManagerAsincron tancat"));
+        }
+        return CompletableFuture.supplyAsync(consulta, lectors);
+    }
+
+    /**
+     * Posa 'feina' a la cua del fil escriptor. Si la cua és plena, espera
+     * que hi hagi lloc.
+     */
+    public <T> CompletableFuture<T> escriure(Supplier<T> feina) {
+        return posarACua(feina, null);
+    }
+
+    private <T> CompletableFuture<T> posarACua(Supplier<T> feina, ComandaAgrupada<T> comanda) {
+        CompletableFuture<T> resultat = new CompletableFuture<>();
+        afegint.incrementAndGet();
+        try {
+            if (tancat) {
+                resultat.completeExceptionally(new RejectedExecutionException("ManagerAsincron tancat"));
+                return resultat;
+            }
+            Escriptura<T> escriptura = new Escriptura<>(feina, comanda, resultat);
+            if (!cua.offer(escriptura)) {
+                esperesCuaPlena.incrementAndGet();
+                cua.put(escriptura);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            resultat.completeExceptionally(e);
+        } finally {
+            afegint.decrementAndGet();
+        }
+        return resultat;
+    }
+
+    public <T> CompletableFuture<T> findById(Class<T> clazz, long id) {
+        return llegir(() -> Manager.findById(clazz, id));
+    }
+
+    public CompletableFuture<List<Llibre>> findLlibresAmbAutors() {
+        return llegir(Manager::findLlibresAmbAutors);
+    }
+
+    public CompletableFuture<List<LlibreEnPrestec>> listLlibresEnPrestec() {
+        return llegir(Manager::listLlibresEnPrestec);
+    }
+
+    public CompletableFuture<List<LlibreBiblioteca>> listLlibresAmbBiblioteques() {
+        return llegir(Manager::listLlibresAmbBiblioteques);
+    }
+
+    public CompletableFuture<List<LlibreTrobat>> cercarLlibres(String text, int pagina, int midaPagina) {
+        return llegir(() -> Manager.cercarLlibres(text, pagina, midaPagina));
+    }
+
+    public CompletableFuture<Integer> getPrestecsActius(long personaId) {
+        return llegir(() -> Manager.getPrestecsActius(personaId));
+    }
+
+    public CompletableFuture<List<Prestec>> findPrestecsRetardats(LocalDate dia) {
+        return llegir(() -> Manager.findPrestecsRetardats(dia));
+    }
+
+    public CompletableFuture<List<Long>> findBibliotequesAmbExemplarDisponible(long llibreId) {
+        return llegir(() -> Manager.findBibliotequesAmbExemplarDisponible(llibreId));
+    }
+
+    public CompletableFuture<ResultatPrestec> prestarExemplar(long exemplarId, long personaId,
+            LocalDate dataPrestec, LocalDate dataRetornPrevista) {
+        return posarACua(null, Manager.comandaPrestec(exemplarId, personaId, dataPrestec, dataRetornPrevista));
+    }
+
+    /**
+     * Completa el futur amb true si s'ha retornat, i amb false si el
+     * préstec no existeix, ja estava retornat o hi ha hagut un error
+     */
+    public CompletableFuture<Boolean> registrarRetornPrestec(long prestecId, LocalDate dataRetornReal) {
+        return posarACua(null, Manager.comandaRetorn(prestecId, dataRetornReal))
+            .thenApply(exemplar -> exemplar != null);
+    }
+
+    public CompletableFuture<ResultatRetorns> retornarPerCodiBarres(Collection<String> codisBarres,
+            LocalDate dataRetornReal) {
+        return escriure(() -> Manager.retornarPerCodiBarres(codisBarres, dataRetornReal));
+    }
+
+    public CompletableFuture<List<Llibre>> addLlibres(Collection<Llibre> llibres) {
+        return escriure(() -> Manager.addLlibres(llibres));
+    }
+
+    public CompletableFuture<Void> updateLlibre(long llibreId, String titol, String editorial, int anyPublicacio) {
+        return escriure(() -> {
+            Manager.updateLlibre(llibreId, titol, editorial, anyPublicacio);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> updateAutor(long autorId, String nom, Set<Llibre> llibres) {
+        return escriure(() -> {
+            Manager.updateAutor(autorId, nom, llibres);
+            return null;
+        });
+    }
+
+    public CompletableFuture<List<Exemplar>> addExemplars(Collection<Exemplar> exemplars) {
+        return escriure(() -> Manager.addExemplars(exemplars));
+    }
+
+    public CompletableFuture<List<Persona>> addPersones(Collection<Persona> persones) {
+        return escriure(() -> Manager.addPersones(persones));
+    }
+
+    public CompletableFuture<List<Prestec>> addPrestecs(Collection<Prestec> prestecs) {
+        return escriure(() -> Manager.addPrestecs(prestecs));
+    }
+
+    /**
+     * Si les lectures van en fils virtuals
+     */
+    public boolean isFilsVirtuals() {
+        return filsVirtuals;
+    }
+
+    /**
+     * Escriptures a la cua, esperant el fil escriptor
+     */
+    public int getEscripturesPendents() {
+        return cua.size();
+    }
+
+    public long getEscripturesFetes() {
+        return escriptures.get();
+    }
+
+    public CommitAgrupat getCommitAgrupat() {
+        return grup;
+    }
+
+    /**
+     * Transaccions fetes amb préstecs i retorns
+     */
+    public long getGrups() {
+        return grups.get();
+    }
+
+    /**
+     * Préstecs i retorns per transacció, de mitjana
+     */
+    public double getMidaMitjanaGrup() {
+        long n = grups.get();
+        return n == 0 ? 0 : (double) comandesAgrupades.get() / n;
+    }
+
+    /**
+     * Vegades que algú ha hagut d'esperar perquè la cua era plena
+     */
+    public long getEsperesCuaPlena() {
+        return esperesCuaPlena.get();
+    }
+
+    /**
+     * No accepta res més, acaba les escriptures de la cua i atura els fils.
+     * No tanca la SessionFactory del Manager.
+     */
+    @Override
+    public void close() {
+        if (tancat) {
+            return;
+        }
+        tancat = true;
+        boolean interromput = false;
+        // Les escriptures que ja havien vist la façana oberta acaben d'entrar a la cua
+        while (afegint.get() > 0) {
+            Thread.onSpinWait();
+        }
+        while (true) {
+            try {
+                cua.put(FI);
+                escriptor.join();
+                break;
+            } catch (InterruptedException e) {
+                interromput = true;
+            }
+        }
+        lectors.shutdown();
+        try {
+            lectors.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            interromput = true;
+        }
+        if (interromput) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
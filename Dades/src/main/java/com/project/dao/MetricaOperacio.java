@@ -0,0 +1,80 @@
+package com.project.dao;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Crides, errors i histograma de latències d'una operació del Manager.
+ * Una crida és un error si surt amb una excepció o si el Manager se
+ * l'empassa (i torna null, -1...).
+ */
+public class MetricaOperacio implements MetricaOperacioMBean {
+
+    private final String nom;
+    private final Histograma latencies = new Histograma();
+    private final LongAdder errors = new LongAdder();
+
+    MetricaOperacio(String nom) {
+        this.nom = nom;
+    }
+
+    void registrar(long nanos, boolean error) {
+        latencies.registrar(nanos);
+        if (error) {
+            errors.increment();
+        }
+    }
+
+    public String getNom() {
+        return nom;
+    }
+
+    public Histograma.Instantania instantania() {
+        return latencies.instantania();
+    }
+
+    @Override
+    public long getCrides() {
+        return instantania().getCompte();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getMitjanaMs() {
+        return instantania().getMitjana() / 1e6;
+    }
+
+    @Override
+    public double getP50Ms() {
+        return instantania().percentil(0.50) / 1e6;
+    }
+
+    @Override
+    public double getP90Ms() {
+        return instantania().percentil(0.90) / 1e6;
+    }
+
+    @Override
+    public double getP99Ms() {
+        return instantania().percentil(0.99) / 1e6;
+    }
+
+    @Override
+    public double getP999Ms() {
+        return instantania().percentil(0.999) / 1e6;
+    }
+
+    @Override
+    public double getMaximMs() {
+        return instantania().getMaxim() / 1e6;
+    }
+
+    @Override
+    public void reiniciar() {
+        latencies.reiniciar();
+        errors.reset();
+    }
+}
@@ -0,0 +1,26 @@
+package com.project.dao;
+
+/**
+ * Atributs JMX d'una operació del Manager. Els temps són en mil·lisegons i
+ * compten des de l'arrencada (o des de l'últim reiniciar).
+ */
+public interface MetricaOperacioMBean {
+
+    long getCrides();
+
+    long getErrors();
+
+    double getMitjanaMs();
+
+    double getP50Ms();
+
+    double getP90Ms();
+
+    double getP99Ms();
+
+    double getP999Ms();
+
+    double getMaximMs();
+
+    void reiniciar();
+}
@@ -0,0 +1,278 @@
+package com.project.dao;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.hibernate.stat.Statistics;
+
+/**
+ * Mètriques de les operacions públiques del Manager (crides, errors i
+ * histograma de latències de cadascuna) i les estadístiques de Hibernate.
+ *
+ * Es publiquen com a MBeans (publicarJmx) amb els noms
+ * com.project.dao:type=Operacio,name=&lt;mètode&gt; i
+ * com.project.dao:type=Hibernate (i type=HibernateLectura, la SessionFactory
+ * de només lectura dels informes), i amb iniciarLog se n'escriu un resum
+ * periòdic al logger com.project.dao.Metriques amb les crides de l'interval.
+ *
+ * Mesurar una crida costa dues lectures del rellotge, un ThreadLocal i un
+ * increment atòmic: res comparat amb una consulta a la base de dades.
+ */
+public class Metriques {
+
+    /**
+     * Operacions mesurades, amb el nom del mètode del Manager. Els mètodes
+     * que només en criden d'altres compten com aquells: addPrestec com a
+     * prestarExemplar, prestarPerCodiBarres com a findExemplarIdPerCodiBarres
+     * i prestarExemplar, els informe* com a stream*, collectionToString com
+     * a writeCollection i els find* antics d'Object[] com a list*.
+     */
+    public enum Operacio {
+        ADD_AUTOR, ADD_AUTORS, UPDATE_AUTOR,
+        ADD_LLIBRE, ADD_LLIBRES, UPDATE_LLIBRE,
+        ADD_BIBLIOTECA, ADD_EXEMPLAR, ADD_EXEMPLARS,
+        ADD_PERSONA, ADD_PERSONES,
+        PRESTAR_EXEMPLAR, FIND_EXEMPLAR_ID_PER_CODI_BARRES, ADD_PRESTECS,
+        REGISTRAR_RETORN_PRESTEC, RETORNAR_PER_CODI_BARRES, EXECUTAR_EN_GRUP,
+        GET_PRESTECS_ACTIUS, COMPROVAR_PRESTECS_ACTIUS,
+        FIND_PRESTECS_RETARDATS, COMPTAR_PRESTECS_RETARDATS,
+        FIND_BIBLIOTEQUES_AMB_EXEMPLAR_DISPONIBLE,
+        CERCAR_LLIBRES, COMPTAR_LLIBRES_TROBATS, RECONSTRUIR_INDEX_CERCA,
+        FIND_BY_ID, FIND_LLIBRES_AMB_AUTORS,
+        LIST_LLIBRES_EN_PRESTEC, STREAM_LLIBRES_EN_PRESTEC,
+        LIST_LLIBRES_AMB_BIBLIOTEQUES, STREAM_LLIBRES_AMB_BIBLIOTEQUES,
+        LIST_COLLECTION, STREAM_COLLECTION, WRITE_COLLECTION;
+
+        private final String nom;
+
+        Operacio() {
+            StringBuilder sb = new StringBuilder();
+            for (String paraula : name().toLowerCase(Locale.ROOT).split("_")) {
+                sb.append(sb.length() == 0 ? paraula
+                    : Character.toUpperCase(paraula.charAt(0)) + paraula.substring(1));
+            }
+            nom = sb.toString();
+        }
+
+        public String getNom() {
+            return nom;
+        }
+    }
+
+    private static final String DOMINI_JMX = "com.project.dao";
+    private static final Logger LOG = Logger.getLogger(Metriques.class.getName());
+
+    private final MetricaOperacio[] operacions = new MetricaOperacio[Operacio.values().length];
+    private final EstadistiquesHibernate hibernate;
+    private final EstadistiquesHibernate hibernateLectura;
+
+    // Errors que el Manager s'ha empassat en aquest fil (vegeu error())
+    private final ThreadLocal<long[]> errorsFil = ThreadLocal.withInitial(() -> new long[1]);
+
+    private boolean publicades;
+    private ScheduledExecutorService executor;
+    private Histograma.Instantania[] anteriors;
+    private long[] errorsAnteriors;
+
+    Metriques(Supplier<Statistics> estadistiques, Supplier<Statistics> lectura) {
+        for (Operacio operacio : Operacio.values()) {
+            operacions[operacio.ordinal()] = new MetricaOperacio(operacio.getNom());
+        }
+        hibernate = new EstadistiquesHibernate("Hibernate", estadistiques);
+        hibernateLectura = new EstadistiquesHibernate("Hibernate (lectura)", lectura);
+    }
+
+    public MetricaOperacio get(Operacio operacio) {
+        return operacions[operacio.ordinal()];
+    }
+
+    public EstadistiquesHibernate getHibernate() {
+        return hibernate;
+    }
+
+    /**
+     * Estadístiques de la SessionFactory de lectura. Sense una de separada
+     * (dades.lectura.separada=false), tot val 0.
+     */
+    public EstadistiquesHibernate getHibernateLectura() {
+        return hibernateLectura;
+    }
+
+    /**
+     * Executa 'feina' i en registra la latència. Compta com a error si
+     * surt amb una excepció o si mentrestant s'ha cridat error().
+     */
+    <R> R mesurar(Operacio operacio, Supplier<R> feina) {
+        long[] errors = errorsFil.get();
+        long errorsAbans = errors[0];
+        boolean acabada = false;
+        long inici = System.nanoTime();
+        try {
+            R resultat = feina.get();
+            acabada = true;
+            return resultat;
+        } finally {
+            operacions[operacio.ordinal()].registrar(System.nanoTime() - inici,
+                !acabada || errors[0] != errorsAbans);
+        }
+    }
+
+    void mesurarAccio(Operacio operacio, Runnable feina) {
+        mesurar(operacio, () -> {
+            feina.run();
+            return null;
+        });
+    }
+
+    /**
+     * Marca com a error l'operació que s'està mesurant en aquest fil. El
+     * Manager la crida quan s'empassa una excepció i torna null, -1...
+     */
+    void error() {
+        errorsFil.get()[0]++;
+    }
+
+    /**
+     * Registra els MBeans a la plataforma. Si ja n'hi havia amb el mateix
+     * nom (d'un altre Manager carregat abans), els substitueix.
+     */
+    synchronized void publicarJmx() {
+        if (publicades) {
+            return;
+        }
+        MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (MetricaOperacio operacio : operacions) {
+                registrar(servidor, operacio, DOMINI_JMX + ":type=Operacio,name=" + operacio.getNom());
+            }
+            registrar(servidor, hibernate, DOMINI_JMX + ":type=Hibernate");
+            registrar(servidor, hibernateLectura, DOMINI_JMX + ":type=HibernateLectura");
+            publicades = true;
+        } catch (JMException e) {
+            LOG.log(Level.WARNING, "No s'han pogut publicar les mètriques per JMX", e);
+        }
+    }
+
+    private static void registrar(MBeanServer servidor, Object mbean, String nom) throws JMException {
+        ObjectName objectName = new ObjectName(nom);
+        if (servidor.isRegistered(objectName)) {
+            servidor.unregisterMBean(objectName);
+        }
+        servidor.registerMBean(mbean, objectName);
+    }
+
+    /**
+     * Escriu cada 'segons' les mètriques de les operacions cridades durant
+     * l'interval i els comptadors de Hibernate. Amb 0 no n'escriu.
+     */
+    synchronized void iniciarLog(long segons) {
+        aturarLog();
+        if (segons <= 0) {
+            return;
+        }
+        anteriors = instantanies();
+        errorsAnteriors = errors();
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread fil = new Thread(r, "metriques");
+            fil.setDaemon(true);
+            return fil;
+        });
+        executor.scheduleAtFixedRate(() -> escriureLog(segons), segons, segons, TimeUnit.SECONDS);
+    }
+
+    synchronized void aturarLog() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    // Una excepció aturaria la planificació sense avisar
+    private void escriureLog(long segons) {
+        try {
+            String resum;
+            synchronized (this) {
+                Histograma.Instantania[] ara = instantanies();
+                long[] errors = errors();
+                resum = resum("Mètriques dels últims " + segons + " s", ara, anteriors, errors, errorsAnteriors);
+                anteriors = ara;
+                errorsAnteriors = errors;
+            }
+            LOG.info(resum);
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "No s'han pogut escriure les mètriques", e);
+        }
+    }
+
+    private Histograma.Instantania[] instantanies() {
+        Histograma.Instantania[] resultat = new Histograma.Instantania[operacions.length];
+        for (int i = 0; i < operacions.length; i++) {
+            resultat[i] = operacions[i].instantania();
+        }
+        return resultat;
+    }
+
+    private long[] errors() {
+        long[] resultat = new long[operacions.length];
+        for (int i = 0; i < operacions.length; i++) {
+            resultat[i] = operacions[i].getErrors();
+        }
+        return resultat;
+    }
+
+    /**
+     * Posa a zero totes les operacions i les estadístiques de Hibernate
+     */
+    public void reiniciar() {
+        for (MetricaOperacio operacio : operacions) {
+            operacio.reiniciar();
+        }
+        hibernate.reiniciar();
+        hibernateLectura.reiniciar();
+    }
+
+    private String resum(String titol, Histograma.Instantania[] ara, Histograma.Instantania[] abans,
+            long[] errors, long[] errorsAbans) {
+        StringBuilder sb = new StringBuilder(titol).append(":\n");
+        boolean cap = true;
+        for (int i = 0; i < operacions.length; i++) {
+            Histograma.Instantania interval = abans == null ? ara[i] : ara[i].menys(abans[i]);
+            if (interval.getCompte() == 0) {
+                continue;
+            }
+            cap = false;
+            sb.append(String.format(Locale.ROOT,
+                "    %-40s %9d crides %6d errors  mitjana %9.3f ms  p50 %9.3f  p99 %9.3f  p99.9 %9.3f  màx %9.3f%n",
+                operacions[i].getNom(), interval.getCompte(), errors[i] - (errorsAbans == null ? 0 : errorsAbans[i]),
+                interval.getMitjana() / 1e6, interval.percentil(0.50) / 1e6, interval.percentil(0.99) / 1e6,
+                interval.percentil(0.999) / 1e6, interval.getMaxim() / 1e6));
+        }
+        if (cap) {
+            sb.append("    cap crida\n");
+        }
+        sb.append("    ").append(hibernate);
+        if (hibernateLectura.isActives()) {
+            sb.append("\n    ").append(hibernateLectura);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Resum de les operacions cridades des de l'arrencada (o des de
+     * l'últim reiniciar), una per línia, i els comptadors de Hibernate
+     */
+    @Override
+    public String toString() {
+        return resum("Mètriques del Manager", instantanies(), null, errors(), null);
+    }
+}
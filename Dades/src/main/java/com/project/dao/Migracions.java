@@ -0,0 +1,367 @@
+package com.project.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import org.hibernate.HibernateException;
+
+/**
+ * Migracions de l'esquema del catàleg. Cada canvi de l'esquema és un script
+ * SQL al classpath, migracions/V1.sql, V2.sql..., que s'aplica una sola
+ * vegada i en ordre. La primera línia del script és un comentari amb la
+ * descripció, i les sentències acaben amb ';' a final de línia.
+ *
+ * Les versions aplicades es guarden a la taula versions_esquema amb la
+ * suma (CRC32) del script: si un script ja aplicat canvia, o la base de
+ * dades és d'una versió més nova que els scripts, el Manager no arrenca.
+ * Cada script s'aplica en una transacció amb el registre de la seva
+ * versió; si falla, la base de dades es queda a la versió anterior.
+ *
+ * Modes (dades.esquema):
+ * - migrar: aplica els scripts que faltin (per defecte)
+ * - recrear: esborra totes les taules i aplica tots els scripts (una base
+ *   de dades buida, el que feia hbm2ddl.auto=create)
+ * - validar: no toca res i falla si hi ha scripts pendents
+ * - cap: no mira les migracions ni valida l'esquema
+ *
+ * Una base de dades que va crear hbm2ddl abans que hi hagués migracions
+ * (té les taules però no versions_esquema) s'adopta amb V1: dins la mateixa
+ * transacció, les taules antigues s'aparten, V1 crea les noves i s'hi
+ * copien les files. Així les columnes queden del tipus que esperen les
+ * entitats (bigint, no integer) i amb les que falten (exemplars.versio,
+ * persones.prestecs_actius, que es torna a comptar dels préstecs actius).
+ *
+ * Les migracions es fan amb una connexió JDBC pròpia, abans de crear la
+ * SessionFactory, i Hibernate ja no genera l'esquema (hbm2ddl.auto=none):
+ * després, el Manager en valida les entitats contra les taules.
+ */
+final class Migracions {
+
+    enum Mode {
+        MIGRAR, RECREAR, VALIDAR, CAP;
+
+        static Mode de(Properties propietats) {
+            String valor = propietats.getProperty(PROPIETAT, "migrar").trim();
+            try {
+                return valueOf(valor.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new HibernateException("Valor desconegut de " + PROPIETAT + ": " + valor);
+            }
+        }
+    }
+
+    /**
+     * Com ha quedat l'esquema: la versió final, quants scripts s'han
+     * aplicat ara i si s'ha esborrat tot abans
+     */
+    record Resultat(int versio, int aplicades, boolean recreat, int adoptades) {
+
+        @Override
+        public String toString() {
+            return "versió " + versio + ", " + aplicades + (aplicades == 1 ? " aplicada" : " aplicades")
+                + (recreat ? ", esquema recreat" : "")
+                + (adoptades > 0 ? ", " + adoptades + " taules adoptades de hbm2ddl" : "");
+        }
+    }
+
+    static final String PROPIETAT = "dades.esquema";
+    static final String TAULA = "versions_esquema";
+    private static final String DIRECTORI = "migracions/";
+    // Les taules de V1, en l'ordre en què s'adopten
+    private static final List<String> TAULES_V1 = List.of(
+        "autors", "llibres", "autor_llibre", "biblioteques", "exemplars", "persones", "prestecs");
+    private static final String SUFIX_ANTIGA = "_hbm2ddl";
+
+    private record Script(int versio, String descripcio, List<String> sentencies, long suma) {}
+
+    private Migracions() {}
+
+    /**
+     * Porta l'esquema de la base de dades de 'url' a l'última versió segons
+     * el mode
+     */
+    static Resultat aplicar(String url, Mode mode) {
+        List<Script> scripts = carregarScripts();
+        int darrera = scripts.isEmpty() ? 0 : scripts.get(scripts.size() - 1).versio();
+        if (mode == Mode.CAP) {
+            return new Resultat(-1, 0, false, 0);
+        }
+        Properties connexio = new Properties();
+        // BEGIN IMMEDIATE: dos processos que arrenquen alhora no apliquen el
+        // mateix script dues vegades (el segon espera i el troba aplicat)
+        connexio.setProperty("transaction_mode", "IMMEDIATE");
+        connexio.setProperty("busy_timeout", "5000");
+        try (Connection conn = DriverManager.getConnection(url, connexio)) {
+            boolean recreat = mode == Mode.RECREAR;
+            if (recreat) {
+                esborrarTot(conn);
+            }
+            if (mode != Mode.VALIDAR) {
+                crearTaula(conn);
+            }
+            Map<Integer, Long> aplicades = llegirAplicades(conn);
+            comprovarAplicades(aplicades, scripts, darrera);
+            List<String> antigues = aplicades.isEmpty() ? taulesExistents(conn) : List.of();
+            int noves = 0;
+            for (Script script : scripts) {
+                if (aplicades.containsKey(script.versio())) {
+                    continue;
+                }
+                if (mode == Mode.VALIDAR) {
+                    throw new HibernateException("L'esquema té migracions pendents, a partir de V"
+                        + script.versio() + (antigues.isEmpty() ? "" : " (és una base de dades de hbm2ddl)")
+                        + " (" + script.descripcio() + ")");
+                }
+                if (aplicarScript(conn, script, script.versio() == 1 ? antigues : List.of())) {
+                    noves++;
+                }
+            }
+            return new Resultat(darrera, noves, recreat, antigues.size());
+        } catch (SQLException e) {
+            throw new HibernateException("No s'han pogut aplicar les migracions a " + url, e);
+        }
+    }
+
+    private static List<Script> carregarScripts() {
+        List<Script> scripts = new ArrayList<>();
+        ClassLoader classLoader = Migracions.class.getClassLoader();
+        for (int versio = 1; ; versio++) {
+            String nom = DIRECTORI + "V" + versio + ".sql";
+            try (InputStream input = classLoader.getResourceAsStream(nom)) {
+                if (input == null) {
+                    return scripts;
+                }
+                scripts.add(llegirScript(versio, new String(input.readAllBytes(), StandardCharsets.UTF_8)));
+            } catch (IOException e) {
+                throw new HibernateException("No s'ha pogut llegir " + nom, e);
+            }
+        }
+    }
+
+    private static Script llegirScript(int versio, String text) {
+        String normalitzat = text.replace("\r\n", "\n");
+        CRC32 suma = new CRC32();
+        suma.update(normalitzat.getBytes(StandardCharsets.UTF_8));
+
+        String descripcio = null;
+        List<String> sentencies = new ArrayList<>();
+        StringBuilder actual = new StringBuilder();
+        for (String linia : normalitzat.split("\n")) {
+            String neta = linia.trim();
+            if (neta.startsWith("--")) {
+                if (descripcio == null) {
+                    descripcio = neta.substring(2).trim();
+                }
+                continue;
+            }
+            if (neta.isEmpty()) {
+                continue;
+            }
+            actual.append(linia).append('\n');
+            if (neta.endsWith(";")) {
+                sentencies.add(actual.substring(0, actual.lastIndexOf(";")).trim());
+                actual.setLength(0);
+            }
+        }
+        if (!actual.toString().isBlank()) {
+            sentencies.add(actual.toString().trim());
+        }
+        return new Script(versio, descripcio == null ? "V" + versio : descripcio, sentencies, suma.getValue());
+    }
+
+    private static void crearTaula(Connection conn) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + TAULA + " ("
+                + "versio integer not null primary key, "
+                + "descripcio varchar(200) not null, "
+                + "suma bigint not null, "
+                + "aplicada varchar(30) not null, "
+                + "durada_ms bigint not null)");
+        }
+    }
+
+    private static Map<Integer, Long> llegirAplicades(Connection conn) throws SQLException {
+        Map<Integer, Long> aplicades = new HashMap<>();
+        try (Statement statement = conn.createStatement()) {
+            try (ResultSet rs = statement.executeQuery(
+                    "SELECT count(*) FROM sqlite_master WHERE type = 'table' AND name = '" + TAULA + "'")) {
+                if (!rs.next() || rs.getInt(1) == 0) {
+                    return aplicades;
+                }
+            }
+            try (ResultSet rs = statement.executeQuery("SELECT versio, suma FROM " + TAULA)) {
+                while (rs.next()) {
+                    aplicades.put(rs.getInt(1), rs.getLong(2));
+                }
+            }
+        }
+        return aplicades;
+    }
+
+    private static void comprovarAplicades(Map<Integer, Long> aplicades, List<Script> scripts, int darrera) {
+        for (Map.Entry<Integer, Long> aplicada : aplicades.entrySet()) {
+            int versio = aplicada.getKey();
+            if (versio > darrera) {
+                throw new HibernateException("La base de dades és de la versió " + versio
+                    + " de l'esquema i els scripts només arriben a la " + darrera);
+            }
+            Script script = scripts.get(versio - 1);
+            if (script.suma() != aplicada.getValue()) {
+                throw new HibernateException("La migració V" + versio + " (" + script.descripcio()
+                    + ") ha canviat des que es va aplicar");
+            }
+        }
+    }
+
+    // Les taules de V1 que ja hi són, d'abans de les migracions
+    private static List<String> taulesExistents(Connection conn) throws SQLException {
+        List<String> existents = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT count(*) FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            for (String taula : TAULES_V1) {
+                ps.setString(1, taula);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next() && rs.getInt(1) > 0) {
+                        existents.add(taula);
+                    }
+                }
+            }
+        }
+        return existents;
+    }
+
+    // Torna fals si un altre procés l'ha aplicat mentre s'esperava el bloqueig.
+    // Les taules 'antigues' s'aparten abans del script i se'n copien les files després.
+    private static boolean aplicarScript(Connection conn, Script script, List<String> antigues) throws SQLException {
+        long inici = System.nanoTime();
+        conn.setAutoCommit(false);
+        try (Statement statement = conn.createStatement()) {
+            try (ResultSet rs = statement.executeQuery("SELECT count(*) FROM " + TAULA
+                    + " WHERE versio = " + script.versio())) {
+                if (rs.next() && rs.getInt(1) > 0) {
+                    conn.rollback();
+                    return false;
+                }
+            }
+            for (String taula : antigues) {
+                apartar(conn, taula);
+            }
+            for (String sql : script.sentencies()) {
+                statement.executeUpdate(sql);
+            }
+            for (String taula : antigues) {
+                copiar(conn, taula);
+            }
+            if (antigues.contains("persones")) {
+                statement.executeUpdate("UPDATE persones SET prestecs_actius = (SELECT count(*) FROM prestecs p "
+                    + "WHERE p.persona_id = persones.persona_id AND p.actiu)");
+            }
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO " + TAULA
+                    + " (versio, descripcio, suma, aplicada, durada_ms) VALUES (?, ?, ?, ?, ?)")) {
+                ps.setInt(1, script.versio());
+                ps.setString(2, script.descripcio());
+                ps.setLong(3, script.suma());
+                ps.setString(4, LocalDateTime.now().toString());
+                ps.setLong(5, (System.nanoTime() - inici) / 1000000);
+                ps.executeUpdate();
+            }
+            conn.commit();
+            return true;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw new SQLException("La migració V" + script.versio() + " (" + script.descripcio()
+                + ") ha fallat: " + e.getMessage(), e);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    // Els índexs de la taula s'esborren (els torna a crear el script, si
+    // n'hi ha): si no, el nom ja hi seria i el CREATE INDEX IF NOT EXISTS
+    // no faria res, i l'índex marxaria amb la taula antiga
+    private static void apartar(Connection conn, String taula) throws SQLException {
+        List<String> indexos = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = ? AND sql IS NOT NULL")) {
+            ps.setString(1, taula);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    indexos.add(rs.getString(1));
+                }
+            }
+        }
+        try (Statement statement = conn.createStatement()) {
+            for (String index : indexos) {
+                statement.executeUpdate("DROP INDEX " + identificador(index));
+            }
+            statement.executeUpdate("ALTER TABLE " + taula + " RENAME TO " + taula + SUFIX_ANTIGA);
+        }
+    }
+
+    // Les columnes que tenen totes dues taules; les noves prenen el valor per defecte
+    private static void copiar(Connection conn, String taula) throws SQLException {
+        List<String> antigues = columnes(conn, taula + SUFIX_ANTIGA);
+        List<String> comunes = new ArrayList<>();
+        for (String columna : columnes(conn, taula)) {
+            if (antigues.contains(columna)) {
+                comunes.add(identificador(columna));
+            }
+        }
+        String llista = String.join(", ", comunes);
+        try (Statement statement = conn.createStatement()) {
+            statement.executeUpdate("INSERT INTO " + taula + " (" + llista + ") SELECT " + llista
+                + " FROM " + taula + SUFIX_ANTIGA);
+            statement.executeUpdate("DROP TABLE " + taula + SUFIX_ANTIGA);
+        }
+    }
+
+    private static List<String> columnes(Connection conn, String taula) throws SQLException {
+        List<String> columnes = new ArrayList<>();
+        try (Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery("PRAGMA table_info(" + taula + ")")) {
+            while (rs.next()) {
+                columnes.add(rs.getString("name"));
+            }
+        }
+        return columnes;
+    }
+
+    private static String identificador(String nom) {
+        return "\"" + nom.replace("\"", "\"\"") + "\"";
+    }
+
+    // Primer les taules virtuals (FTS5), que s'emporten les seves taules internes
+    private static void esborrarTot(Connection conn) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.executeUpdate("PRAGMA foreign_keys = OFF");
+            for (String consulta : new String[] {
+                    "SELECT name FROM sqlite_master WHERE type = 'table' AND sql LIKE 'CREATE VIRTUAL%'",
+                    "SELECT name FROM sqlite_master WHERE type = 'table' AND name NOT LIKE 'sqlite_%'"}) {
+                List<String> taules = new ArrayList<>();
+                try (ResultSet rs = statement.executeQuery(consulta)) {
+                    while (rs.next()) {
+                        taules.add(rs.getString(1));
+                    }
+                }
+                for (String taula : taules) {
+                    statement.executeUpdate("DROP TABLE IF EXISTS " + identificador(taula));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.project.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.JdbcSettings;
+
+import com.project.domain.GeneradorIncremental;
+
+/**
+ * Les dades repartides per biblioteca (dades.particions.biblioteques=true).
+ * Els exemplars i els préstecs de cada biblioteca són en un fitxer SQLite
+ * propi, amb la seva SessionFactory, i els llibres, autors, persones i
+ * biblioteques es queden al catàleg (el fitxer de la URL de connexió).
+ * Cada biblioteca té el seu bloqueig d'escriptura: els préstecs de
+ * biblioteques diferents ja no s'esperen entre ells.
+ *
+ * Les connexions d'una partició tenen el catàleg adjuntat (ATTACH ... AS
+ * cataleg). SQLite busca els noms de taula sense esquema primer al fitxer
+ * principal i després als adjuntats, així que les entitats es fan servir
+ * igual que sempre: Exemplar i Prestec surten de la partició i Llibre,
+ * Persona o Biblioteca, del catàleg. Les transaccions de les particions
+ * només escriuen a la partició, i per això el comptador de préstecs
+ * actius de Persona no es manté (vegeu Manager.getPrestecsActius).
+ *
+ * Els ids dels exemplars continuen sent consecutius entre totes les
+ * particions (IndexDisponibilitat els fa servir d'índex) i els dels
+ * préstecs porten la biblioteca als bits alts (bibliotecaId << 40), de
+ * manera que el préstec diu a quina partició és. Tots dos surten de la
+ * taula id_generadors (GeneradorIncremental): els dels exemplars, de la
+ * del catàleg, i els dels préstecs, de la de cada partició, que comença a
+ * bibliotecaId << 40.
+ *
+ * Sense particions, totes les crides tornen la SessionFactory del catàleg
+ * i el Manager funciona com sempre.
+ */
+final class Particions {
+
+    static final int BITS_PRESTEC = 40;
+    private static final String PROPIETAT = "dades.particions.biblioteques";
+    private static final int DEFAULT_CONNEXIONS = 4;
+
+    private final SessionFactory cataleg;
+    private final Properties propietats;
+    private final String fitxerCataleg;
+    private final List<String> taules = new ArrayList<>();
+    private final Map<Long, SessionFactory> perBiblioteca = new ConcurrentSkipListMap<>();
+    private final ExecutorService executor;
+
+    private Particions(SessionFactory cataleg, Properties propietats, boolean actives) {
+        this.cataleg = cataleg;
+        this.propietats = propietats;
+        this.fitxerCataleg = actives ? fitxer(url(propietats)) : null;
+        this.executor = actives ? Executors.newFixedThreadPool(8, r -> {
+            Thread fil = new Thread(r, "particions");
+            fil.setDaemon(true);
+            return fil;
+        }) : null;
+    }
+
+    /**
+     * Obre les particions de les biblioteques del catàleg si estan activades
+     * a les propietats. Amb 'refer' (el catàleg s'ha tornat a crear buit)
+     * les taules de les particions també es tornen a crear buides.
+     */
+    static Particions obrir(SessionFactory cataleg, Properties propietats, boolean refer) {
+        boolean actives = Boolean.parseBoolean(propietats.getProperty(PROPIETAT, "false").trim());
+        Particions particions = new Particions(cataleg, propietats, actives);
+        if (actives) {
+            particions.llegirTaules();
+            List<Long> biblioteques;
+            try (Session session = cataleg.openSession()) {
+                biblioteques = session.createQuery("SELECT b.bibliotecaId FROM Biblioteca b", Long.class).list();
+            }
+            for (long bibliotecaId : biblioteques) {
+                particions.perBiblioteca.put(bibliotecaId, particions.obrirParticio(bibliotecaId, refer));
+            }
+            long maxim = 0;
+            for (long exemplars : particions.perCadascuna(sf -> maxim(sf, "SELECT max(exemplar_id) FROM exemplars"))) {
+                maxim = Math.max(maxim, exemplars);
+            }
+            // La primera reserva de cada partició només mira els seus exemplars
+            long seguent = maxim + 1;
+            try (Session session = cataleg.openSession()) {
+                session.doWork(connection -> GeneradorIncremental.avancar(connection, GeneradorIncremental.TAULA,
+                    "exemplars", seguent));
+            }
+        }
+        return particions;
+    }
+
+    boolean actives() {
+        return executor != null;
+    }
+
+    SessionFactory cataleg() {
+        return cataleg;
+    }
+
+    /**
+     * Partició de la biblioteca. Si la biblioteca s'ha creat per fora del
+     * Manager, se n'obre la partició ara.
+     */
+    SessionFactory perBiblioteca(long bibliotecaId) {
+        if (!actives()) {
+            return cataleg;
+        }
+        return perBiblioteca.computeIfAbsent(bibliotecaId, id -> obrirParticio(id, false));
+    }
+
+    /**
+     * Partició del préstec, segons els bits alts de l'id. Si no és de cap
+     * partició oberta, el catàleg (on no es trobarà).
+     */
+    SessionFactory perPrestec(long prestecId) {
+        return actives() ? perBiblioteca.getOrDefault(prestecId >>> BITS_PRESTEC, cataleg) : cataleg;
+    }
+
+    /**
+     * Totes les particions, per ordre d'id de biblioteca (o només el catàleg)
+     */
+    Collection<SessionFactory> totes() {
+        return actives() ? new ArrayList<>(perBiblioteca.values()) : List.of(cataleg);
+    }
+
+    /**
+     * Crea la partició d'una biblioteca nova. Si ja hi havia un fitxer amb
+     * aquest id (d'un catàleg anterior), se'n buiden les taules.
+     */
+    void afegir(long bibliotecaId) {
+        if (actives()) {
+            perBiblioteca.computeIfAbsent(bibliotecaId, id -> obrirParticio(id, true));
+        }
+    }
+
+    /**
+     * Fa 'feina' amb cada partició alhora i en torna els resultats per ordre
+     * de biblioteca. Si alguna falla, es llança la seva excepció.
+     */
+    <R> List<R> perCadascuna(Function<SessionFactory, R> feina) {
+        Collection<SessionFactory> factories = totes();
+        List<R> resultats = new ArrayList<>(factories.size());
+        if (factories.size() == 1) {
+            resultats.add(feina.apply(factories.iterator().next()));
+            return resultats;
+        }
+        List<Future<R>> futurs = new ArrayList<>(factories.size());
+        for (SessionFactory factory : factories) {
+            futurs.add(executor.submit(() -> feina.apply(factory)));
+        }
+        for (Future<R> futur : futurs) {
+            resultats.add(esperar(futur));
+        }
+        return resultats;
+    }
+
+    /**
+     * Executa les feines alhora (cadascuna en una partició diferent) i
+     * espera que acabin totes
+     */
+    void executar(List<Runnable> feines) {
+        if (feines.size() == 1) {
+            feines.get(0).run();
+            return;
+        }
+        List<Future<?>> futurs = new ArrayList<>(feines.size());
+        for (Runnable feina : feines) {
+            futurs.add(executor.submit(feina));
+        }
+        for (Future<?> futur : futurs) {
+            esperar(futur);
+        }
+    }
+
+    private static <R> R esperar(Future<R> futur) {
+        try {
+            return futur.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HibernateException("Interromput esperant una partició", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw new HibernateException(e.getCause());
+        }
+    }
+
+    /**
+     * Tanca les particions. El catàleg el tanca el Manager.
+     */
+    void tancar() {
+        if (actives()) {
+            executor.shutdownNow();
+            perBiblioteca.values().forEach(SessionFactory::close);
+            perBiblioteca.clear();
+        }
+    }
+
+    // Les taules de les particions es creen amb el mateix SQL que les del
+    // catàleg, que han creat les migracions
+    private void llegirTaules() {
+        try (Session session = cataleg.openSession()) {
+            session.doWork(connection -> {
+                String sql = "SELECT sql FROM sqlite_master WHERE tbl_name IN ('exemplars', 'prestecs', '"
+                    + GeneradorIncremental.TAULA + "') AND sql IS NOT NULL ORDER BY type DESC, tbl_name";
+                try (Statement statement = connection.createStatement();
+                     ResultSet rs = statement.executeQuery(sql)) {
+                    while (rs.next()) {
+                        taules.add(rs.getString(1));
+                    }
+                }
+            });
+        }
+    }
+
+    private SessionFactory obrirParticio(long bibliotecaId, boolean refer) {
+        String fitxer = fitxerParticio(bibliotecaId);
+        crearTaules(bibliotecaId, fitxer, refer);
+
+        Properties settings = new Properties();
+        settings.putAll(propietats);
+        settings.remove(URL_ANTIGA);
+        settings.setProperty(JdbcSettings.JAKARTA_JDBC_URL, "jdbc:sqlite:" + fitxer);
+        // Les taules ja hi són: Hibernate no ha de tocar l'esquema, que a
+        // través del catàleg adjuntat podria esborrar les del catàleg
+        settings.setProperty("hibernate.hbm2ddl.auto", "none");
+        settings.setProperty("hibernate.hikari.connectionInitSql",
+            "ATTACH DATABASE '" + fitxerCataleg.replace("'", "''") + "' AS cataleg");
+        // Com el del catàleg, el pool es crea sencer d'entrada
+        String connexions = propietats.getProperty("dades.particions.connexions", Integer.toString(DEFAULT_CONNEXIONS));
+        settings.setProperty("hibernate.hikari.poolName", "dades-biblioteca-" + bibliotecaId);
+        settings.setProperty("hibernate.hikari.maximumPoolSize", connexions);
+        settings.setProperty("hibernate.hikari.minimumIdle", connexions);
+        // Totes les SessionFactory farien servir el mateix CacheManager de
+        // JCache, i tancar-ne una el tancaria per a totes
+        settings.setProperty("hibernate.cache.use_second_level_cache", "false");
+        settings.setProperty("dades.ids.exemplars", "cataleg." + GeneradorIncremental.TAULA);
+
+        // A l'arrencada del Manager compten sencer dins la fase 'particions'
+        return Manager.construir(settings, new Arrencada(), "");
+    }
+
+    private void crearTaules(long bibliotecaId, String fitxer, boolean refer) {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + fitxer);
+             Statement statement = connection.createStatement()) {
+            if (refer) {
+                statement.executeUpdate("DROP TABLE IF EXISTS prestecs");
+                statement.executeUpdate("DROP TABLE IF EXISTS exemplars");
+                statement.executeUpdate("DROP TABLE IF EXISTS " + GeneradorIncremental.TAULA);
+            }
+            boolean existeix;
+            try (ResultSet rs = statement.executeQuery(
+                    "SELECT count(*) FROM sqlite_master WHERE type = 'table' AND name = 'exemplars'")) {
+                existeix = rs.next() && rs.getInt(1) > 0;
+            }
+            if (!existeix) {
+                for (String sql : taules) {
+                    statement.executeUpdate(sql);
+                }
+            } else {
+                // Els índexs que les migracions han afegit al catàleg després
+                for (String sql : taules) {
+                    if (sql.startsWith("CREATE INDEX ")) {
+                        statement.executeUpdate("CREATE INDEX IF NOT EXISTS " + sql.substring("CREATE INDEX ".length()));
+                    }
+                }
+            }
+            GeneradorIncremental.avancar(connection, GeneradorIncremental.TAULA, "prestecs",
+                (bibliotecaId << BITS_PRESTEC) + 1);
+        } catch (SQLException e) {
+            throw new HibernateException("No s'ha pogut preparar la partició " + fitxer, e);
+        }
+    }
+
+    private static long maxim(SessionFactory factory, String sql) {
+        try (Session session = factory.openSession()) {
+            return session.doReturningWork(connection -> {
+                try (Statement statement = connection.createStatement();
+                     ResultSet rs = statement.executeQuery(sql)) {
+                    return rs.next() ? rs.getLong(1) : 0L;
+                }
+            });
+        }
+    }
+
+    // data/database.db -> data/database-biblioteca-3.db
+    private String fitxerParticio(long bibliotecaId) {
+        int punt = fitxerCataleg.lastIndexOf('.');
+        String base = punt > fitxerCataleg.lastIndexOf('/') ? fitxerCataleg.substring(0, punt) : fitxerCataleg;
+        return base + "-biblioteca-" + bibliotecaId + ".db";
+    }
+
+    // La clau que Hibernate 6 ha deixat obsoleta (AvailableSettings.URL)
+    private static final String URL_ANTIGA = "hibernate.connection.url";
+
+    /**
+     * La URL de connexió: jakarta.persistence.jdbc.url o, si no hi és, la
+     * clau antiga hibernate.connection.url (la de hibernate.properties)
+     */
+    static String url(Properties propietats) {
+        String url = propietats.getProperty(JdbcSettings.JAKARTA_JDBC_URL);
+        return url != null && !url.isBlank() ? url.trim() : propietats.getProperty(URL_ANTIGA);
+    }
+
+    static String fitxer(String url) {
+        String fitxer = url.substring("jdbc:sqlite:".length());
+        int parametres = fitxer.indexOf('?');
+        return parametres >= 0 ? fitxer.substring(0, parametres) : fitxer;
+    }
+}
@@ -0,0 +1,170 @@
+package com.project.dao;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cua en memòria dels préstecs actius que encara no han vençut, ordenada
+ * per data de retorn prevista. Cada dia n'avança el cap: els préstecs amb
+ * data anterior al dia nou són els que "avui" han passat a estar retardats,
+ * i es treuen de la cua. Així no cal recórrer tots els préstecs per saber
+ * quins són nous retards.
+ *
+ * Els préstecs que ja estaven retardats quan es carrega la cua no hi entren:
+ * per a aquests hi ha Manager.findPrestecsRetardats, que fa la consulta
+ * sobre l'índex (actiu, data_retorn_prevista).
+ */
+public class PlanificadorVenciments {
+
+    private static final Logger LOG = Logger.getLogger(PlanificadorVenciments.class.getName());
+
+    private final NavigableMap<LocalDate, Set<Long>> perData = new TreeMap<>();
+    private final Map<Long, LocalDate> perPrestec = new HashMap<>();
+    private LocalDate dia;
+    private ScheduledExecutorService executor;
+
+    /**
+     * Cua buida en què es consideren retardats els préstecs que vencen
+     * abans de 'dia'
+     */
+    public PlanificadorVenciments(LocalDate dia) {
+        this.dia = dia;
+    }
+
+    /**
+     * Afegeix un préstec actiu. Si ja ha vençut no s'hi posa.
+     */
+    public synchronized void registrar(long prestecId, LocalDate dataRetornPrevista) {
+        treure(prestecId);
+        if (dataRetornPrevista.isBefore(dia)) {
+            return;
+        }
+        perData.computeIfAbsent(dataRetornPrevista, d -> new LinkedHashSet<>()).add(prestecId);
+        perPrestec.put(prestecId, dataRetornPrevista);
+    }
+
+    /**
+     * Treu un préstec de la cua (s'ha retornat)
+     */
+    public synchronized void treure(long prestecId) {
+        LocalDate data = perPrestec.remove(prestecId);
+        if (data != null) {
+            Set<Long> prestecs = perData.get(data);
+            prestecs.remove(prestecId);
+            if (prestecs.isEmpty()) {
+                perData.remove(data);
+            }
+        }
+    }
+
+    /**
+     * Préstecs de la cua que vencerien abans de 'dia', sense treure'ls
+     */
+    public synchronized List<Long> vencenAbans(LocalDate dia) {
+        List<Long> resultat = new ArrayList<>();
+        for (Set<Long> prestecs : perData.headMap(dia, false).values()) {
+            resultat.addAll(prestecs);
+        }
+        return resultat;
+    }
+
+    /**
+     * Passa al dia 'nouDia' i torna els préstecs que hi han passat a estar
+     * retardats, en ordre de data de retorn prevista. Els treu de la cua.
+     */
+    public synchronized List<Long> avancar(LocalDate nouDia) {
+        List<Long> retardats = new ArrayList<>();
+        Iterator<Map.Entry<LocalDate, Set<Long>>> it = perData.headMap(nouDia, false).entrySet().iterator();
+        while (it.hasNext()) {
+            for (Long prestecId : it.next().getValue()) {
+                perPrestec.remove(prestecId);
+                retardats.add(prestecId);
+            }
+            it.remove();
+        }
+        if (nouDia.isAfter(dia)) {
+            dia = nouDia;
+        }
+        return retardats;
+    }
+
+    /**
+     * Nombre de préstecs pendents de vèncer
+     */
+    public synchronized int mida() {
+        return perPrestec.size();
+    }
+
+    /**
+     * Avança la cua cada dia a mitjanit (i un cop en arrencar) i passa els
+     * nous retards a 'avis'
+     */
+    public synchronized void iniciar(Consumer<List<Long>> avis) {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread fil = new Thread(r, "venciments");
+            fil.setDaemon(true);
+            return fil;
+        });
+        executor.execute(() -> notificar(avis));
+        programarSeguent(avis);
+    }
+
+    // Una excepció aquí no ha d'aturar la planificació: l'executor la
+    // guardaria en un Future que ningú no consulta
+    private void notificar(Consumer<List<Long>> avis) {
+        try {
+            List<Long> retardats = avancar(LocalDate.now());
+            if (!retardats.isEmpty()) {
+                avis.accept(retardats);
+            }
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "No s'han pogut avisar els nous retards", e);
+        }
+    }
+
+    // Es calcula cada vegada el temps fins a mitjanit perquè els dies
+    // de canvi d'hora no fan 24 hores
+    private synchronized void programarSeguent(Consumer<List<Long>> avis) {
+        if (executor == null) {
+            return;
+        }
+        LocalDateTime ara = LocalDateTime.now();
+        LocalDateTime mitjanit = ara.toLocalDate().plusDays(1).atStartOfDay();
+        executor.schedule(() -> {
+            try {
+                notificar(avis);
+            } finally {
+                programarSeguent(avis);
+            }
+        }, Duration.between(ara, mitjanit).toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Atura la planificació diària
+     */
+    public synchronized void aturar() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.project.dao;
+
+import com.project.domain.Prestec;
+
+/**
+ * Resultat d'intentar prestar un exemplar amb Manager.prestarExemplar
+ */
+public class ResultatPrestec {
+
+    public enum Estat {
+        PRESTAT,
+        JA_EN_PRESTEC,
+        EXEMPLAR_NO_TROBAT,
+        PERSONA_NO_TROBADA,
+        ERROR
+    }
+
+    private final Estat estat;
+    private final Prestec prestec;
+
+    private ResultatPrestec(Estat estat, Prestec prestec) {
+        this.estat = estat;
+        this.prestec = prestec;
+    }
+
+    static ResultatPrestec prestat(Prestec prestec) {
+        return new ResultatPrestec(Estat.PRESTAT, prestec);
+    }
+
+    static ResultatPrestec fallit(Estat estat) {
+        return new ResultatPrestec(estat, null);
+    }
+
+    public Estat getEstat() {
+        return estat;
+    }
+
+    public boolean isPrestat() {
+        return estat == Estat.PRESTAT;
+    }
+
+    /**
+     * El préstec creat, o null si no s'ha pogut prestar
+     */
+    public Prestec getPrestec() {
+        return prestec;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ResultatPrestec[").append(estat);
+        if (prestec != null) {
+            sb.append(", prestecId=").append(prestec.getPrestecId());
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+}
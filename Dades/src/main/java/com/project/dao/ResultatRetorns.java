@@ -0,0 +1,61 @@
+package com.project.dao;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resultat d'un retorn en bloc amb Manager.retornarPerCodiBarres: què ha
+ * passat amb cada codi de barres, en l'ordre en què s'han donat (els codis
+ * repetits hi surten una sola vegada)
+ */
+public class ResultatRetorns {
+
+    public enum Estat {
+        RETORNAT,
+        NO_EN_PRESTEC,
+        CODI_DESCONEGUT,
+        ERROR
+    }
+
+    private final Map<String, Estat> estats;
+
+    ResultatRetorns(Map<String, Estat> estats) {
+        this.estats = Collections.unmodifiableMap(new LinkedHashMap<>(estats));
+    }
+
+    /**
+     * L'estat del codi, o null si no era a la llista
+     */
+    public Estat getEstat(String codiBarres) {
+        return estats.get(codiBarres);
+    }
+
+    public Map<String, Estat> getEstats() {
+        return estats;
+    }
+
+    public int getRetornats() {
+        return comptar(Estat.RETORNAT);
+    }
+
+    public int comptar(Estat estat) {
+        int n = 0;
+        for (Estat valor : estats.values()) {
+            if (valor == estat) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        Map<Estat, Integer> recompte = new EnumMap<>(Estat.class);
+        for (Estat estat : estats.values()) {
+            recompte.merge(estat, 1, Integer::sum);
+        }
+        return "ResultatRetorns" + recompte;
+    }
+}
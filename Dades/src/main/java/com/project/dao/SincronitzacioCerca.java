@@ -0,0 +1,140 @@
+package com.project.dao;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.event.spi.AbstractCollectionEvent;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.PostCollectionRecreateEvent;
+import org.hibernate.event.spi.PostCollectionRecreateEventListener;
+import org.hibernate.event.spi.PostCollectionRemoveEvent;
+import org.hibernate.event.spi.PostCollectionRemoveEventListener;
+import org.hibernate.event.spi.PostCollectionUpdateEvent;
+import org.hibernate.event.spi.PostCollectionUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+import com.project.domain.Autor;
+import com.project.domain.Llibre;
+
+/**
+ * Manté IndexCerca al dia amb els canvis de Llibre i Autor fets amb una
+ * Session: insercions, canvis de títol, editorial o nom, canvis dels autors
+ * d'un llibre i esborrats.
+ *
+ * Durant la transacció només s'apunten els ids afectats. Just abans del
+ * commit es tornen a indexar tots de cop, amb la mateixa connexió: l'índex
+ * canvia en la mateixa transacció que les dades, i una inserció massiva
+ * (addLlibres) fa unes quantes sentències per lot i no dues per llibre.
+ *
+ * Les sentències HQL massives i la StatelessSession no passen pels
+ * listeners: després d'usar-les cal Manager.reconstruirIndexCerca().
+ */
+class SincronitzacioCerca implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener,
+        PostCollectionRecreateEventListener, PostCollectionUpdateEventListener, PostCollectionRemoveEventListener {
+
+    private static final String AUTORS_DE_LLIBRE = Llibre.class.getName() + ".autors";
+    private static final Set<String> CAMPS_LLIBRE = Set.of("titol", "editorial");
+    private static final Set<String> CAMPS_AUTOR = Set.of("nom");
+
+    // Canvis pendents de cada sessió, fins al final de la seva transacció
+    private final Map<SharedSessionContractImplementor, Pendents> pendents = new ConcurrentHashMap<>();
+
+    private static final class Pendents {
+        final Set<Long> llibres = new LinkedHashSet<>();
+        final Set<Long> autors = new LinkedHashSet<>();
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        apuntar(event.getSession(), event.getEntity(), event.getId());
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        Set<String> camps = event.getEntity() instanceof Llibre ? CAMPS_LLIBRE
+            : event.getEntity() instanceof Autor ? CAMPS_AUTOR : null;
+        if (camps == null) {
+            return;
+        }
+        int[] bruts = event.getDirtyProperties();
+        String[] noms = event.getPersister().getPropertyNames();
+        boolean canvia = bruts == null;
+        for (int i = 0; !canvia && i < bruts.length; i++) {
+            canvia = camps.contains(noms[bruts[i]]);
+        }
+        if (canvia) {
+            apuntar(event.getSession(), event.getEntity(), event.getId());
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        apuntar(event.getSession(), event.getEntity(), event.getId());
+    }
+
+    @Override
+    public void onPostRecreateCollection(PostCollectionRecreateEvent event) {
+        apuntarAutorsDeLlibre(event);
+    }
+
+    @Override
+    public void onPostUpdateCollection(PostCollectionUpdateEvent event) {
+        apuntarAutorsDeLlibre(event);
+    }
+
+    @Override
+    public void onPostRemoveCollection(PostCollectionRemoveEvent event) {
+        apuntarAutorsDeLlibre(event);
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return false;
+    }
+
+    private void apuntarAutorsDeLlibre(AbstractCollectionEvent event) {
+        if (AUTORS_DE_LLIBRE.equals(event.getCollection().getRole()) && event.getAffectedOwnerIdOrNull() != null) {
+            pendents(event.getSession()).llibres.add((Long) event.getAffectedOwnerIdOrNull());
+        }
+    }
+
+    private void apuntar(EventSource session, Object entitat, Object id) {
+        if (entitat instanceof Llibre) {
+            pendents(session).llibres.add((Long) id);
+        } else if (entitat instanceof Autor) {
+            pendents(session).autors.add((Long) id);
+        }
+    }
+
+    private Pendents pendents(EventSource session) {
+        return pendents.computeIfAbsent(session, s -> {
+            // El primer canvi de la transacció prepara la indexació del final
+            session.getActionQueue().registerProcess(this::indexar);
+            session.getActionQueue().registerProcess((exit, sessio) -> pendents.remove(sessio));
+            return new Pendents();
+        });
+    }
+
+    private void indexar(SharedSessionContractImplementor session) {
+        Pendents canvis = pendents.remove(session);
+        if (canvis == null) {
+            return;
+        }
+        session.doWork(conn -> {
+            Set<Long> llibres = canvis.llibres;
+            if (!canvis.autors.isEmpty()) {
+                llibres.addAll(IndexCerca.llibresDAutors(conn, canvis.autors));
+            }
+            IndexCerca.reindexar(conn, llibres);
+        });
+    }
+}
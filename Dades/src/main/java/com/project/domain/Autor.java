@@ -1,16 +1,24 @@
 package com.project.domain;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import java.io.Serializable;
 import java.util.HashSet;
 import java.util.Set;
 
+import com.project.informe.EscriptorInforme;
+import com.project.informe.FilaInforme;
+
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@NamedEntityGraph(name = "Autor.mostrar", attributeNodes = @NamedAttributeNode("llibres"))
 @Table(name = "autors")
-public class Autor implements Serializable {
+public class Autor implements Serializable, FilaInforme {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @IdIncremental
     @Column(name = "autor_id")
     private long autorId;
 
@@ -67,14 +75,14 @@ public class Autor implements Serializable {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append(String.format("Autor[id=%d, nom='%s'", autorId, nom));
+        sb.append("Autor[id=").append(autorId).append(", nom='").append(nom).append('\'');
 
         if (llibres != null && !llibres.isEmpty()) {
             sb.append(", llibres={");
             boolean first = true;
             for (Llibre ll : llibres) {
                 if (!first) sb.append(", ");
-                sb.append(String.format("'%s'", ll.getTitol()));
+                sb.append('\'').append(ll.getTitol()).append('\'');
                 first = false;
             }
             sb.append("}");
@@ -84,6 +92,17 @@ public class Autor implements Serializable {
         return sb.toString();
     }
 
+    @Override
+    public void escriure(EscriptorInforme escriptor) {
+        escriptor.fila().camp("autorId", autorId).camp("nom", nom).llista("llibres");
+        if (llibres != null) {
+            for (Llibre ll : llibres) {
+                escriptor.element(ll.getTitol());
+            }
+        }
+        escriptor.fiLlista().fi();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -1,16 +1,24 @@
 package com.project.domain;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import java.io.Serializable;
 import java.util.HashSet;
 import java.util.Set;
 
+import com.project.informe.EscriptorInforme;
+import com.project.informe.FilaInforme;
+
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@NamedEntityGraph(name = "Biblioteca.mostrar", attributeNodes = @NamedAttributeNode("exemplars"))
 @Table(name = "biblioteques")
-public class Biblioteca implements Serializable {
+public class Biblioteca implements Serializable, FilaInforme {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @IdIncremental
     @Column(name = "biblioteca_id")
     private long bibliotecaId;
 
@@ -30,6 +38,7 @@ public class Biblioteca implements Serializable {
     private String email;
 
     @OneToMany(mappedBy = "biblioteca", cascade = CascadeType.ALL, orphanRemoval = true)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private Set<Exemplar> exemplars = new HashSet<>();
 
     // Constructor por defecto
@@ -115,16 +124,18 @@ public class Biblioteca implements Serializable {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append(String.format("Biblioteca[id=%d, nom='%s', ciutat='%s'", bibliotecaId, nom, ciutat));
+        sb.append("Biblioteca[id=").append(bibliotecaId)
+            .append(", nom='").append(nom)
+            .append("', ciutat='").append(ciutat).append('\'');
 
         if (adreca != null) {
-            sb.append(String.format(", adreca='%s'", adreca));
+            sb.append(", adreca='").append(adreca).append('\'');
         }
         if (telefon != null) {
-            sb.append(String.format(", tel='%s'", telefon));
+            sb.append(", tel='").append(telefon).append('\'');
         }
         if (email != null) {
-            sb.append(String.format(", email='%s'", email));
+            sb.append(", email='").append(email).append('\'');
         }
 
         if (!exemplars.isEmpty()) {
@@ -142,12 +153,27 @@ public class Biblioteca implements Serializable {
         return sb.toString();
     }
 
+    @Override
+    public void escriure(EscriptorInforme escriptor) {
+        escriptor.fila()
+            .camp("bibliotecaId", bibliotecaId)
+            .camp("nom", nom)
+            .camp("ciutat", ciutat)
+            .camp("adreca", adreca)
+            .camp("telefon", telefon)
+            .camp("email", email)
+            .llista("exemplars");
+        for (Exemplar e : exemplars) {
+            escriptor.element(e.getCodiBarres());
+        }
+        escriptor.fiLlista().fi();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        Biblioteca that = (Biblioteca) o;
-        return bibliotecaId == that.bibliotecaId;
+        if (!(o instanceof Biblioteca that)) return false;
+        return bibliotecaId == that.getBibliotecaId();
     }
 
     @Override
@@ -1,33 +1,58 @@
 package com.project.domain;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
 import java.io.Serializable;
 import java.util.HashSet;
 import java.util.Set;
 
+import com.project.informe.EscriptorInforme;
+import com.project.informe.FilaInforme;
+
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+// Les referències són LAZY. mostrar: el catàleg d'exemplars (listCollection,
+// streamCollection, findById) i el toString(), amb el títol del llibre i el
+// nom de la biblioteca. El préstec (prestarExemplar) només llegeix
+// l'exemplar, sense cap referència
+@NamedEntityGraph(name = "Exemplar.mostrar", attributeNodes = {
+    @NamedAttributeNode("llibre"),
+    @NamedAttributeNode("biblioteca")
+})
+@BatchSize(size = 500)
 @Table(name = "exemplars")
-public class Exemplar implements Serializable {
+public class Exemplar implements Serializable, FilaInforme {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @IdIncremental
     @Column(name = "exemplar_id")
     private long exemplarId;
 
     @Column(nullable = false, unique = true, length = 20)
     private String codiBarres;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "llibre_id", nullable = false)
     private Llibre llibre;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "biblioteca_id", nullable = false)
     private Biblioteca biblioteca;
 
     @Column(nullable = false)
     private boolean disponible;
 
+    // Control de concurrència optimista: dos préstecs simultanis del mateix
+    // exemplar no poden confirmar-se tots dos
+    @Version
+    @ColumnDefault("0")
+    @Column(name = "versio", nullable = false)
+    private long versio;
+
     @OneToMany(mappedBy = "exemplar", cascade = CascadeType.ALL, orphanRemoval = true)
     private Set<Prestec> historialPrestecs = new HashSet<>();
 
@@ -83,6 +108,14 @@ public class Exemplar implements Serializable {
         this.disponible = disponible;
     }
 
+    public long getVersio() {
+        return versio;
+    }
+
+    public void setVersio(long versio) {
+        this.versio = versio;
+    }
+
     public Set<Prestec> getHistorialPrestecs() {
         return historialPrestecs;
     }
@@ -105,26 +138,40 @@ public class Exemplar implements Serializable {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append(String.format("Exemplar[id=%d, codi='%s', disponible=%s", exemplarId, codiBarres, disponible));
+        sb.append("Exemplar[id=").append(exemplarId)
+            .append(", codi='").append(codiBarres)
+            .append("', disponible=").append(disponible);
 
         if (llibre != null) {
-            sb.append(String.format(", llibre='%s'", llibre.getTitol()));
+            sb.append(", llibre='").append(llibre.getTitol()).append('\'');
         }
 
         if (biblioteca != null) {
-            sb.append(String.format(", biblioteca='%s'", biblioteca.getNom()));
+            sb.append(", biblioteca='").append(biblioteca.getNom()).append('\'');
         }
 
         sb.append("]");
         return sb.toString();
     }
 
+    @Override
+    public void escriure(EscriptorInforme escriptor) {
+        escriptor.fila()
+            .camp("exemplarId", exemplarId)
+            .camp("codiBarres", codiBarres)
+            .camp("disponible", disponible)
+            .camp("llibre", llibre != null ? llibre.getTitol() : null)
+            .camp("biblioteca", biblioteca != null ? biblioteca.getNom() : null)
+            .fi();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        Exemplar exemplar = (Exemplar) o;
-        return exemplarId == exemplar.exemplarId;
+        // Les referències LAZY poden ser proxies de Hibernate (una subclasse
+        // amb els camps buits): es compara el tipus amb instanceof i l'id amb el getter
+        if (!(o instanceof Exemplar exemplar)) return false;
+        return exemplarId == exemplar.getExemplarId();
     }
 
     @Override
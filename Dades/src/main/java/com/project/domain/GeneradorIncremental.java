@@ -0,0 +1,213 @@
+package com.project.domain;
+
+import java.lang.reflect.Member;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.hibernate.HibernateException;
+import org.hibernate.boot.model.naming.Identifier;
+import org.hibernate.boot.model.relational.Database;
+import org.hibernate.boot.model.relational.Namespace;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.jdbc.Size;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.ExportableColumn;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.factory.spi.CustomIdGeneratorCreationContext;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.PrimaryKey;
+import org.hibernate.mapping.Table;
+import org.hibernate.type.BasicTypeRegistry;
+import org.hibernate.type.StandardBasicTypes;
+
+/**
+ * Generador dels camps anotats amb @IdIncremental. Els ids es reserven en
+ * blocs de BLOC a la taula id_generadors (una fila per taula d'entitat, amb
+ * el següent id lliure) i després es donen en memòria, un darrere l'altre.
+ *
+ * La reserva és un UPDATE ... RETURNING dins la transacció que fa els
+ * INSERT, no en una connexió a part com el TableGenerator de Hibernate: si
+ * la transacció ja ha escrit alguna fila té l'únic bloqueig d'escriptura de
+ * SQLite, i l'altra connexió s'hi esperaria fins al busy_timeout. Com que
+ * la fila queda bloquejada fins al commit, dos processos que escriuen a la
+ * mateixa base de dades no reben mai el mateix bloc.
+ *
+ * Per això el bloc és només de la sessió que l'ha reservat fins que la seva
+ * transacció fa commit: si es desfés, la fila tornaria enrere i un altre
+ * procés podria reservar uns ids que una altra sessió ja hauria fet servir.
+ * Després del commit, el que en queda és de totes les sessions; si la
+ * transacció es desfà, es descarta.
+ *
+ * La primera reserva de cada SessionFactory porta la fila com a mínim al
+ * màxim id de la taula més u: els ids inserits sense passar per aquí (SQL
+ * directe, importacions) no es tornen a donar.
+ *
+ * Si la configuració porta "dades.ids.&lt;taula&gt;", és la taula de
+ * comptadors que cal fer servir (les particions per biblioteca del Manager
+ * hi posen la del catàleg per als exemplars, que són únics entre totes).
+ */
+public class GeneradorIncremental implements IdentifierGenerator {
+
+    public static final String TAULA = "id_generadors";
+    static final int BLOC = 50;
+
+    private final String entitat;
+    private final String sincronitzar;
+    private final String reservar;
+    // Blocs de transaccions que encara no han acabat, per sessió
+    private final Map<SharedSessionContractImplementor, Bloc> pendents = new WeakHashMap<>();
+    // Ids d'un bloc ja confirmat, per a qualsevol sessió
+    private Bloc confirmat = new Bloc(0, 0, false);
+    private boolean sincronitzat;
+
+    // Els ids [seguent, limit) d'una reserva
+    private static final class Bloc {
+        private long seguent;
+        private long limit;
+        private final boolean sincronitza;
+
+        private Bloc(long seguent, long limit, boolean sincronitza) {
+            this.seguent = seguent;
+            this.limit = limit;
+            this.sincronitza = sincronitza;
+        }
+
+        private boolean buit() {
+            return seguent >= limit;
+        }
+    }
+
+    public GeneradorIncremental(IdIncremental config, Member member, CustomIdGeneratorCreationContext context) {
+        PersistentClass persistent = context.getPersistentClass();
+        String taula = persistent.getTable().getName();
+        String columna = persistent.getIdentifier().getColumns().get(0).getName();
+        Object configurada = context.getServiceRegistry().getService(ConfigurationService.class)
+            .getSettings().get("dades.ids." + taula);
+        String comptadors = configurada instanceof String nom ? nom : TAULA;
+        this.entitat = taula;
+        this.sincronitzar = avancar(comptadors, "SELECT ?, coalesce(max(" + columna + "), 0) + 1 FROM " + taula
+            + " WHERE true");
+        this.reservar = "UPDATE " + comptadors + " SET seguent_id = seguent_id + " + BLOC
+            + " WHERE entitat = ? RETURNING seguent_id";
+    }
+
+    // L'upsert que posa la fila com a mínim al valor de 'select' (entitat, següent)
+    private static String avancar(String comptadors, String select) {
+        return "INSERT INTO " + comptadors + " (entitat, seguent_id) " + select
+            + " ON CONFLICT (entitat) DO UPDATE SET seguent_id = max(seguent_id, excluded.seguent_id)";
+    }
+
+    /**
+     * La taula dels comptadors, que comparteixen totes les entitats. La crea
+     * la migració V1; registrada aquí, la validació de l'esquema la comprova
+     * i hbm2ddl.auto=create també la fa.
+     */
+    @Override
+    public void registerExportables(Database database) {
+        Namespace namespace = database.getDefaultNamespace();
+        Identifier nom = Identifier.toIdentifier(TAULA);
+        if (namespace.locateTable(nom) != null) {
+            return;
+        }
+        Table taula = namespace.createTable(nom, id -> new Table("orm", namespace, id, false));
+        BasicTypeRegistry tipus = database.getTypeConfiguration().getBasicTypeRegistry();
+        Column entitat = new ExportableColumn(database, taula, "entitat", tipus.resolve(StandardBasicTypes.STRING),
+            database.getTypeConfiguration().getDdlTypeRegistry().getTypeName(Types.VARCHAR, Size.length(255L)));
+        entitat.setNullable(false);
+        taula.addColumn(entitat);
+        taula.setPrimaryKey(new PrimaryKey(taula));
+        taula.getPrimaryKey().addColumn(entitat);
+        Column seguent = new ExportableColumn(database, taula, "seguent_id", tipus.resolve(StandardBasicTypes.LONG));
+        seguent.setNullable(false);
+        taula.addColumn(seguent);
+    }
+
+    @Override
+    public synchronized Object generate(SharedSessionContractImplementor session, Object object) {
+        Bloc bloc = pendents.get(session);
+        if (bloc == null || bloc.buit()) {
+            bloc = confirmat.buit() ? reservar(session) : confirmat;
+        }
+        return bloc.seguent++;
+    }
+
+    private Bloc reservar(SharedSessionContractImplementor session) {
+        boolean sincronitza = !sincronitzat;
+        if (sincronitza) {
+            executar(session, sincronitzar, false);
+        }
+        long fi = executar(session, reservar, true);
+        Bloc bloc = new Bloc(fi - BLOC, fi, sincronitza);
+        if (!session.isTransactionInProgress()) {
+            // Autocommit: la reserva ja és definitiva
+            acabar(session, bloc, true);
+        } else if (session.isEventSource()) {
+            pendents.put(session, bloc);
+            session.asEventSource().getActionQueue().registerProcess(
+                (confirmada, s) -> acabar(session, bloc, confirmada));
+        } else {
+            // Sense ActionQueue (StatelessSession) no se sap si es desfarà:
+            // del bloc només se'n fa servir un
+            bloc.limit = bloc.seguent + 1;
+        }
+        return bloc;
+    }
+
+    // La transacció de la reserva ha acabat. Si s'ha desfet, la fila ha
+    // tornat on era i el bloc es perd; si no, el que en queda passa a ser de
+    // tothom (si encara n'hi ha un altre de confirmat, queda un forat)
+    private synchronized void acabar(SharedSessionContractImplementor session, Bloc bloc, boolean confirmada) {
+        pendents.remove(session, bloc);
+        if (!confirmada) {
+            return;
+        }
+        if (bloc.sincronitza) {
+            sincronitzat = true;
+        }
+        if (confirmat.buit()) {
+            confirmat = bloc;
+        }
+    }
+
+    private long executar(SharedSessionContractImplementor session, String sql, boolean resultat) {
+        JdbcCoordinator jdbc = session.getJdbcCoordinator();
+        PreparedStatement st = jdbc.getStatementPreparer().prepareStatement(sql);
+        try {
+            st.setString(1, entitat);
+            if (!resultat) {
+                jdbc.getResultSetReturn().executeUpdate(st, sql);
+                return 0;
+            }
+            ResultSet rs = jdbc.getResultSetReturn().extract(st, sql);
+            if (!rs.next()) {
+                throw new HibernateException("No hi ha cap comptador d'ids per a " + entitat);
+            }
+            return rs.getLong(1);
+        } catch (SQLException e) {
+            throw new HibernateException("No s'han pogut reservar ids per a " + entitat + ": " + sql, e);
+        } finally {
+            jdbc.getLogicalConnection().getResourceRegistry().release(st);
+            jdbc.afterStatementExecution();
+        }
+    }
+
+    /**
+     * Porta el comptador de 'entitat' de la taula 'comptadors' com a mínim
+     * a 'seguent' (per als ids que un altre camí ja ha fet servir)
+     */
+    public static void avancar(Connection connection, String comptadors, String entitat, long seguent)
+            throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(avancar(comptadors, "SELECT ?, ? WHERE true"))) {
+            ps.setString(1, entitat);
+            ps.setLong(2, seguent);
+            ps.executeUpdate();
+        }
+    }
+}
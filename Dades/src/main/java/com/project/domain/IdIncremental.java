@@ -0,0 +1,25 @@
+package com.project.domain;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import org.hibernate.annotations.IdGeneratorType;
+
+/**
+ * Identificador consecutiu reservat en blocs a la taula id_generadors
+ * (vegeu GeneradorIncremental).
+ *
+ * Els blocs es reserven dins la mateixa transacció d'escriptura, no amb una
+ * connexió a part com els generadors de taula o seqüència de Hibernate, que
+ * bloquejarien contra la transacció oberta. Els ids es coneixen abans del
+ * flush, de manera que els INSERT es poden agrupar en lots JDBC.
+ */
+@IdGeneratorType(GeneradorIncremental.class)
+@Retention(RUNTIME)
+@Target({FIELD, METHOD})
+public @interface IdIncremental {
+}
@@ -1,16 +1,27 @@
 package com.project.domain;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import java.io.Serializable;
 import java.util.HashSet;
 import java.util.Set;
 
+import com.project.informe.EscriptorInforme;
+import com.project.informe.FilaInforme;
+
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@NamedEntityGraph(name = "Llibre.mostrar", attributeNodes = {
+    @NamedAttributeNode("autors"),
+    @NamedAttributeNode("exemplars")
+})
 @Table(name = "llibres")
-public class Llibre implements Serializable {
+public class Llibre implements Serializable, FilaInforme {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @IdIncremental
     @Column(name = "llibre_id")
     private long llibreId;
 
@@ -27,6 +38,7 @@ public class Llibre implements Serializable {
     private int anyPublicacio;
 
     @ManyToMany(cascade = {CascadeType.PERSIST, CascadeType.MERGE})
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @JoinTable(
         name = "autor_llibre",
         joinColumns = @JoinColumn(name = "llibre_id"),
@@ -129,12 +141,14 @@ public class Llibre implements Serializable {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append(String.format("Llibre[id=%d, isbn='%s', titol='%s'", llibreId, isbn, titol));
+        sb.append("Llibre[id=").append(llibreId)
+            .append(", isbn='").append(isbn)
+            .append("', titol='").append(titol).append('\'');
 
         if (editorial != null) {
-            sb.append(String.format(", editorial='%s'", editorial));
+            sb.append(", editorial='").append(editorial).append('\'');
         }
-        sb.append(String.format(", anyPublicacio=%d", anyPublicacio));
+        sb.append(", anyPublicacio=").append(anyPublicacio);
 
         if (!autors.isEmpty()) {
             sb.append(", autors={");
@@ -162,12 +176,30 @@ public class Llibre implements Serializable {
         return sb.toString();
     }
 
+    @Override
+    public void escriure(EscriptorInforme escriptor) {
+        escriptor.fila()
+            .camp("llibreId", llibreId)
+            .camp("isbn", isbn)
+            .camp("titol", titol)
+            .camp("editorial", editorial)
+            .camp("anyPublicacio", anyPublicacio)
+            .llista("autors");
+        for (Autor autor : autors) {
+            escriptor.element(autor.getNom());
+        }
+        escriptor.fiLlista().llista("exemplars");
+        for (Exemplar exemplar : exemplars) {
+            escriptor.element(exemplar.getCodiBarres());
+        }
+        escriptor.fiLlista().fi();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        Llibre llibre = (Llibre) o;
-        return llibreId == llibre.llibreId;
+        if (!(o instanceof Llibre llibre)) return false;
+        return llibreId == llibre.getLlibreId();
     }
 
     @Override
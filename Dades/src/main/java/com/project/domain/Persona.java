@@ -1,16 +1,24 @@
 package com.project.domain;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.ColumnDefault;
 import java.io.Serializable;
 import java.util.HashSet;
 import java.util.Set;
 
+import com.project.informe.EscriptorInforme;
+import com.project.informe.FilaInforme;
+
 @Entity
+// toString ja no recorre els préstecs: per mostrar-la no cal carregar res més
+@NamedEntityGraph(name = "Persona.mostrar")
+@BatchSize(size = 500)
 @Table(name = "persones")
-public class Persona implements Serializable {
+public class Persona implements Serializable, FilaInforme {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @IdIncremental
     @Column(name = "persona_id")
     private long personaId;
 
@@ -29,6 +37,12 @@ public class Persona implements Serializable {
     @OneToMany(mappedBy = "persona", cascade = CascadeType.ALL, orphanRemoval = true)
     private Set<Prestec> prestecs = new HashSet<>();
 
+    // Nombre de préstecs actius. El mantenen Manager.prestarExemplar i
+    // registrarRetornPrestec, i Manager.comprovarPrestecsActius el refà
+    @ColumnDefault("0")
+    @Column(name = "prestecs_actius", nullable = false)
+    private int prestecsActius;
+
     // Constructor por defecto
     public Persona() {}
 
@@ -89,6 +103,14 @@ public class Persona implements Serializable {
         this.prestecs = prestecs;
     }
 
+    public int getPrestecsActius() {
+        return prestecsActius;
+    }
+
+    public void setPrestecsActius(int prestecsActius) {
+        this.prestecsActius = prestecsActius;
+    }
+
     // Métodos para relaciones
     public void addPrestec(Prestec prestec) {
         prestecs.add(prestec);
@@ -103,31 +125,40 @@ public class Persona implements Serializable {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append(String.format("Persona[id=%d, dni='%s', nom='%s'", personaId, dni, nom));
+        sb.append("Persona[id=").append(personaId)
+            .append(", dni='").append(dni)
+            .append("', nom='").append(nom).append('\'');
 
         if (telefon != null) {
-            sb.append(String.format(", telefon='%s'", telefon));
+            sb.append(", telefon='").append(telefon).append('\'');
         }
 
         if (email != null) {
-            sb.append(String.format(", email='%s'", email));
+            sb.append(", email='").append(email).append('\'');
         }
 
-        sb.append(String.format(", prestecsActius=%d", getPrestecsActius()));
+        sb.append(", prestecsActius=").append(prestecsActius);
         sb.append("]");
         return sb.toString();
     }
 
-    private long getPrestecsActius() {
-        return prestecs.stream().filter(Prestec::isActiu).count();
+    @Override
+    public void escriure(EscriptorInforme escriptor) {
+        escriptor.fila()
+            .camp("personaId", personaId)
+            .camp("dni", dni)
+            .camp("nom", nom)
+            .camp("telefon", telefon)
+            .camp("email", email)
+            .camp("prestecsActius", prestecsActius)
+            .fi();
     }
 
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        Persona persona = (Persona) o;
-        return personaId == persona.personaId;
+        if (!(o instanceof Persona persona)) return false;
+        return personaId == persona.getPersonaId();
     }
 
     @Override
@@ -1,23 +1,47 @@
 package com.project.domain;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.FetchProfile;
 import java.io.Serializable;
 import java.time.LocalDate;
 
+import com.project.informe.EscriptorInforme;
+import com.project.informe.FilaInforme;
+
 @Entity
-@Table(name = "prestecs")
-public class Prestec implements Serializable {
+// Les referències són LAZY: cada cas d'ús del Manager en demana les que fa servir.
+// mostrar: el llistat de préstecs (listCollection, streamCollection,
+// findPrestecsRetardats, findById) i el toString(), que mostren el codi de
+// l'exemplar i el nom de la persona. retornar: registrarRetornPrestec amb
+// particions, que només marca l'exemplar com a disponible (sense particions
+// també descompta el préstec a la persona i fa servir mostrar)
+@NamedEntityGraph(name = "Prestec.mostrar", attributeNodes = {
+    @NamedAttributeNode("exemplar"),
+    @NamedAttributeNode("persona")
+})
+@NamedEntityGraph(name = "Prestec.retornar", attributeNodes = @NamedAttributeNode("exemplar"))
+@FetchProfile(name = "Prestec.llistat", fetchOverrides = {
+    @FetchProfile.FetchOverride(entity = Prestec.class, association = "exemplar", mode = FetchMode.SELECT),
+    @FetchProfile.FetchOverride(entity = Prestec.class, association = "persona", mode = FetchMode.SELECT)
+})
+@Table(name = "prestecs", indexes = {
+    @Index(name = "idx_prestecs_actiu_retorn", columnList = "actiu, data_retorn_prevista"),
+    @Index(name = "idx_prestecs_persona", columnList = "persona_id, actiu"),
+    @Index(name = "idx_prestecs_exemplar", columnList = "exemplar_id, actiu")
+})
+public class Prestec implements Serializable, FilaInforme {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @IdIncremental
     @Column(name = "prestec_id")
     private long prestecId;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "exemplar_id", nullable = false)
     private Exemplar exemplar;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "persona_id", nullable = false)
     private Persona persona;
 
@@ -103,30 +127,35 @@ public class Prestec implements Serializable {
     }
 
     public boolean estaRetardat() {
-        return actiu && dataRetornPrevista.isBefore(LocalDate.now());
+        return estaRetardat(LocalDate.now());
+    }
+
+    // Per trobar tots els retardats, millor Manager.findPrestecsRetardats
+    public boolean estaRetardat(LocalDate dia) {
+        return actiu && dataRetornPrevista.isBefore(dia);
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append(String.format("Prestec[id=%d", prestecId));
+        sb.append("Prestec[id=").append(prestecId);
 
         if (exemplar != null) {
-            sb.append(String.format(", exemplar='%s'", exemplar.getCodiBarres()));
+            sb.append(", exemplar='").append(exemplar.getCodiBarres()).append('\'');
         }
 
         if (persona != null) {
-            sb.append(String.format(", persona='%s'", persona.getNom()));
+            sb.append(", persona='").append(persona.getNom()).append('\'');
         }
 
-        sb.append(String.format(", dataPrestec='%s'", dataPrestec));
-        sb.append(String.format(", dataRetornPrevista='%s'", dataRetornPrevista));
+        sb.append(", dataPrestec='").append(dataPrestec).append('\'');
+        sb.append(", dataRetornPrevista='").append(dataRetornPrevista).append('\'');
 
         if (dataRetornReal != null) {
-            sb.append(String.format(", dataRetornReal='%s'", dataRetornReal));
+            sb.append(", dataRetornReal='").append(dataRetornReal).append('\'');
         }
 
-        sb.append(String.format(", actiu=%s", actiu));
+        sb.append(", actiu=").append(actiu);
 
         if (estaRetardat()) {
             sb.append(", retardat");
@@ -136,6 +165,20 @@ public class Prestec implements Serializable {
         return sb.toString();
     }
 
+    @Override
+    public void escriure(EscriptorInforme escriptor) {
+        escriptor.fila()
+            .camp("prestecId", prestecId)
+            .camp("exemplar", exemplar != null ? exemplar.getCodiBarres() : null)
+            .camp("persona", persona != null ? persona.getNom() : null)
+            .camp("dataPrestec", dataPrestec)
+            .camp("dataRetornPrevista", dataRetornPrevista)
+            .camp("dataRetornReal", dataRetornReal)
+            .camp("actiu", actiu)
+            .camp("retardat", estaRetardat())
+            .fi();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
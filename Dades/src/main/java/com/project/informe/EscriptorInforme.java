@@ -0,0 +1,511 @@
+package com.project.informe;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Escriu un informe fila a fila en format text, CSV o NDJSON, directament
+ * a un Writer (o a un OutputStream en UTF-8 amb un buffer de 64 KiB).
+ * No guarda les files: la memòria no depèn de quantes se n'escriguin.
+ * Els números i les dates s'escriuen xifra a xifra, sense String.format.
+ *
+ * Ús:
+ *   escriptor.fila().camp("titol", titol).camp("any", any).fi();
+ *
+ * En CSV la capçalera surt dels noms dels camps de la primera fila.
+ * Els errors d'escriptura es llancen com a UncheckedIOException.
+ */
+public class EscriptorInforme implements Closeable, Flushable {
+
+    private static final int MIDA_BUFFER = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer desti;
+    private final FormatInforme format;
+    private final char[] xifres = new char[20];
+
+    private Writer out;
+    private StringWriter primeraFila;
+    private StringBuilder capcalera;
+    private int camps;
+    private int elements;
+    private long files;
+    private boolean capcaleraEscrita;
+
+    public EscriptorInforme(Writer desti, FormatInforme format) {
+        this.desti = desti;
+        this.format = format;
+        this.out = desti;
+    }
+
+    public EscriptorInforme(OutputStream desti, FormatInforme format) {
+        this(new BufferedWriter(new OutputStreamWriter(desti, StandardCharsets.UTF_8), MIDA_BUFFER), format);
+    }
+
+    /**
+     * Per escriure a un StringBuilder o a qualsevol altre Appendable.
+     * (No és un constructor perquè un PrintStream és alhora OutputStream
+     * i Appendable.)
+     */
+    public static EscriptorInforme sobre(Appendable desti, FormatInforme format) {
+        return new EscriptorInforme(desti instanceof Writer ? (Writer) desti : new AppendableWriter(desti), format);
+    }
+
+    public FormatInforme getFormat() {
+        return format;
+    }
+
+    /**
+     * Nombre de files escrites
+     */
+    public long getFiles() {
+        return files;
+    }
+
+    /**
+     * Escriu la capçalera CSV amb aquests noms, encara que després no hi
+     * hagi cap fila. S'ha de cridar abans de la primera fila. En text i
+     * NDJSON no fa res.
+     */
+    public EscriptorInforme capcalera(String... noms) {
+        if (format != FormatInforme.CSV || files > 0 || capcaleraEscrita) {
+            return this;
+        }
+        try {
+            for (int i = 0; i < noms.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write(noms[i]);
+            }
+            out.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        capcaleraEscrita = true;
+        return this;
+    }
+
+    /**
+     * Comença una fila
+     */
+    public EscriptorInforme fila() {
+        camps = 0;
+        try {
+            if (format == FormatInforme.CSV && files == 0 && !capcaleraEscrita) {
+                // La primera fila es guarda fins saber tots els noms de la capçalera
+                primeraFila = new StringWriter();
+                capcalera = new StringBuilder();
+                out = primeraFila;
+            } else if (format == FormatInforme.TEXT) {
+                out.write('[');
+            } else if (format == FormatInforme.NDJSON) {
+                out.write('{');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    /**
+     * Acaba la fila
+     */
+    public EscriptorInforme fi() {
+        try {
+            if (format == FormatInforme.TEXT) {
+                out.write(']');
+            } else if (format == FormatInforme.NDJSON) {
+                out.write('}');
+            } else if (primeraFila != null) {
+                out = desti;
+                out.append(capcalera).write('\n');
+                out.write(primeraFila.toString());
+                primeraFila = null;
+                capcalera = null;
+            }
+            out.write('\n');
+            files++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    public EscriptorInforme camp(String nom, CharSequence valor) {
+        try {
+            separador(nom);
+            if (valor == null) {
+                nul();
+            } else {
+                text(valor);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    public EscriptorInforme camp(String nom, long valor) {
+        try {
+            separador(nom);
+            numero(valor);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    /**
+     * NaN i els infinits no existeixen en JSON: en NDJSON s'escriuen com a null
+     */
+    public EscriptorInforme camp(String nom, double valor) {
+        try {
+            separador(nom);
+            if (!Double.isFinite(valor) && format == FormatInforme.NDJSON) {
+                out.write("null");
+            } else {
+                out.write(Double.toString(valor));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    public EscriptorInforme camp(String nom, boolean valor) {
+        try {
+            separador(nom);
+            out.write(valor ? "true" : "false");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    public EscriptorInforme camp(String nom, LocalDate valor) {
+        try {
+            separador(nom);
+            if (valor == null) {
+                nul();
+            } else {
+                boolean cometes = format == FormatInforme.NDJSON;
+                if (cometes) {
+                    out.write('"');
+                }
+                data(valor);
+                if (cometes) {
+                    out.write('"');
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    /**
+     * Camp de tipus qualsevol: números, booleans, dates i text tenen el seu
+     * format; la resta s'escriu amb toString()
+     */
+    public EscriptorInforme camp(String nom, Object valor) {
+        if (valor == null || valor instanceof CharSequence) {
+            return camp(nom, (CharSequence) valor);
+        }
+        if (valor instanceof Long || valor instanceof Integer || valor instanceof Short || valor instanceof Byte) {
+            return camp(nom, ((Number) valor).longValue());
+        }
+        if (valor instanceof Double || valor instanceof Float) {
+            return camp(nom, ((Number) valor).doubleValue());
+        }
+        if (valor instanceof Boolean) {
+            return camp(nom, ((Boolean) valor).booleanValue());
+        }
+        if (valor instanceof LocalDate) {
+            return camp(nom, (LocalDate) valor);
+        }
+        return camp(nom, valor.toString());
+    }
+
+    /**
+     * Comença un camp que és una llista de textos (per exemple, els títols
+     * dels llibres d'un autor). Es tanca amb fiLlista().
+     */
+    public EscriptorInforme llista(String nom) {
+        elements = 0;
+        try {
+            separador(nom);
+            switch (format) {
+                case TEXT -> out.write('{');
+                case CSV -> out.write('"');
+                case NDJSON -> out.write('[');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    public EscriptorInforme element(CharSequence valor) {
+        try {
+            if (elements++ > 0) {
+                out.write(format == FormatInforme.NDJSON ? "," : format == FormatInforme.CSV ? "; " : ", ");
+            }
+            if (format == FormatInforme.CSV) {
+                // Tota la llista va dins d'unes cometes: només cal doblar les del valor
+                cometesDoblades(valor);
+            } else if (valor == null) {
+                out.write("null");
+            } else {
+                text(valor);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    public EscriptorInforme fiLlista() {
+        try {
+            switch (format) {
+                case TEXT -> out.write('}');
+                case CSV -> out.write('"');
+                case NDJSON -> out.write(']');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    /**
+     * Escriu totes les files de la col·lecció
+     */
+    public EscriptorInforme files(Iterable<? extends FilaInforme> files) {
+        for (FilaInforme fila : files) {
+            fila.escriure(this);
+        }
+        return this;
+    }
+
+    @Override
+    public void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Buida el buffer i tanca el destí
+     */
+    @Override
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void separador(String nom) throws IOException {
+        if (camps++ > 0) {
+            out.write(format == FormatInforme.TEXT ? ", " : ",");
+        }
+        if (format == FormatInforme.NDJSON) {
+            out.write('"');
+            out.write(nom);
+            out.write("\":");
+        } else if (capcalera != null) {
+            if (capcalera.length() > 0) {
+                capcalera.append(',');
+            }
+            capcalera.append(nom);
+        }
+    }
+
+    private void nul() throws IOException {
+        if (format != FormatInforme.CSV) {
+            out.write("null");
+        }
+    }
+
+    private void text(CharSequence valor) throws IOException {
+        switch (format) {
+            case TEXT -> out.append(valor);
+            case CSV -> {
+                if (calCometesCsv(valor)) {
+                    out.write('"');
+                    cometesDoblades(valor);
+                    out.write('"');
+                } else {
+                    out.append(valor);
+                }
+            }
+            case NDJSON -> {
+                out.write('"');
+                json(valor);
+                out.write('"');
+            }
+        }
+    }
+
+    private static boolean calCometesCsv(CharSequence valor) {
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void cometesDoblades(CharSequence valor) throws IOException {
+        if (valor == null) {
+            return;
+        }
+        int inici = 0;
+        for (int i = 0; i < valor.length(); i++) {
+            if (valor.charAt(i) == '"') {
+                tros(valor, inici, i + 1);
+                out.write('"');
+                inici = i + 1;
+            }
+        }
+        tros(valor, inici, valor.length());
+    }
+
+    // Escriu els trossos sense escapar de cop i només escapa els caràcters necessaris
+    private void json(CharSequence valor) throws IOException {
+        int inici = 0;
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            tros(valor, inici, i);
+            switch (c) {
+                case '"' -> out.write("\\\"");
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\r' -> out.write("\\r");
+                case '\t' -> out.write("\\t");
+                default -> {
+                    out.write("\\u00");
+                    out.write(HEX[c >> 4]);
+                    out.write(HEX[c & 0xF]);
+                }
+            }
+            inici = i + 1;
+        }
+        tros(valor, inici, valor.length());
+    }
+
+    // Writer.append(CharSequence, int, int) crea un subSequence: amb un String no cal
+    private void tros(CharSequence valor, int inici, int fi) throws IOException {
+        if (valor instanceof String) {
+            out.write((String) valor, inici, fi - inici);
+        } else {
+            out.append(valor, inici, fi);
+        }
+    }
+
+    private void numero(long valor) throws IOException {
+        if (valor == Long.MIN_VALUE) {
+            out.write(Long.toString(valor));
+            return;
+        }
+        int pos = xifres.length;
+        long v = Math.abs(valor);
+        do {
+            xifres[--pos] = (char) ('0' + v % 10);
+            v /= 10;
+        } while (v > 0);
+        if (valor < 0) {
+            xifres[--pos] = '-';
+        }
+        out.write(xifres, pos, xifres.length - pos);
+    }
+
+    // Format ISO (aaaa-mm-dd), el mateix que LocalDate.toString() per als anys 0..9999
+    private void data(LocalDate data) throws IOException {
+        int any = data.getYear();
+        if (any < 0 || any > 9999) {
+            out.write(data.toString());
+            return;
+        }
+        xifres[0] = (char) ('0' + any / 1000);
+        xifres[1] = (char) ('0' + any / 100 % 10);
+        xifres[2] = (char) ('0' + any / 10 % 10);
+        xifres[3] = (char) ('0' + any % 10);
+        xifres[4] = '-';
+        xifres[5] = (char) ('0' + data.getMonthValue() / 10);
+        xifres[6] = (char) ('0' + data.getMonthValue() % 10);
+        xifres[7] = '-';
+        xifres[8] = (char) ('0' + data.getDayOfMonth() / 10);
+        xifres[9] = (char) ('0' + data.getDayOfMonth() % 10);
+        out.write(xifres, 0, 10);
+    }
+
+    /**
+     * Writer sobre un Appendable qualsevol (StringBuilder, PrintStream...)
+     */
+    private static final class AppendableWriter extends Writer {
+        private final Appendable desti;
+
+        AppendableWriter(Appendable desti) {
+            this.desti = desti;
+        }
+
+        @Override
+        public void write(char[] buffer, int inici, int longitud) throws IOException {
+            for (int i = inici; i < inici + longitud; i++) {
+                desti.append(buffer[i]);
+            }
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            desti.append((char) c);
+        }
+
+        @Override
+        public void write(String text, int inici, int longitud) throws IOException {
+            desti.append(text, inici, inici + longitud);
+        }
+
+        @Override
+        public Writer append(CharSequence text, int inici, int fi) throws IOException {
+            desti.append(text, inici, fi);
+            return this;
+        }
+
+        @Override
+        public Writer append(CharSequence text) throws IOException {
+            desti.append(text);
+            return this;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (desti instanceof Flushable) {
+                ((Flushable) desti).flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
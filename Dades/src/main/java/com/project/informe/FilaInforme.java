@@ -0,0 +1,10 @@
+package com.project.informe;
+
+/**
+ * Fila d'un informe. Escriu els seus camps directament a l'escriptor,
+ * sense construir cap String intermedi.
+ */
+public interface FilaInforme {
+
+    void escriure(EscriptorInforme escriptor);
+}
@@ -0,0 +1,13 @@
+package com.project.informe;
+
+/**
+ * Formats de sortida d'EscriptorInforme
+ */
+public enum FormatInforme {
+    /** Una fila per línia: [valor, valor, ...] */
+    TEXT,
+    /** Capçalera amb els noms dels camps i una fila per línia (RFC 4180) */
+    CSV,
+    /** Un objecte JSON per línia */
+    NDJSON
+}
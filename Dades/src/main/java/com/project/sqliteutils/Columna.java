@@ -0,0 +1,87 @@
+package com.project.sqliteutils;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Columna d'un ResultSet amb la manera de llegir-la ja resolta: es calcula
+ * un cop per consulta i després cada valor es llegeix per índex.
+ */
+public record Columna(int index, String nom, TipusColumna tipus) {
+
+    public static Columna[] de(ResultSetMetaData rsmd) throws SQLException {
+        Columna[] columnes = new Columna[rsmd.getColumnCount()];
+        for (int i = 0; i < columnes.length; i++) {
+            columnes[i] = new Columna(i + 1, rsmd.getColumnName(i + 1), TipusColumna.de(rsmd.getColumnType(i + 1)));
+        }
+        return columnes;
+    }
+
+    public static String[] noms(Columna[] columnes) {
+        String[] noms = new String[columnes.length];
+        for (int i = 0; i < columnes.length; i++) {
+            noms[i] = columnes[i].nom();
+        }
+        return noms;
+    }
+
+    /**
+     * Valor de la columna a la fila actual, o null si és NULL: Long, Double,
+     * Boolean, LocalDate, LocalDateTime (o el text, si el moment no és un
+     * número), String o byte[]
+     */
+    public Object llegir(ResultSet rs) throws SQLException {
+        return switch (tipus) {
+            case ENTER -> {
+                long valor = rs.getLong(index);
+                yield rs.wasNull() ? null : valor;
+            }
+            case REAL -> {
+                double valor = rs.getDouble(index);
+                yield rs.wasNull() ? null : valor;
+            }
+            case BOOLEA -> {
+                boolean valor = rs.getBoolean(index);
+                yield rs.wasNull() ? null : valor;
+            }
+            case DATA -> llegirData(rs);
+            case MOMENT -> llegirMoment(rs);
+            case BLOB -> rs.getBytes(index);
+            case TEXT -> rs.getString(index);
+        };
+    }
+
+    /**
+     * Les dates es guarden com a mil·lisegons (Hibernate) o com a text
+     * ISO (aaaa-mm-dd, si les ha escrit una altra eina)
+     */
+    public LocalDate llegirData(ResultSet rs) throws SQLException {
+        Object valor = rs.getObject(index);
+        if (valor == null) {
+            return null;
+        }
+        if (valor instanceof Number) {
+            return Instant.ofEpochMilli(((Number) valor).longValue()).atZone(ZoneId.systemDefault()).toLocalDate();
+        }
+        String text = valor.toString();
+        try {
+            return LocalDate.parse(text.length() > 10 ? text.substring(0, 10) : text);
+        } catch (DateTimeParseException e) {
+            throw new SQLException("Data no vàlida a la columna " + nom + ": " + text, e);
+        }
+    }
+
+    public Object llegirMoment(ResultSet rs) throws SQLException {
+        Object valor = rs.getObject(index);
+        if (valor instanceof Number) {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(((Number) valor).longValue()), ZoneId.systemDefault());
+        }
+        return valor == null ? null : valor.toString();
+    }
+}
@@ -0,0 +1,381 @@
+package com.project.sqliteutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.project.informe.EscriptorInforme;
+import com.project.informe.FormatInforme;
+
+/*
+ * Exporta les taules d'una BBDD SQLite, un fitxer per taula, en CSV,
+ * NDJSON o binari:
+ *
+ *   ExportadorSQLite <bbdd> <directori> [CSV|NDJSON|BINARI] [fils]
+ *
+ * La manera de llegir cada columna es resol un cop per taula (Columna) i
+ * els valors es llegeixen per índex. Les dates surten en format ISO.
+ * Els fitxers s'escriuen a través d'un buffer d'1 MiB sobre un FileChannel.
+ *
+ * Amb un sol fil totes les taules es llegeixen dins la mateixa transacció
+ * (una foto coherent de la BBDD). Amb més fils cada taula té la seva
+ * connexió de només lectura i la seva pròpia foto.
+ *
+ * Format binari (enters en varint, 'z' = zigzag):
+ *   "SQLX", versió (1 byte), nom de la taula, nombre de columnes,
+ *   per columna: nom i TipusColumna.ordinal() (1 byte);
+ *   per fila: 1, bitmap de nuls (1 bit per columna), valors no nuls:
+ *     ENTER z, REAL 8 bytes, BOOLEA 1 byte, DATA z (dies des de 1970-01-01),
+ *     MOMENT, TEXT i BLOB com a longitud + bytes (els textos en UTF-8);
+ *   al final: 0 i el nombre de files.
+ */
+
+public class ExportadorSQLite {
+
+    private static final byte[] CAPCALERA_BINARI = { 'S', 'Q', 'L', 'X' };
+    private static final int VERSIO_BINARI = 1;
+    private static final Base64.Encoder BASE64 = Base64.getEncoder();
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Ús: ExportadorSQLite <bbdd> <directori> [CSV|NDJSON|BINARI] [fils]");
+            return;
+        }
+        FormatExportacio format = args.length > 2 ? FormatExportacio.valueOf(args[2]) : FormatExportacio.CSV;
+        int fils = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+
+        long inici = System.nanoTime();
+        Map<String, Long> files = exportar(args[0], Paths.get(args[1]), format, fils);
+        long total = 0;
+        for (Map.Entry<String, Long> taula : files.entrySet()) {
+            System.out.println("    " + taula.getKey() + ": " + taula.getValue() + " files");
+            total += Math.max(0, taula.getValue());
+        }
+        System.out.printf("%d files exportades en %.2f s%n", total, (System.nanoTime() - inici) / 1e9);
+    }
+
+    /**
+     * Exporta totes les taules a 'directori' com a <taula>.<extensió>.
+     * Torna les files exportades per taula, en l'ordre de listTables
+     * (-1 si la taula ha fallat).
+     */
+    public static Map<String, Long> exportar(String filePath, Path directori, FormatExportacio format, int fils) {
+        Map<String, Long> resultat = new LinkedHashMap<>();
+        try {
+            Files.createDirectories(directori);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return resultat;
+        }
+
+        Connection conn = UtilsSQLite.connectReadOnly(filePath);
+        if (conn == null) {
+            return resultat;
+        }
+        List<String> taules = UtilsSQLite.listTables(conn);
+
+        if (fils <= 1 || taules.size() <= 1) {
+            try {
+                conn.setAutoCommit(false);
+                for (String taula : taules) {
+                    resultat.put(taula, exportarTaula(conn, taula, fitxer(directori, taula, format), format));
+                }
+                conn.rollback();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            } finally {
+                tancar(conn);
+            }
+            return resultat;
+        }
+        tancar(conn);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(fils, taules.size()));
+        try {
+            List<Future<Long>> futurs = new ArrayList<>();
+            for (String taula : taules) {
+                futurs.add(executor.submit(() -> {
+                    Connection lectura = UtilsSQLite.connectReadOnly(filePath);
+                    if (lectura == null) {
+                        return -1L;
+                    }
+                    try {
+                        return exportarTaula(lectura, taula, fitxer(directori, taula, format), format);
+                    } finally {
+                        tancar(lectura);
+                    }
+                }));
+            }
+            for (int i = 0; i < taules.size(); i++) {
+                try {
+                    resultat.put(taules.get(i), futurs.get(i).get());
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    resultat.put(taules.get(i), -1L);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        return resultat;
+    }
+
+    public static Path fitxer(Path directori, String taula, FormatExportacio format) {
+        return directori.resolve(taula + "." + format.getExtensio());
+    }
+
+    /**
+     * Exporta una taula a 'fitxer'. Torna el nombre de files, o -1 si falla.
+     */
+    public static long exportarTaula(Connection conn, String taula, Path fitxer, FormatExportacio format) {
+        String sql = "SELECT * FROM \"" + taula.replace("\"", "\"\"") + "\"";
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql);
+             FileChannel canal = FileChannel.open(fitxer, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Columna[] columnes = Columna.de(rs.getMetaData());
+            if (format == FormatExportacio.BINARI) {
+                try (SortidaBinaria sortida = new SortidaBinaria(canal)) {
+                    return escriureBinari(rs, taula, columnes, sortida);
+                }
+            }
+            FormatInforme formatText = format == FormatExportacio.CSV ? FormatInforme.CSV : FormatInforme.NDJSON;
+            try (EscriptorInforme sortida = new EscriptorInforme(
+                    new BufferedOutputStream(Channels.newOutputStream(canal), SortidaBinaria.MIDA_BUFFER), formatText)) {
+                return escriureText(rs, columnes, sortida);
+            }
+        } catch (SQLException | IOException | UncheckedIOException e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    private static long escriureText(ResultSet rs, Columna[] columnes, EscriptorInforme sortida) throws SQLException {
+        sortida.capcalera(Columna.noms(columnes));
+        long files = 0;
+        while (rs.next()) {
+            sortida.fila();
+            for (Columna columna : columnes) {
+                String nom = columna.nom();
+                int index = columna.index();
+                switch (columna.tipus()) {
+                    case ENTER -> {
+                        long valor = rs.getLong(index);
+                        if (rs.wasNull()) {
+                            sortida.camp(nom, (CharSequence) null);
+                        } else {
+                            sortida.camp(nom, valor);
+                        }
+                    }
+                    case REAL -> {
+                        double valor = rs.getDouble(index);
+                        if (rs.wasNull()) {
+                            sortida.camp(nom, (CharSequence) null);
+                        } else {
+                            sortida.camp(nom, valor);
+                        }
+                    }
+                    case BOOLEA -> {
+                        boolean valor = rs.getBoolean(index);
+                        if (rs.wasNull()) {
+                            sortida.camp(nom, (CharSequence) null);
+                        } else {
+                            sortida.camp(nom, valor);
+                        }
+                    }
+                    case DATA -> sortida.camp(nom, columna.llegirData(rs));
+                    case MOMENT -> sortida.camp(nom, columna.llegirMoment(rs));
+                    case BLOB -> {
+                        byte[] valor = rs.getBytes(index);
+                        sortida.camp(nom, valor == null ? null : BASE64.encodeToString(valor));
+                    }
+                    case TEXT -> sortida.camp(nom, rs.getString(index));
+                }
+            }
+            sortida.fi();
+            files++;
+        }
+        return files;
+    }
+
+    private static long escriureBinari(ResultSet rs, String taula, Columna[] columnes, SortidaBinaria sortida)
+            throws SQLException, IOException {
+        for (byte b : CAPCALERA_BINARI) {
+            sortida.octet(b);
+        }
+        sortida.octet(VERSIO_BINARI);
+        sortida.text(taula);
+        sortida.varint(columnes.length);
+        for (Columna columna : columnes) {
+            sortida.text(columna.nom());
+            sortida.octet(columna.tipus().ordinal());
+        }
+
+        // Es llegeix tota la fila abans d'escriure-la perquè el bitmap de
+        // nuls va davant dels valors
+        int n = columnes.length;
+        long[] enters = new long[n];
+        double[] reals = new double[n];
+        Object[] objectes = new Object[n];
+        byte[] nuls = new byte[(n + 7) >>> 3];
+        long files = 0;
+        while (rs.next()) {
+            Arrays.fill(nuls, (byte) 0);
+            for (int i = 0; i < n; i++) {
+                Columna columna = columnes[i];
+                boolean nul;
+                switch (columna.tipus()) {
+                    case ENTER -> {
+                        enters[i] = rs.getLong(columna.index());
+                        nul = rs.wasNull();
+                    }
+                    case BOOLEA -> {
+                        enters[i] = rs.getBoolean(columna.index()) ? 1 : 0;
+                        nul = rs.wasNull();
+                    }
+                    case REAL -> {
+                        reals[i] = rs.getDouble(columna.index());
+                        nul = rs.wasNull();
+                    }
+                    case DATA -> {
+                        LocalDate data = columna.llegirData(rs);
+                        nul = data == null;
+                        enters[i] = nul ? 0 : data.toEpochDay();
+                    }
+                    case MOMENT -> {
+                        Object moment = columna.llegirMoment(rs);
+                        nul = moment == null;
+                        objectes[i] = nul ? null : moment.toString();
+                    }
+                    case BLOB -> {
+                        objectes[i] = rs.getBytes(columna.index());
+                        nul = objectes[i] == null;
+                    }
+                    default -> {
+                        objectes[i] = rs.getString(columna.index());
+                        nul = objectes[i] == null;
+                    }
+                }
+                if (nul) {
+                    nuls[i >>> 3] |= (byte) (1 << (i & 7));
+                }
+            }
+
+            sortida.octet(1);
+            for (byte b : nuls) {
+                sortida.octet(b);
+            }
+            for (int i = 0; i < n; i++) {
+                if ((nuls[i >>> 3] & (1 << (i & 7))) != 0) {
+                    continue;
+                }
+                switch (columnes[i].tipus()) {
+                    case ENTER, DATA -> sortida.zigzag(enters[i]);
+                    case BOOLEA -> sortida.octet((int) enters[i]);
+                    case REAL -> sortida.doble(reals[i]);
+                    case BLOB -> sortida.blob((byte[]) objectes[i]);
+                    default -> sortida.text((String) objectes[i]);
+                }
+            }
+            files++;
+        }
+        sortida.octet(0);
+        sortida.varint(files);
+        return files;
+    }
+
+    /**
+     * Llegeix sencer un fitxer binari exportat i en torna el nombre de
+     * files, o -1 si el fitxer no és vàlid
+     */
+    public static long comptarFilesBinari(Path fitxer) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(fitxer), SortidaBinaria.MIDA_BUFFER))) {
+            byte[] capcalera = new byte[CAPCALERA_BINARI.length];
+            in.readFully(capcalera);
+            if (!Arrays.equals(capcalera, CAPCALERA_BINARI) || in.readUnsignedByte() != VERSIO_BINARI) {
+                return -1;
+            }
+            saltar(in, varint(in));
+            int n = (int) varint(in);
+            TipusColumna[] tipus = new TipusColumna[n];
+            for (int i = 0; i < n; i++) {
+                saltar(in, varint(in));
+                tipus[i] = TipusColumna.values()[in.readUnsignedByte()];
+            }
+            byte[] nuls = new byte[(n + 7) >>> 3];
+            long files = 0;
+            while (in.readUnsignedByte() == 1) {
+                in.readFully(nuls);
+                for (int i = 0; i < n; i++) {
+                    if ((nuls[i >>> 3] & (1 << (i & 7))) != 0) {
+                        continue;
+                    }
+                    switch (tipus[i]) {
+                        case ENTER, DATA -> varint(in);
+                        case BOOLEA -> saltar(in, 1);
+                        case REAL -> saltar(in, 8);
+                        default -> saltar(in, varint(in));
+                    }
+                }
+                files++;
+            }
+            return varint(in) == files ? files : -1;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    private static long varint(InputStream in) throws IOException {
+        long valor = 0;
+        for (int desplacament = 0; desplacament < 64; desplacament += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            valor |= (long) (b & 0x7F) << desplacament;
+            if ((b & 0x80) == 0) {
+                return valor;
+            }
+        }
+        throw new IOException("Varint massa llarg");
+    }
+
+    private static void saltar(DataInputStream in, long bytes) throws IOException {
+        in.readFully(new byte[(int) bytes]);
+    }
+
+    private static void tancar(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException e) { System.out.println(e.getMessage()); }
+    }
+}
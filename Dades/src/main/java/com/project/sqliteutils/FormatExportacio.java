@@ -0,0 +1,20 @@
+package com.project.sqliteutils;
+
+/**
+ * Formats de sortida d'ExportadorSQLite
+ */
+public enum FormatExportacio {
+    CSV("csv"),
+    NDJSON("ndjson"),
+    BINARI("bin");
+
+    private final String extensio;
+
+    FormatExportacio(String extensio) {
+        this.extensio = extensio;
+    }
+
+    public String getExtensio() {
+        return extensio;
+    }
+}
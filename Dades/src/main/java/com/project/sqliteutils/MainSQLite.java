@@ -17,7 +17,6 @@ public class MainSQLite {
     public static void main(String[] args) throws SQLException {
         String basePath = System.getProperty("user.dir") + "/data/";
         String filePath = basePath + "database.db";
-        ResultSet rs = null;
     
         // Connectar (crea la BBDD si no existeix)
         Connection conn = UtilsSQLite.connect(filePath);
@@ -27,41 +26,34 @@ public class MainSQLite {
         System.out.println("Taules: " + taules);
     
         for (String nomTaula : taules) {
-            // Fer una única consulta per taula
-            rs = UtilsSQLite.querySelect(conn, "SELECT * FROM " + nomTaula + ";");
-            ResultSetMetaData rsmd = rs.getMetaData();
+            // Fer una única consulta per taula (el nom de la taula no pot ser un paràmetre)
+            try (ResultSet rs = UtilsSQLite.query(conn, "SELECT * FROM " + nomTaula + ";")) {
+                ResultSetMetaData rsmd = rs.getMetaData();
     
-            // Mostrar les columnes de la taula
-            System.out.println("Columnes de la taula " + nomTaula + ":");
-            for (int cntCol = 1; cntCol <= rsmd.getColumnCount(); cntCol++) {
-                String label = rsmd.getColumnLabel(cntCol);
-                String name = rsmd.getColumnName(cntCol);
-                int type = rsmd.getColumnType(cntCol);
-                System.out.println("    " + label + ", " + name + ", " + type);
-            }
-    
-            // Mostrar la informació de la taula
-            System.out.println("Continguts de la taula " + nomTaula + ":");
-            while (rs.next()) {
-                StringBuilder txt = new StringBuilder();
+                // Mostrar les columnes de la taula
+                System.out.println("Columnes de la taula " + nomTaula + ":");
                 for (int cntCol = 1; cntCol <= rsmd.getColumnCount(); cntCol++) {
-                    if (cntCol == 1) {
-                        txt.append("    ");
-                    } else {
-                        txt.append(", ");
-                    }
-                    
+                    String label = rsmd.getColumnLabel(cntCol);
                     String name = rsmd.getColumnName(cntCol);
-                    switch (rsmd.getColumnType(cntCol)) {
-                        case java.sql.Types.INTEGER -> txt.append(rs.getInt(name));
-                        case java.sql.Types.VARCHAR -> txt.append(rs.getString(name));
-                        case java.sql.Types.REAL -> txt.append(rs.getFloat(name));
-                        case java.sql.Types.BIGINT -> txt.append(rs.getLong(name));
-                        case java.sql.Types.BOOLEAN -> txt.append(rs.getBoolean(name));
-                        default -> txt.append("???");
+                    int type = rsmd.getColumnType(cntCol);
+                    System.out.println("    " + label + ", " + name + ", " + type);
+                }
+    
+                // Mostrar la informació de la taula
+                System.out.println("Continguts de la taula " + nomTaula + ":");
+                // Com llegir cada columna es decideix un cop per taula
+                Columna[] columnes = Columna.de(rsmd);
+                while (rs.next()) {
+                    StringBuilder txt = new StringBuilder("    ");
+                    for (Columna columna : columnes) {
+                        if (columna.index() > 1) {
+                            txt.append(", ");
+                        }
+                        Object valor = columna.llegir(rs);
+                        txt.append(valor instanceof byte[] ? ((byte[]) valor).length + " bytes" : valor);
                     }
+                    System.out.println(txt);
                 }
-                System.out.println(txt);
             }
             System.out.println(); // Línia en blanc entre taules
         }
@@ -0,0 +1,92 @@
+package com.project.sqliteutils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Escriu el format binari d'ExportadorSQLite a un FileChannel a través
+ * d'un buffer gran: el canal només rep escriptures de MIDA_BUFFER bytes.
+ * Els enters van en varint (zigzag si poden ser negatius) i els textos
+ * en UTF-8 precedits de la seva longitud.
+ */
+class SortidaBinaria implements Closeable {
+
+    static final int MIDA_BUFFER = 1 << 20;
+
+    private final FileChannel canal;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(MIDA_BUFFER);
+
+    SortidaBinaria(FileChannel canal) {
+        this.canal = canal;
+    }
+
+    private void espai(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            buidar();
+        }
+    }
+
+    private void buidar() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            canal.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    void octet(int valor) throws IOException {
+        espai(1);
+        buffer.put((byte) valor);
+    }
+
+    void octets(byte[] valor, int longitud) throws IOException {
+        if (longitud > buffer.capacity()) {
+            buidar();
+            ByteBuffer gran = ByteBuffer.wrap(valor, 0, longitud);
+            while (gran.hasRemaining()) {
+                canal.write(gran);
+            }
+            return;
+        }
+        espai(longitud);
+        buffer.put(valor, 0, longitud);
+    }
+
+    void varint(long valor) throws IOException {
+        espai(10);
+        while ((valor & ~0x7FL) != 0) {
+            buffer.put((byte) ((valor & 0x7F) | 0x80));
+            valor >>>= 7;
+        }
+        buffer.put((byte) valor);
+    }
+
+    void zigzag(long valor) throws IOException {
+        varint((valor << 1) ^ (valor >> 63));
+    }
+
+    void doble(double valor) throws IOException {
+        espai(8);
+        buffer.putDouble(valor);
+    }
+
+    void text(String valor) throws IOException {
+        byte[] bytes = valor.getBytes(StandardCharsets.UTF_8);
+        varint(bytes.length);
+        octets(bytes, bytes.length);
+    }
+
+    void blob(byte[] valor) throws IOException {
+        varint(valor.length);
+        octets(valor, valor.length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        buidar();
+        canal.close();
+    }
+}
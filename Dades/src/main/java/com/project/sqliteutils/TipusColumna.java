@@ -0,0 +1,30 @@
+package com.project.sqliteutils;
+
+import java.sql.Types;
+
+/**
+ * Com es llegeix una columna, segons el tipus declarat a la taula.
+ * A SQLite el tipus declarat només és una afinitat: Hibernate hi guarda les
+ * dates (date) com a mil·lisegons i els booleans com a 0/1.
+ */
+public enum TipusColumna {
+    ENTER,
+    REAL,
+    BOOLEA,
+    DATA,
+    MOMENT,
+    TEXT,
+    BLOB;
+
+    public static TipusColumna de(int tipusSql) {
+        return switch (tipusSql) {
+            case Types.INTEGER, Types.BIGINT, Types.SMALLINT, Types.TINYINT -> ENTER;
+            case Types.REAL, Types.FLOAT, Types.DOUBLE, Types.NUMERIC, Types.DECIMAL -> REAL;
+            case Types.BOOLEAN, Types.BIT -> BOOLEA;
+            case Types.DATE -> DATA;
+            case Types.TIMESTAMP, Types.TIME -> MOMENT;
+            case Types.BLOB, Types.BINARY, Types.VARBINARY, Types.LONGVARBINARY -> BLOB;
+            default -> TEXT;
+        };
+    }
+}
@@ -3,16 +3,58 @@ package com.project.sqliteutils;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sqlite.SQLiteConfig;
 
 public class UtilsSQLite {
 
+    // Sentències preparades que es guarden per connexió
+    private static final int MIDA_CACHE = 64;
+
+    // Per connexió (per identitat). No pot ser un WeakHashMap: cada
+    // sentència apunta a la seva connexió i no la deixaria alliberar.
+    // Es buida a disconnect() o tancarSentencies().
+    private static final Map<Connection, CacheSentencies> caches = new IdentityHashMap<>();
+
+    /**
+     * Converteix la fila actual d'un ResultSet en un objecte
+     */
+    @FunctionalInterface
+    public interface LectorFila<T> {
+        T llegir (ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * LRU de sentències preparades d'una connexió: la que fa més temps
+     * que no es fa servir es tanca quan n'hi ha massa
+     */
+    private static class CacheSentencies extends LinkedHashMap<String, PreparedStatement> {
+        CacheSentencies () {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry (Map.Entry<String, PreparedStatement> eldest) {
+            if (size() > MIDA_CACHE) {
+                tancar(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    }
+
     public static Connection connect (String filePath) {
         Connection conn = null;
-        
+
         try {
             String url = "jdbc:sqlite:" + filePath;
             conn = DriverManager.getConnection(url);
@@ -26,19 +68,50 @@ public class UtilsSQLite {
         return conn;
     }
 
+    /**
+     * Connexió de només lectura i sense missatges, per obrir-ne moltes
+     * (per exemple, una per fil)
+     */
+    public static Connection connectReadOnly (String filePath) {
+        Connection conn = null;
+        try {
+            SQLiteConfig config = new SQLiteConfig();
+            config.setReadOnly(true);
+            conn = config.createConnection("jdbc:sqlite:" + filePath);
+        } catch (SQLException e) { e.printStackTrace(); }
+        return conn;
+    }
+
     public static void disconnect (Connection conn ) {
         try {
-            if (conn != null) { 
-                conn.close(); 
+            if (conn != null) {
+                tancarSentencies(conn);
+                conn.close();
                 System.out.println("DDBB SQLite desconnectada");
             }
         } catch (SQLException ex) { System.out.println(ex.getMessage()); }
     }
 
+    /**
+     * Tanca les sentències guardades de la connexió. Cal cridar-ho si la
+     * connexió es tanca sense passar per disconnect().
+     */
+    public static void tancarSentencies (Connection conn) {
+        CacheSentencies cache;
+        synchronized (caches) {
+            cache = caches.remove(conn);
+        }
+        if (cache != null) {
+            synchronized (cache) {
+                cache.values().forEach(UtilsSQLite::tancar);
+                cache.clear();
+            }
+        }
+    }
+
     public static ArrayList<String> listTables (Connection conn) {
         ArrayList<String> list = new ArrayList<>();
-        try {
-            ResultSet rs = conn.getMetaData().getTables(null, null, null, null);
+        try (ResultSet rs = conn.getMetaData().getTables(null, null, null, new String[] { "TABLE" })) {
             while (rs.next()) {
                 list.add(rs.getString("TABLE_NAME"));
             }
@@ -46,21 +119,146 @@ public class UtilsSQLite {
         return list;
     }
 
+    /**
+     * Executa SQL fet a mà. Per a consultes que es repeteixen, millor
+     * update(conn, sql, params...), que no l'ha de tornar a compilar.
+     */
     public static int queryUpdate (Connection conn, String sql) {
         int result = 0;
-        try {
-            Statement stmt = conn.createStatement();
+        try (Statement stmt = conn.createStatement()) {
             result = stmt.executeUpdate(sql);
         } catch (SQLException e) { e.printStackTrace(); }
         return result;
     }
 
+    /**
+     * Executa SQL fet a mà. En tancar el ResultSet també es tanca la
+     * sentència. Per a consultes que es repeteixen, millor query(conn, sql, params...).
+     */
     public static ResultSet querySelect (Connection conn, String sql) {
         ResultSet rs = null;
+        Statement stmt = null;
         try {
-            Statement stmt = conn.createStatement();
+            stmt = conn.createStatement();
+            stmt.closeOnCompletion();
             rs = stmt.executeQuery(sql);
-        } catch (SQLException e) { e.printStackTrace(); }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            tancar(stmt);
+        }
         return rs;
     }
-}
\ No newline at end of file
+
+    /**
+     * Consulta amb paràmetres ('?') amb una sentència preparada que es guarda
+     * per a la connexió. Cal tancar el ResultSet (la sentència queda a la cache).
+     * El ResultSet només és vàlid fins que es torna a executar la mateixa
+     * consulta a la mateixa connexió.
+     */
+    public static ResultSet query (Connection conn, String sql, Object... params) {
+        try {
+            PreparedStatement ps = preparada(conn, sql, params);
+            return ps.executeQuery();
+        } catch (SQLException e) { e.printStackTrace(); }
+        return null;
+    }
+
+    /**
+     * Consulta amb paràmetres que torna una llista amb un objecte per fila
+     */
+    public static <T> List<T> query (Connection conn, String sql, LectorFila<T> lector, Object... params) {
+        List<T> list = new ArrayList<>();
+        try (ResultSet rs = preparada(conn, sql, params).executeQuery()) {
+            while (rs.next()) {
+                list.add(lector.llegir(rs));
+            }
+        } catch (SQLException e) { e.printStackTrace(); }
+        return list;
+    }
+
+    /**
+     * INSERT, UPDATE o DELETE amb paràmetres. Torna les files afectades.
+     */
+    public static int update (Connection conn, String sql, Object... params) {
+        int result = 0;
+        try {
+            result = preparada(conn, sql, params).executeUpdate();
+        } catch (SQLException e) { e.printStackTrace(); }
+        return result;
+    }
+
+    /**
+     * Executa la mateixa sentència per a cada fila de paràmetres en un sol
+     * lot. Si la connexió és en autocommit, tot el lot va en una transacció
+     * (a SQLite, un commit per fila és el que costa). Torna les files
+     * afectades per cada fila; si falla es desfà tot i torna un array buit.
+     */
+    public static int[] batchUpdate (Connection conn, String sql, List<Object[]> files) {
+        int[] result = new int[0];
+        boolean autoCommit = true;
+        PreparedStatement ps = null;
+        try {
+            autoCommit = conn.getAutoCommit();
+            if (autoCommit) {
+                conn.setAutoCommit(false);
+            }
+            ps = preparada(conn, sql);
+            for (Object[] params : files) {
+                assignar(ps, params);
+                ps.addBatch();
+            }
+            result = ps.executeBatch();
+            if (autoCommit) {
+                conn.commit();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            result = new int[0];
+            if (autoCommit) {
+                try { conn.rollback(); } catch (SQLException ex) { System.out.println(ex.getMessage()); }
+            }
+        } finally {
+            try {
+                if (ps != null) {
+                    ps.clearBatch();
+                }
+                if (autoCommit) {
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException ex) { System.out.println(ex.getMessage()); }
+        }
+        return result;
+    }
+
+    private static PreparedStatement preparada (Connection conn, String sql, Object... params) throws SQLException {
+        CacheSentencies cache;
+        synchronized (caches) {
+            cache = caches.computeIfAbsent(conn, c -> new CacheSentencies());
+        }
+        PreparedStatement ps;
+        synchronized (cache) {
+            ps = cache.get(sql);
+            if (ps == null || ps.isClosed()) {
+                ps = conn.prepareStatement(sql);
+                cache.put(sql, ps);
+            }
+        }
+        assignar(ps, params);
+        return ps;
+    }
+
+    private static void assignar (PreparedStatement ps, Object[] params) throws SQLException {
+        ps.clearParameters();
+        for (int i = 0; i < params.length; i++) {
+            ps.setObject(i + 1, params[i]);
+        }
+    }
+
+    private static void tancar (Statement stmt) {
+        try {
+            if (stmt != null) {
+                stmt.close();
+            }
+        } catch (SQLException ex) { System.out.println(ex.getMessage()); }
+    }
+}
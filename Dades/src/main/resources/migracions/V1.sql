@@ -0,0 +1,75 @@
+-- Taules de les entitats
+-- L'esquema que generava hbm2ddl a partir de les anotacions de com.project.domain.
+-- IF NOT EXISTS: a les bases de dades que va crear hbm2ddl abans que hi hagués
+-- migracions les taules ja hi són, i només s'hi afegeix el que falti.
+
+CREATE TABLE IF NOT EXISTS autors (
+    autor_id bigint not null,
+    nom varchar(100) not null,
+    primary key (autor_id)
+);
+
+CREATE TABLE IF NOT EXISTS llibres (
+    any_publicacio integer not null,
+    llibre_id bigint not null,
+    isbn varchar(20) not null unique,
+    editorial varchar(100) not null,
+    titol varchar(100) not null,
+    primary key (llibre_id)
+);
+
+CREATE TABLE IF NOT EXISTS autor_llibre (
+    autor_id bigint not null,
+    llibre_id bigint not null,
+    primary key (autor_id, llibre_id)
+);
+
+CREATE TABLE IF NOT EXISTS biblioteques (
+    biblioteca_id bigint not null,
+    telefon varchar(15),
+    ciutat varchar(100) not null,
+    email varchar(100),
+    nom varchar(100) not null,
+    adreca varchar(150) not null,
+    primary key (biblioteca_id)
+);
+
+CREATE TABLE IF NOT EXISTS exemplars (
+    disponible boolean not null,
+    biblioteca_id bigint not null,
+    exemplar_id bigint not null,
+    llibre_id bigint not null,
+    versio bigint default 0 not null,
+    codiBarres varchar(20) not null unique,
+    primary key (exemplar_id)
+);
+
+CREATE TABLE IF NOT EXISTS persones (
+    prestecs_actius integer default 0 not null,
+    persona_id bigint not null,
+    telefon varchar(15),
+    dni varchar(20) not null unique,
+    email varchar(100) not null unique,
+    nom varchar(100) not null,
+    primary key (persona_id)
+);
+
+CREATE TABLE IF NOT EXISTS prestecs (
+    actiu boolean not null,
+    data_prestec date not null,
+    data_retorn_prevista date not null,
+    data_retorn_real date,
+    exemplar_id bigint not null,
+    persona_id bigint not null,
+    prestec_id bigint not null,
+    primary key (prestec_id)
+);
+
+CREATE TABLE IF NOT EXISTS id_generadors (
+    seguent_id bigint not null,
+    entitat varchar(255) not null,
+    primary key (entitat)
+);
+
+CREATE INDEX IF NOT EXISTS idx_prestecs_actiu_retorn ON prestecs (actiu, data_retorn_prevista);
+CREATE INDEX IF NOT EXISTS idx_prestecs_persona ON prestecs (persona_id, actiu);
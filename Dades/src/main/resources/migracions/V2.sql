@@ -0,0 +1,17 @@
+-- Índex de cerca de llibres (FTS5)
+-- La mateixa taula que IndexCerca.reconstruir, omplerta amb els llibres que
+-- ja hi hagi. Es torna a crear sencera per si ja existia d'abans de les
+-- migracions.
+
+DROP TABLE IF EXISTS cerca_llibres;
+
+CREATE VIRTUAL TABLE cerca_llibres USING fts5(titol, editorial, autors, content='', contentless_delete=1,
+    tokenize='unicode61 remove_diacritics 2');
+
+INSERT INTO cerca_llibres(rowid, titol, editorial, autors)
+    SELECT l.llibre_id, l.titol, l.editorial,
+        (SELECT group_concat(a.nom, ' ') FROM autor_llibre al
+            JOIN autors a ON a.autor_id = al.autor_id WHERE al.llibre_id = l.llibre_id)
+    FROM llibres l;
+
+INSERT INTO cerca_llibres(cerca_llibres) VALUES ('optimize');
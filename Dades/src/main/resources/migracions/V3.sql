@@ -0,0 +1,5 @@
+-- Índex dels préstecs per exemplar
+-- Per trobar el préstec actiu d'un exemplar sense recórrer tots els
+-- préstecs (Manager.retornarPerCodiBarres).
+
+CREATE INDEX IF NOT EXISTS idx_prestecs_exemplar ON prestecs (exemplar_id, actiu);